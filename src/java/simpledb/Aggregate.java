@@ -64,8 +64,9 @@ public class Aggregate extends Operator {
             this.agg = new StringAggregator(gfield, gbfieldtype, afield, aop);
         try{
             child.open();
-            while (child.hasNext())
-                agg.mergeTupleIntoGroup(child.next());
+            TupleBatch b;
+            while ((b = TupleBatch.next(child)) != null)
+                agg.mergeBatch(b);
         }catch (Exception e){
             System.out.println("Init error");
         }
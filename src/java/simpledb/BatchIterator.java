@@ -0,0 +1,21 @@
+package simpledb;
+
+/**
+ * BatchIterator is implemented by iterators that can return their tuples a
+ * batch at a time, as a {@link TupleBatch}, instead of one at a time.
+ * <p>
+ * Between a call to open and the following rewind or close, callers should
+ * read an iterator either with nextBatch or with hasNext/next, not both.
+ *
+ * @see TupleBatch#next(DbIterator)
+ */
+public interface BatchIterator {
+
+    /**
+     * Returns the next batch of tuples.
+     *
+     * @return a batch with at least one selected row, or null if there are
+     *         no more tuples
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+}
@@ -1,7 +1,10 @@
 package simpledb;
 
 import java.io.*;
-import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -11,6 +14,13 @@ import java.util.ArrayList;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * The pool is split into stripes. Every PageId hashes to one stripe, which
+ * holds the page in one of its frames and finds it again through a hashed
+ * page table. Each stripe has its own latch and its own
+ * {@link EvictionPolicy}, so sessions working on different pages do not
+ * serialize on a pool-wide lock. Small pools use a single stripe so that
+ * their replacement behaviour is that of one global policy.
  */
 public class BufferPool {
     /** Bytes per page, including header. */
@@ -20,8 +30,17 @@ public class BufferPool {
     other classes. BufferPool should use the numPages argument to the
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
-    private Page[] pages = null;
-    private Permissions[] perms = null;
+
+    /** Pools are only striped when every stripe gets at least this many frames. */
+    public static final int MIN_PAGES_PER_STRIPE = 8;
+
+    private BufferStripe[] stripes = null;
+    private PageCleaner cleaner = null;
+    /** A failure of a stopped cleaner not yet reported by flushAllPages, or null. */
+    private IOException cleanerFailure = null;
+    /** Runs asynchronous read-ahead requests; created on first use. */
+    private ExecutorService readAhead = null;
+    private final AtomicLong readAheadFailures = new AtomicLong();
 
     /**
      * Creates a BufferPool that caches up to numPages pages.
@@ -29,10 +48,251 @@ public class BufferPool {
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, LruPolicy.FACTORY);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts them
+     * according to the given policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policies creates the eviction policy of each stripe.
+     */
+    public BufferPool(int numPages, EvictionPolicy.Factory policies) {
+        this(numPages, defaultStripes(numPages), policies);
+    }
+
+    /**
+     * Creates a BufferPool with an explicit number of stripes.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param numStripes the number of independently latched partitions;
+     *     must be a power of two no larger than numPages.
+     * @param policies creates the eviction policy of each stripe.
+     */
+    public BufferPool(int numPages, int numStripes, EvictionPolicy.Factory policies) {
         // some code goes here
-        this.pages = new Page[numPages];
-        this.perms = new Permissions[numPages];
+        if(numStripes < 1 || numStripes > numPages || Integer.bitCount(numStripes) != 1)
+            throw new IllegalArgumentException("invalid number of stripes: " + numStripes);
+        this.stripes = new BufferStripe[numStripes];
+        for(int i = 0; i < numStripes; i++){
+            int frames = numPages / numStripes + (i < numPages % numStripes ? 1 : 0);
+            this.stripes[i] = new BufferStripe(frames, policies);
+        }
+    }
+
+    /**
+     * One stripe per available core, rounded down to a power of two, as long
+     * as every stripe keeps at least MIN_PAGES_PER_STRIPE frames.
+     */
+    private static int defaultStripes(int numPages) {
+        int wanted = Math.min(Runtime.getRuntime().availableProcessors(),
+                numPages / MIN_PAGES_PER_STRIPE);
+        return wanted <= 1 ? 1 : Integer.highestOneBit(wanted);
+    }
+
+    /**
+     * @return the index of the stripe that holds the given page, for a pool
+     *     with numStripes stripes.
+     */
+    static int stripeIndex(PageId pid, int numStripes) {
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        return h & (numStripes - 1);
+    }
+
+    private BufferStripe stripeOf(PageId pid) {
+        return this.stripes[stripeIndex(pid, this.stripes.length)];
+    }
+
+    /**
+     * Starts a background thread that writes dirty pages ahead of eviction.
+     * Whenever more than highWatermark of the frames are dirty, it writes
+     * dirty pages, coalescing adjacent pages of a file, until at most
+     * lowWatermark of the frames are dirty. Has no effect if the cleaner is
+     * already running.
+     *
+     * @param highWatermark share of dirty frames that triggers cleaning
+     * @param lowWatermark share of dirty frames at which cleaning stops
+     * @param intervalMillis how often the dirty share is checked
+     */
+    public synchronized void startPageCleaner(double highWatermark, double lowWatermark,
+            long intervalMillis) {
+        if(this.cleaner != null)
+            return;
+        this.cleaner = new PageCleaner(this.stripes, highWatermark, lowWatermark, intervalMillis);
+        this.cleaner.start();
+    }
+
+    /**
+     * Stops the background page cleaner, if it is running, and waits for
+     * its current pass to finish. A failure of the cleaner is still
+     * reported by the next {@link #flushAllPages}.
+     */
+    public synchronized void stopPageCleaner() {
+        if(this.cleaner != null){
+            this.cleaner.shutdown();
+            this.cleanerFailure = takeCleanerFailure();
+            this.cleaner = null;
+        }
+    }
+
+    /**
+     * @return the first failure of the page cleaner since the last call,
+     *     or null. The failure is forgotten.
+     */
+    private synchronized IOException takeCleanerFailure() {
+        IOException failure = this.cleanerFailure;
+        this.cleanerFailure = null;
+        if(this.cleaner != null){
+            IOException e = this.cleaner.takeFailure();
+            if(failure == null)
+                failure = e;
+        }
+        return failure;
+    }
+
+    /**
+     * Stops every background thread of this pool: the page cleaner and the
+     * read-ahead worker. Pending read-ahead requests are dropped.
+     */
+    public synchronized void shutdown() {
+        stopPageCleaner();
+        if(this.readAhead != null){
+            this.readAhead.shutdownNow();
+            this.readAhead = null;
+        }
+    }
 
+    /**
+     * Asynchronously reads up to count pages of a HeapFile, starting at page
+     * firstPgNo, into the pool. Pages that are already resident are skipped
+     * and the rest are read with as few file reads as possible. Read-ahead
+     * takes no page locks; the transaction that later requests the page
+     * takes them as usual. Requests for other kinds of DbFile are ignored.
+     * A read that fails is only counted: the pages stay unread, and a
+     * later getPage reads them again and reports any error to its caller.
+     *
+     * @param tableId the table to read from
+     * @param firstPgNo the first page to read
+     * @param count the number of pages to read
+     */
+    public void prefetchPages(final int tableId, final int firstPgNo, final int count) {
+        ExecutorService executor;
+        synchronized(this){
+            if(this.readAhead == null)
+                this.readAhead = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "simpledb-read-ahead");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            executor = this.readAhead;
+        }
+        executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    loadPages(tableId, firstPgNo, count);
+                } catch (IOException e) {
+                    readAheadFailures.incrementAndGet();
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads the non-resident pages of the given range into the pool on the
+     * calling thread. The file is read without holding any latch. Each page
+     * is then installed under the latch of its stripe, and only if it is
+     * still not resident and no page of its stripe has been written back
+     * since the residency check; otherwise the image read may be older than
+     * one written back meanwhile, and it is dropped.
+     */
+    void loadPages(int tableId, int firstPgNo, int count) throws IOException {
+        DbFile df = Database.getCatalog().getDbFile(tableId);
+        if(!(df instanceof HeapFile))
+            return;
+        HeapFile hf = (HeapFile) df;
+        int end = Math.min(firstPgNo + count, hf.numPages());
+        if(firstPgNo >= end)
+            return;
+
+        // for each page to read, the write-backs of its stripe before the read
+        long[] seen = new long[end - firstPgNo];
+        for(int pgNo = firstPgNo; pgNo < end; pgNo++){
+            PageId pid = new HeapPageId(tableId, pgNo);
+            BufferStripe stripe = stripeOf(pid);
+            stripe.latch().lock();
+            try {
+                seen[pgNo - firstPgNo] = stripe.contains(pid) ? -1 : stripe.writeBacks();
+            } finally {
+                stripe.latch().unlock();
+            }
+        }
+
+        // write-backs caused by evictions for the prefetched pages themselves
+        long[] own = new long[this.stripes.length];
+        int pgNo = firstPgNo;
+        while(pgNo < end){
+            int runEnd = pgNo;
+            while(runEnd < end && seen[runEnd - firstPgNo] >= 0)
+                runEnd++;
+            if(runEnd > pgNo){
+                for(Page p : hf.readPages(pgNo, runEnd - pgNo)){
+                    int s = stripeIndex(p.getId(), this.stripes.length);
+                    BufferStripe stripe = this.stripes[s];
+                    stripe.latch().lock();
+                    try {
+                        long before = stripe.writeBacks();
+                        if(stripe.contains(p.getId())
+                                || before - own[s] != seen[p.getId().pageNumber() - firstPgNo])
+                            continue;
+                        if(!stripe.installPrefetched(p))
+                            return;
+                        own[s] += stripe.writeBacks() - before;
+                    } finally {
+                        stripe.latch().unlock();
+                    }
+                }
+            }
+            // the page at runEnd, if any, was resident
+            pgNo = runEnd + 1;
+        }
+    }
+
+    /**
+     * @return the number of pages read into the pool ahead of demand.
+     */
+    public long getPrefetchCount() {
+        long prefetched = 0;
+        for(BufferStripe stripe : this.stripes)
+            prefetched += stripe.getPrefetchCount();
+        return prefetched;
+    }
+
+    /**
+     * @return the number of read-ahead requests that failed with an
+     *     IOException.
+     */
+    public long getReadAheadFailureCount() {
+        return this.readAheadFailures.get();
+    }
+
+    /**
+     * @return the number of pages written by the background page cleaner,
+     *     or 0 if it is not running.
+     */
+    public synchronized long getCleanedPageCount() {
+        return this.cleaner == null ? 0 : this.cleaner.getPagesWritten();
+    }
+
+    /**
+     * @return the number of passes of the background page cleaner that
+     *     failed with an IOException, or 0 if it is not running.
+     */
+    public synchronized long getCleanerFailureCount() {
+        return this.cleaner == null ? 0 : this.cleaner.getFailures();
     }
 
     /**
@@ -54,47 +314,63 @@ public class BufferPool {
         throws TransactionAbortedException, DbException, IOException {
         // some code goes here
         LockManager.acquireLock(pid, tid, perm);
-        int i = 0;
-        int tableid = pid.getTableId();
-        while(i < this.pages.length){
-            if(this.pages[i] == null || this.pages[i].getId() == null){
-                i++;
-                continue;
-            }
-            if(pid.equals(this.pages[i].getId())){
-                Page temp = pages[i];
-                for(int j = i; j > 0; j--)
-                    pages[j] = pages[j - 1];
-                pages[0] = temp;
-                this.perms[0] = perm;
-                return this.pages[0];
-            }
-            i++;
-        }
+        return stripeOf(pid).getPage(tid, pid, perm, false);
+    }
 
-        HeapFile hf = (HeapFile) Database.getCatalog().getDbFile(tableid);
-        HeapPage hp = (HeapPage) hf.readPage(pid);
-        i = 0;
-        while(i < this.pages.length){
-            if(this.pages[i] == null){
-                this.pages[i] = hp;
-                this.perms[i] = perm;
-                break;
-            }
-            i++;
-        }
-        if(i == pages.length){
-            evictPage();
-            //pages[0] = null;
-            for(int j = 0; j < pages.length; j++){
-                if(pages[j] == null){
-                    pages[j] = hp;
-                    break;
-                }
-            }
-        }
-        LockManager.releaseLock(pid, tid);
-        return hp;
+    /**
+     * Retrieves a page like {@link #getPage} and pins it in the buffer pool.
+     * A pinned page is never chosen for eviction, so callers can keep
+     * reading it until they call {@link #unpinPage}. Every pinPage must be
+     * matched by exactly one unpinPage.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @throws DbException if the page is not resident and every frame it
+     *     could be loaded into is pinned
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException, IOException {
+        LockManager.acquireLock(pid, tid, perm);
+        return stripeOf(pid).getPage(tid, pid, perm, true);
+    }
+
+    /**
+     * Releases one pin taken by {@link #pinPage}. Once no pins are left the
+     * page may be evicted again.
+     *
+     * @param pid the ID of the page to unpin
+     */
+    public void unpinPage(PageId pid) {
+        stripeOf(pid).unpinPage(pid);
+    }
+
+    /**
+     * @return the number of outstanding pins on the page, or 0 if it is not
+     *     in the buffer pool.
+     */
+    public int getPinCount(PageId pid) {
+        return stripeOf(pid).getPinCount(pid);
+    }
+
+    /**
+     * @return the number of getPage calls served by a resident page.
+     */
+    public long getHitCount() {
+        long hits = 0;
+        for(BufferStripe stripe : this.stripes)
+            hits += stripe.getHitCount();
+        return hits;
+    }
+
+    /**
+     * @return the number of getPage calls that had to read the page from disk.
+     */
+    public long getMissCount() {
+        long misses = 0;
+        for(BufferStripe stripe : this.stripes)
+            misses += stripe.getMissCount();
+        return misses;
     }
 
     /**
@@ -159,36 +435,7 @@ public class BufferPool {
         // some code goes here
         DbFile df = Database.getCatalog().getDbFile(tableId);
         Page res = df.insertTuple(tid, t).get(0);
-        boolean in = false;
-        boolean isFull = true;
-        int flag = 0;
-        for(int i = 0; i < pages.length; i++){
-            if(pages[i] == null || pages[i].getId() == null){
-                isFull = false;
-                flag = i;
-            }
-            else {
-                if(res.getId().equals(pages[i].getId())){
-                    pages[i].markDirty(true, tid);
-                    in = true;
-                    break;
-                }
-            }
-
-        }
-        if(!in){
-            if(isFull){
-                evictPage();
-                for(int j = 0; j < pages.length; j++){
-                    if(pages[j] == null)
-                        pages[j] = res;
-                }
-            }
-            else {
-                pages[flag] = res;
-                pages[flag].markDirty(false, tid);
-            }
-        }
+        stripeOf(res.getId()).putDirtyPage(res, tid);
     }
 
     /**
@@ -210,11 +457,7 @@ public class BufferPool {
         PageId pid = t.getRecordId().getPageId();
         DbFile df = Database.getCatalog().getDbFile(pid.getTableId());
         try {
-            HeapPage res = (HeapPage) df.deleteTuple(tid, t);
-            if(!res.isEmpty())
-                res.markDirty(true, tid);
-            else
-               res.setPid(null);
+            df.deleteTuple(tid, t).markDirty(true, tid);
 
         }catch (IOException e){
             throw new DbException("IOException happens");
@@ -226,17 +469,18 @@ public class BufferPool {
      * Flush all dirty pages to disk.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
+     *
+     * @throws IOException if a write fails, or if the background page
+     *     cleaner failed since the last call; the latter is thrown after
+     *     all pages have been written
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
-        for(Page p : pages){
-            if(p != null && p.getId() != null && p.isDirty() != null){
-                PageId pid = p.getId();
-                DbFile df = Database.getCatalog().getDbFile(pid.getTableId());
-                df.writePage(p);
-                p.markDirty(false, null);
-            }
-        }
+        for(BufferStripe stripe : this.stripes)
+            stripe.flushPages(null);
+        IOException failure = takeCleanerFailure();
+        if(failure != null)
+            throw new IOException("background page cleaner failed", failure);
 
     }
 
@@ -245,57 +489,27 @@ public class BufferPool {
         buffer pool doesn't keep a rolled back page in its
         cache.
     */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
-	// not necessary for proj1
+        stripeOf(pid).discardPage(pid);
     }
 
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
         // some code goes here
-        for(Page p : pages){
-            if(p != null && p.getId() != null && p.getId().equals(pid)){
-                DbFile df = Database.getCatalog().getDbFile(pid.getTableId());
-                df.writePage(p);
-                p.markDirty(false, null);
-            }
-        }
+        stripeOf(pid).flushPage(pid);
 
     }
 
     /** Write all pages of the specified transaction to disk.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
-        for(Page p : pages){
-            if(p != null && p.getId() != null && p.isDirty() == tid){
-                PageId pid = p.getId();
-                DbFile df = Database.getCatalog().getDbFile(pid.getTableId());
-                df.writePage(p);
-                p.markDirty(false, null);
-            }
-        }
-    }
-
-    /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
-     */
-    private synchronized  void evictPage() throws DbException {
-        // some code goes here
-        int l = pages.length;
-        DbFile df = Database.getCatalog().getDbFile(pages[l - 1].getId().getTableId());
-        try{
-            df.writePage(pages[l - 1]);
-        }catch (IOException e){
-            throw new DbException("IOException happens");
-        }
-        for(int i = l - 1; i > 0; i--)
-            pages[i] = pages[i - 1];
-        pages[0] = null;
+        for(BufferStripe stripe : this.stripes)
+            stripe.flushPages(tid);
     }
 
 }
@@ -0,0 +1,430 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One partition of the BufferPool. A stripe owns a fixed set of frames, the
+ * page table for the pages hashed to it and its own eviction policy, all
+ * guarded by a single latch. Pages of different stripes never contend, so
+ * sessions reading different pages proceed in parallel. The latch is never
+ * held while a missed page is read from disk, so hits on a stripe do not
+ * wait for the misses of other sessions.
+ *
+ * @see BufferPool
+ */
+class BufferStripe {
+
+    private final ReentrantLock latch = new ReentrantLock();
+    private final Page[] frames;
+    private final Permissions[] perms;
+    /** Number of outstanding pins on each frame; pinned frames are never evicted. */
+    private final int[] pinCounts;
+    /** Maps every resident page to the index of the frame holding it. */
+    private final HashMap<PageId, Integer> pageTable;
+    /** Indices of the frames that currently hold no page. */
+    private final ArrayDeque<Integer> freeFrames;
+    /** The pages being read from disk by a miss, outside the latch. */
+    private final HashMap<PageId, PendingRead> reading = new HashMap<>();
+    private final EvictionPolicy policy;
+    private long hits = 0;
+    private long misses = 0;
+    private long prefetched = 0;
+    /** Number of pages of this stripe written back to their files. */
+    private long writeBacks = 0;
+
+    /**
+     * @param numFrames the number of pages this stripe can hold
+     * @param policies creates the eviction policy of this stripe
+     */
+    BufferStripe(int numFrames, EvictionPolicy.Factory policies) {
+        this.frames = new Page[numFrames];
+        this.perms = new Permissions[numFrames];
+        this.pinCounts = new int[numFrames];
+        this.pageTable = new HashMap<>(numFrames * 4 / 3 + 1);
+        this.freeFrames = new ArrayDeque<>(numFrames);
+        for(int i = 0; i < numFrames; i++)
+            this.freeFrames.add(i);
+        this.policy = policies.create(numFrames);
+    }
+
+    /**
+     * A page being read from disk by a miss. Other sessions missing on the
+     * same page wait for it instead of reading the page again.
+     */
+    private static final class PendingRead {
+        final CountDownLatch done = new CountDownLatch(1);
+        /**
+         * True if a copy of the page was cached while it was read, which
+         * may have been written back before the read finished.
+         */
+        boolean superseded = false;
+    }
+
+    /**
+     * Returns the page with the given id, reading it from its DbFile if it
+     * is not resident. The file is read without the latch; a session that
+     * misses on a page another session is reading waits for that read
+     * instead, so a page is never loaded twice. After a miss the page lock
+     * taken by the transaction is released again.
+     *
+     * @param pin if true, the frame is pinned before the latch is released
+     */
+    Page getPage(TransactionId tid, PageId pid, Permissions perm, boolean pin)
+            throws DbException {
+        while(true){
+            PendingRead read;
+            boolean mine = false;
+            latch.lock();
+            try {
+                Integer frame = this.pageTable.get(pid);
+                if(frame != null){
+                    this.hits++;
+                    this.policy.frameAccessed(frame);
+                    return useFrame(frame, perm, pin);
+                }
+                read = this.reading.get(pid);
+                if(read == null){
+                    this.misses++;
+                    read = new PendingRead();
+                    this.reading.put(pid, read);
+                    mine = true;
+                }
+            } finally {
+                latch.unlock();
+            }
+            if(mine)
+                return readPage(tid, pid, perm, pin, read);
+            try {
+                read.done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while waiting for page " + pid);
+            }
+        }
+    }
+
+    /**
+     * Reads a page this session missed on, with the latch released, and
+     * caches it. If a copy of the page was cached meanwhile it is used
+     * instead; if that copy has already been dropped again, it may have
+     * been written back after the file was read, so the page is read again.
+     */
+    private Page readPage(TransactionId tid, PageId pid, Permissions perm, boolean pin,
+            PendingRead read) throws DbException {
+        DbFile df = Database.getCatalog().getDbFile(pid.getTableId());
+        try {
+            while(true){
+                Page page = df.readPage(pid);
+                latch.lock();
+                try {
+                    Integer frame = this.pageTable.get(pid);
+                    if(frame == null && read.superseded){
+                        read.superseded = false;
+                        continue;
+                    }
+                    if(frame == null){
+                        frame = installPage(page);
+                        LockManager.releaseLock(pid, tid);
+                    }
+                    return useFrame(frame, perm, pin);
+                } finally {
+                    latch.unlock();
+                }
+            }
+        } finally {
+            latch.lock();
+            try {
+                this.reading.remove(pid);
+            } finally {
+                latch.unlock();
+            }
+            read.done.countDown();
+        }
+    }
+
+    /**
+     * Hands out the page of a frame. Caller must hold the latch.
+     */
+    private Page useFrame(int frame, Permissions perm, boolean pin) {
+        this.perms[frame] = perm;
+        if(pin)
+            this.pinCounts[frame]++;
+        return this.frames[frame];
+    }
+
+    /**
+     * Marks the page dirty if it is resident, otherwise caches it as a clean
+     * page. Used for pages handed back by DbFile.insertTuple, which may have
+     * been created outside the pool.
+     */
+    void putDirtyPage(Page page, TransactionId tid) throws DbException {
+        latch.lock();
+        try {
+            Integer frame = this.pageTable.get(page.getId());
+            if(frame != null)
+                this.frames[frame].markDirty(true, tid);
+            else {
+                installPage(page);
+                page.markDirty(false, tid);
+            }
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * Drops one pin on the page. Pages that are no longer resident, for
+     * example because they were discarded, are ignored.
+     */
+    void unpinPage(PageId pid) {
+        latch.lock();
+        try {
+            Integer frame = this.pageTable.get(pid);
+            if(frame != null && this.pinCounts[frame] > 0)
+                this.pinCounts[frame]--;
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * @return the number of outstanding pins on the page, 0 if it is not
+     *     resident.
+     */
+    int getPinCount(PageId pid) {
+        latch.lock();
+        try {
+            Integer frame = this.pageTable.get(pid);
+            return frame == null ? 0 : this.pinCounts[frame];
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    void discardPage(PageId pid) {
+        latch.lock();
+        try {
+            Integer frame = this.pageTable.get(pid);
+            if(frame != null)
+                releaseFrame(pid, frame);
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    void flushPage(PageId pid) throws IOException {
+        latch.lock();
+        try {
+            Integer frame = this.pageTable.get(pid);
+            if(frame != null && this.frames[frame].isDirty() != null)
+                writePage(this.frames[frame]);
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * Writes the dirty pages of this stripe to disk.
+     *
+     * @param tid only flush pages dirtied by this transaction, or all dirty
+     *     pages if null
+     */
+    void flushPages(TransactionId tid) throws IOException {
+        latch.lock();
+        try {
+            for(Page p : this.frames){
+                if(p != null && p.isDirty() != null && (tid == null || p.isDirty() == tid))
+                    writePage(p);
+            }
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * The latch guarding this stripe. The page cleaner holds it while it
+     * writes pages of this stripe so that they cannot be evicted and read
+     * back before the write reaches the file.
+     */
+    ReentrantLock latch() {
+        return this.latch;
+    }
+
+    int capacity() {
+        return this.frames.length;
+    }
+
+    int countDirty() {
+        latch.lock();
+        try {
+            int dirty = 0;
+            for(Page p : this.frames){
+                if(p != null && p.isDirty() != null)
+                    dirty++;
+            }
+            return dirty;
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * Adds every dirty resident page of this stripe to the given list.
+     */
+    void collectDirty(List<Page> out) {
+        latch.lock();
+        try {
+            for(Page p : this.frames){
+                if(p != null && p.isDirty() != null)
+                    out.add(p);
+            }
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * @return true if a page with the given id is resident, or is being read
+     *     by a miss. Caller must hold the latch.
+     */
+    boolean contains(PageId pid) {
+        return this.pageTable.containsKey(pid) || this.reading.containsKey(pid);
+    }
+
+    /**
+     * @return the number of pages of this stripe written back so far. A
+     *     page read from its file is current if this number has not
+     *     changed since before the read. Caller must hold the latch.
+     */
+    long writeBacks() {
+        return this.writeBacks;
+    }
+
+    /**
+     * Records that the page cleaner wrote back a page of this stripe.
+     * Caller must hold the latch.
+     */
+    void pageWrittenBack() {
+        this.writeBacks++;
+    }
+
+    /**
+     * Caches a page read ahead of demand. Unlike a miss this never fails:
+     * if every frame is pinned, the page is dropped. Caller must hold the
+     * latch and must have checked that the page is not resident.
+     *
+     * @return true if the page was cached
+     */
+    boolean installPrefetched(Page page) {
+        try {
+            installPage(page);
+        } catch (DbException e) {
+            return false;
+        }
+        this.prefetched++;
+        return true;
+    }
+
+    long getPrefetchCount() {
+        latch.lock();
+        try {
+            return this.prefetched;
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * @return true if the given page object is still cached by this stripe.
+     *     Caller must hold the latch.
+     */
+    boolean holds(Page page) {
+        Integer frame = this.pageTable.get(page.getId());
+        return frame != null && this.frames[frame] == page;
+    }
+
+    long getHitCount() {
+        latch.lock();
+        try {
+            return this.hits;
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    long getMissCount() {
+        latch.lock();
+        try {
+            return this.misses;
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * Places a page that is not yet resident into a free frame, evicting a
+     * page first if every frame is in use. Caller must hold the latch.
+     *
+     * @return the index of the frame now holding the page
+     */
+    private int installPage(Page page) throws DbException {
+        if(this.freeFrames.isEmpty())
+            evictPage();
+        int frame = this.freeFrames.poll();
+        this.frames[frame] = page;
+        this.perms[frame] = null;
+        this.pageTable.put(page.getId(), frame);
+        this.policy.frameLoaded(frame, page.getId());
+        PendingRead read = this.reading.get(page.getId());
+        if(read != null)
+            read.superseded = true;
+        return frame;
+    }
+
+    /**
+     * Empties the given frame and forgets the page it held. Caller must hold
+     * the latch.
+     */
+    private void releaseFrame(PageId pid, int frame) {
+        this.pageTable.remove(pid);
+        this.policy.frameRemoved(frame);
+        this.frames[frame] = null;
+        this.perms[frame] = null;
+        this.pinCounts[frame] = 0;
+        this.freeFrames.add(frame);
+    }
+
+    /**
+     * Evicts the unpinned victim chosen by the policy, writing it first if
+     * it is dirty. Caller must hold the latch.
+     */
+    private void evictPage() throws DbException {
+        int frame = this.policy.chooseVictim(this.pinCounts);
+        if(frame < 0)
+            throw new DbException("all pages in the buffer pool are pinned");
+        PageId victim = this.frames[frame].getId();
+        try{
+            if(this.frames[frame].isDirty() != null)
+                writePage(this.frames[frame]);
+        }catch (IOException e){
+            throw new DbException("IOException happens");
+        }
+        releaseFrame(victim, frame);
+    }
+
+    /**
+     * Writes a page back to its DbFile and marks it clean. Caller must hold
+     * the latch.
+     */
+    private void writePage(Page p) throws IOException {
+        DbFile df = Database.getCatalog().getDbFile(p.getId().getTableId());
+        df.writePage(p);
+        p.markDirty(false, null);
+        this.writeBacks++;
+    }
+}
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
@@ -103,6 +104,21 @@ public class Catalog {
         throw new NoSuchElementException();
     }
 
+    /**
+     * Returns the size in bytes of the pages of the specified table. Heap
+     * files choose their page size when they are created; other files use
+     * {@link BufferPool#PAGE_SIZE}.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public int getPageSize(int tableid) throws NoSuchElementException {
+        DbFile file = getDbFile(tableid);
+        if(file instanceof HeapFile)
+            return ((HeapFile) file).getPageSize();
+        return BufferPool.PAGE_SIZE;
+    }
+
     public String getPrimaryKey(int tableid) throws NoSuchElementException {
         // some code goes here
         if(this.tables.containsKey(tableid))
@@ -122,9 +138,18 @@ public class Catalog {
         throw new NoSuchElementException();
     }
     
-    /** Delete all tables from the catalog */
+    /** Delete all tables from the catalog, closing the files of those that can be closed */
     public void clear() {
         // some code goes here
+        for(Table t : this.tables.values()){
+            if(t.getFile() instanceof Closeable){
+                try {
+                    ((Closeable) t.getFile()).close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
         this.tables.clear();
         this.indices.clear();
     }
@@ -140,7 +165,7 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
             
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) [pagesize n] [slotted]
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -168,11 +193,34 @@ public class Catalog {
                         }
                     }
                 }
+                int pageSize = BufferPool.PAGE_SIZE;
+                boolean slotted = false;
+                String[] options = line.substring(line.indexOf(")") + 1).trim().split("\\s+");
+                for (int i = 0; i < options.length; i++) {
+                    String option = options[i].toLowerCase();
+                    if (option.equals("pagesize") && i + 1 < options.length)
+                        pageSize = Integer.parseInt(options[++i]);
+                    else if (option.equals("slotted"))
+                        slotted = true;
+                    else if (!option.isEmpty()) {
+                        System.out.println("Unknown table option " + options[i]);
+                        System.exit(0);
+                    }
+                }
+                if (slotted && pageSize != BufferPool.PAGE_SIZE) {
+                    System.out.println("Slotted tables have pages of " + BufferPool.PAGE_SIZE + " bytes");
+                    System.exit(0);
+                }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
-                addTable(tabHf,name,primaryKey);
+                File tabFile = new File(baseFolder+"/"+name + ".dat");
+                DbFile tab;
+                if (slotted)
+                    tab = new SlottedFile(tabFile, t);
+                else
+                    tab = new HeapFile(tabFile, t, pageSize);
+                addTable(tab,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
@@ -181,6 +229,9 @@ public class Catalog {
         } catch (IndexOutOfBoundsException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
+        } catch (IllegalArgumentException e) {
+            System.out.println ("Invalid catalog entry : " + line);
+            System.exit(0);
         }
     }
 
@@ -0,0 +1,64 @@
+package simpledb;
+
+/**
+ * CLOCK (second chance) replacement. Every resident frame has a reference
+ * bit that is set on each access. A hand sweeps the frames in a circle,
+ * clearing set bits and stopping at the first unpinned frame whose bit is
+ * already clear. Hits cost a single store and the sweep is amortized O(1).
+ */
+public class ClockPolicy implements EvictionPolicy {
+
+    /** Creates ClockPolicy instances for the BufferPool. */
+    public static final EvictionPolicy.Factory FACTORY = new EvictionPolicy.Factory() {
+        public EvictionPolicy create(int numFrames) {
+            return new ClockPolicy(numFrames);
+        }
+    };
+
+    private boolean[] resident;
+    private boolean[] referenced;
+    private int numResident = 0;
+    private int hand = 0;
+
+    /**
+     * @param numFrames the number of frames in the buffer pool
+     */
+    public ClockPolicy(int numFrames) {
+        this.resident = new boolean[numFrames];
+        this.referenced = new boolean[numFrames];
+    }
+
+    public void frameLoaded(int frame, PageId pid) {
+        this.resident[frame] = true;
+        this.referenced[frame] = true;
+        this.numResident++;
+    }
+
+    public void frameAccessed(int frame) {
+        this.referenced[frame] = true;
+    }
+
+    public void frameRemoved(int frame) {
+        if(this.resident[frame]){
+            this.resident[frame] = false;
+            this.referenced[frame] = false;
+            this.numResident--;
+        }
+    }
+
+    public int chooseVictim(int[] pinCounts) {
+        if(this.numResident == 0)
+            return -1;
+        // two full sweeps are enough: the first clears every reference bit
+        for(int step = 0; step < 2 * this.resident.length; step++){
+            int frame = this.hand;
+            this.hand = (this.hand + 1) % this.resident.length;
+            if(!this.resident[frame] || pinCounts[frame] > 0)
+                continue;
+            if(!this.referenced[frame])
+                return frame;
+            this.referenced[frame] = false;
+        }
+        return -1;
+    }
+}
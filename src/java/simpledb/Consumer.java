@@ -0,0 +1,168 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Consumer returns the tuples of a set of {@link Producer}s, each of which
+ * runs on its own worker thread. The producers are started when the
+ * consumer is opened and stopped when it is closed. Tuples are returned in
+ * the order their batches arrive, so the order of the tuples of different
+ * producers is not defined.
+ */
+public abstract class Consumer extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of batches each producer may queue before it waits. */
+    private static final int BATCHES_PER_PRODUCER = 4;
+
+    private final Producer[] producers;
+    private transient BlockingQueue<Object> queue;
+    private transient Thread[] threads;
+    /** Number of producers that have not finished yet. */
+    private transient int running;
+    private transient TupleBatch current;
+    private transient int nextRow;
+
+    /**
+     * Constructor.
+     *
+     * @param producers
+     *            the producers to consume, which must all have the same
+     *            TupleDesc
+     */
+    public Consumer(Producer[] producers) {
+        if (producers.length == 0)
+            throw new IllegalArgumentException("a consumer needs a producer");
+        this.producers = producers;
+    }
+
+    /** @return the producers this consumer reads. */
+    public Producer[] getProducers() {
+        return producers.clone();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return producers[0].getTupleDesc();
+    }
+
+    private void start() {
+        queue = new ArrayBlockingQueue<Object>(BATCHES_PER_PRODUCER * producers.length);
+        threads = new Thread[producers.length];
+        for (int i = 0; i < producers.length; i++) {
+            producers[i].setOutput(queue);
+            threads[i] = new Thread(producers[i], getName() + "-" + i);
+            threads[i].setDaemon(true);
+        }
+        running = producers.length;
+        current = null;
+        for (Thread t : threads)
+            t.start();
+    }
+
+    /**
+     * Stops the producers that are still running and waits for them to
+     * close their children.
+     */
+    private void stop() {
+        if (threads == null)
+            return;
+        for (Producer p : producers)
+            p.stop();
+        queue.clear();
+        boolean interrupted = false;
+        for (Thread t : threads) {
+            while (t.isAlive()) {
+                try {
+                    t.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        threads = null;
+        queue = null;
+        current = null;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        start();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        stop();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        stop();
+        start();
+    }
+
+    /**
+     * Returns the next batch any producer has queued, waiting for one if
+     * there is none yet.
+     *
+     * @throws DbException if a producer failed, or the thread was
+     *         interrupted while waiting
+     * @throws TransactionAbortedException if a producer's transaction was
+     *         aborted
+     */
+    @Override
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        while (running > 0) {
+            Object o;
+            try {
+                o = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while waiting for " + getName());
+            }
+            if (o instanceof TupleBatch)
+                return (TupleBatch) o;
+            running--;
+            Exception failure = ((Producer) o).getFailure();
+            if (failure instanceof TransactionAbortedException)
+                throw (TransactionAbortedException) failure;
+            if (failure instanceof DbException)
+                throw (DbException) failure;
+            if (failure != null)
+                throw new DbException(getName() + " failed: " + failure);
+        }
+        return null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (current == null || nextRow == current.size()) {
+            current = nextBatch();
+            nextRow = 0;
+            if (current == null)
+                return null;
+        }
+        return current.getTuple(nextRow++);
+    }
+
+    /**
+     * @return the children of the producers. Query plans show the first of
+     *         them as the child of this consumer.
+     */
+    @Override
+    public DbIterator[] getChildren() {
+        DbIterator[] children = new DbIterator[producers.length];
+        for (int i = 0; i < producers.length; i++)
+            children[i] = producers[i].getChildren()[0];
+        return children;
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        for (int i = 0; i < producers.length && i < children.length; i++)
+            producers[i].setChildren(new DbIterator[] { children[i] });
+    }
+}
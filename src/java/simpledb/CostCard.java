@@ -11,4 +11,7 @@ public class CostCard {
     public int card;
     /** The optimal subplan */
     public Vector<LogicalJoinNode> plan;
+    /** The cost of each join algorithm for the last join of the subplan,
+     * indexed by {@link JoinOptimizer.Algorithm#ordinal} */
+    public double[] joinCosts;
 }
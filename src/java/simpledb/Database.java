@@ -50,12 +50,23 @@ public class Database {
         buffer pool and return it
     */
     public static BufferPool resetBufferPool(int pages) {
+        _instance._bufferpool.shutdown();
         _instance._bufferpool = new BufferPool(pages);
         return _instance._bufferpool;
     }
 
+    /** Method used for testing -- create a new instance of the
+        buffer pool that evicts pages with the given policy and return it
+    */
+    public static BufferPool resetBufferPool(int pages, EvictionPolicy.Factory policies) {
+        _instance._bufferpool.shutdown();
+        _instance._bufferpool = new BufferPool(pages, policies);
+        return _instance._bufferpool;
+    }
+
     //reset the database, used for unit tests only.
     public static void reset() {
+        _instance._bufferpool.shutdown();
     	_instance = new Database();
     }
 
@@ -0,0 +1,98 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * DirectIo opens files for direct I/O, which bypasses the operating
+ * system's page cache, and allocates the aligned buffers it needs.
+ * <p>
+ * Direct I/O relies on com.sun.nio.file.ExtendedOpenOption.DIRECT,
+ * ByteBuffer.alignedSlice and FileStore.getBlockSize, which newer JDKs
+ * provide. They are looked up by reflection so that the code still builds
+ * and runs on JDKs without them, where {@link #isSupported} returns false.
+ */
+class DirectIo {
+
+    private static final OpenOption DIRECT;
+    private static final Method ALIGNED_SLICE;
+    private static final Method BLOCK_SIZE;
+
+    static {
+        OpenOption direct = null;
+        Method alignedSlice = null;
+        Method blockSize = null;
+        try {
+            Class<?> options = Class.forName("com.sun.nio.file.ExtendedOpenOption");
+            direct = (OpenOption) options.getField("DIRECT").get(null);
+            alignedSlice = ByteBuffer.class.getMethod("alignedSlice", int.class);
+            blockSize = FileStore.class.getMethod("getBlockSize");
+        } catch (ReflectiveOperationException e) {
+            direct = null;
+        }
+        DIRECT = direct;
+        ALIGNED_SLICE = alignedSlice;
+        BLOCK_SIZE = blockSize;
+    }
+
+    private DirectIo() {
+    }
+
+    /** @return true if this JVM can open files for direct I/O. */
+    static boolean isSupported() {
+        return DIRECT != null;
+    }
+
+    /**
+     * Opens a file for direct reads and writes.
+     *
+     * @throws IOException if the JVM or the file system does not support
+     *     direct I/O, or the file cannot be opened
+     */
+    static FileChannel open(File f) throws IOException {
+        if (!isSupported())
+            throw new IOException("direct I/O is not supported by this JVM");
+        return FileChannel.open(f.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE, DIRECT);
+    }
+
+    /**
+     * @return the block size of the file system holding the file, to
+     *     which direct transfers must be aligned.
+     */
+    static int blockSize(File f) throws IOException {
+        Path p = f.toPath();
+        Object size = invoke(BLOCK_SIZE, Files.getFileStore(p));
+        return (int) (long) (Long) size;
+    }
+
+    /**
+     * @return a direct buffer of the given size whose address is a
+     *     multiple of alignment.
+     */
+    static ByteBuffer allocate(int size, int alignment) throws IOException {
+        ByteBuffer raw = ByteBuffer.allocateDirect(size + alignment);
+        ByteBuffer aligned = (ByteBuffer) invoke(ALIGNED_SLICE, raw, alignment);
+        aligned.limit(size);
+        return aligned.slice();
+    }
+
+    private static Object invoke(Method m, Object target, Object... args) throws IOException {
+        try {
+            return m.invoke(target, args);
+        } catch (IllegalAccessException e) {
+            throw new IOException(e);
+        } catch (InvocationTargetException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+}
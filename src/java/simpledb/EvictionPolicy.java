@@ -0,0 +1,62 @@
+package simpledb;
+
+/**
+ * EvictionPolicy decides which buffer frame the BufferPool gives up when it
+ * needs room for a new page. The pool reports every load, hit and removal
+ * of a frame to the policy, and asks it for a victim when no frame is free.
+ * <p>
+ * Frames are identified by their index in the pool stripe, from 0 to the
+ * capacity the policy was created with, minus one. Implementations are not
+ * thread safe; each stripe serializes calls into its own policy.
+ *
+ * @see BufferPool
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Called after a page has been read into a previously free frame.
+     *
+     * @param frame the frame the page was loaded into
+     * @param pid the id of the page now held by the frame
+     */
+    public void frameLoaded(int frame, PageId pid);
+
+    /**
+     * Called whenever a request is served by a page that is already resident.
+     *
+     * @param frame the frame holding the requested page
+     */
+    public void frameAccessed(int frame);
+
+    /**
+     * Called after a frame has been emptied, either because it was chosen as
+     * a victim or because its page was discarded.
+     *
+     * @param frame the frame that no longer holds a page
+     */
+    public void frameRemoved(int frame);
+
+    /**
+     * Picks the frame whose page should be evicted next. The frame stays
+     * tracked until the pool calls {@link #frameRemoved}. Frames that are
+     * pinned must never be chosen.
+     *
+     * @param pinCounts the pin count of every frame; a frame is pinned
+     *     while its count is above zero
+     * @return the index of the victim frame, or -1 if every resident frame
+     *     is pinned or no frame is resident
+     */
+    public int chooseVictim(int[] pinCounts);
+
+    /**
+     * Creates policy instances. A striped BufferPool needs one policy per
+     * stripe, each sized to the frames of that stripe.
+     */
+    public interface Factory {
+        /**
+         * @param numFrames the number of frames the policy manages
+         * @return a new policy with no resident frames
+         */
+        public EvictionPolicy create(int numFrames);
+    }
+}
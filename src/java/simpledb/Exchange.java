@@ -0,0 +1,17 @@
+package simpledb;
+
+/**
+ * Exchange is the superclass of the operators that move tuples between
+ * threads. A {@link Producer} runs its child on a worker thread and hands
+ * the child's tuples to a {@link Consumer}, which returns them on the
+ * thread that reads the query.
+ */
+public abstract class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @return the name of this exchange, as shown in query plans.
+     */
+    public abstract String getName();
+}
@@ -11,6 +11,8 @@ public class Filter extends Operator {
     private Predicate p;
     private DbIterator child;
     private TupleDesc td;
+    /** The compiled form of this Filter and its subtree, or null. */
+    private transient ScanPipeline pipeline;
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -41,19 +43,30 @@ public class Filter extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
-        child.open();
+        pipeline = ScanPipeline.compile(this);
+        if (pipeline != null)
+            pipeline.open();
+        else
+            child.open();
         super.open();
     }
 
     public void close() {
         // some code goes here
         super.close();
-        child.close();
+        if (pipeline != null)
+            pipeline.close();
+        else
+            child.close();
+        pipeline = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
-        child.rewind();
+        if (pipeline != null)
+            pipeline.rewind();
+        else
+            child.rewind();
     }
 
     /**
@@ -68,6 +81,8 @@ public class Filter extends Operator {
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // some code goes here
+        if (pipeline != null)
+            return pipeline.next();
         while (child.hasNext()){
             Tuple t = child.next();
             if(p.filter(t))
@@ -76,6 +91,23 @@ public class Filter extends Operator {
         return null;
     }
 
+    /**
+     * Returns the next batch of child tuples that has a tuple passing the
+     * predicate, with its selection narrowed to those tuples.
+     */
+    @Override
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (pipeline != null)
+            return pipeline.nextBatch();
+        TupleBatch b;
+        while ((b = TupleBatch.next(child)) != null) {
+            p.filter(b);
+            if (b.size() > 0)
+                return b;
+        }
+        return null;
+    }
+
     @Override
     public DbIterator[] getChildren() {
         // some code goes here
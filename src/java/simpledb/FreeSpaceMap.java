@@ -0,0 +1,114 @@
+package simpledb;
+
+import java.io.*;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap records which pages of a HeapFile have at least one empty
+ * slot, or which pages of a SlottedFile may have room for a record, so
+ * that inserts can go straight to such a page instead of locking every
+ * page in turn.
+ *
+ * The map is a hint: a page marked free is checked under its page lock
+ * before a tuple is put on it, and is cleared if it turns out to be full.
+ * It is kept in memory and saved to a side file next to the heap file
+ * when the heap file is closed. The first change after the map is loaded
+ * or saved deletes the side file, so a map is only ever read back if the
+ * heap file was closed cleanly since it last changed.
+ */
+class FreeSpaceMap {
+
+    /** Marks the start of a saved map ("FSM1"). */
+    private static final int MAGIC = 0x46534d31;
+
+    private final BitSet free;
+    private boolean dirty;
+    /** The side file that holds a copy of this map, or null. */
+    private File side;
+
+    FreeSpaceMap() {
+        this.free = new BitSet();
+    }
+
+    private FreeSpaceMap(BitSet free, File side) {
+        this.free = free;
+        this.side = side;
+    }
+
+    /**
+     * Returns the first page at or after from that may have an empty slot.
+     *
+     * @return the page number, or -1 if no such page is known
+     */
+    synchronized int nextFree(int from) {
+        return this.free.nextSetBit(from);
+    }
+
+    /**
+     * Records whether a page has an empty slot.
+     */
+    synchronized void setFree(int pgNo, boolean hasSpace) {
+        if(this.free.get(pgNo) != hasSpace){
+            this.free.set(pgNo, hasSpace);
+            this.dirty = true;
+            if(this.side != null){
+                this.side.delete();
+                this.side = null;
+            }
+        }
+    }
+
+    /** @return true if the map changed since it was loaded or saved. */
+    synchronized boolean isDirty() {
+        return this.dirty;
+    }
+
+    /**
+     * Saves the map for a heap file of numPages pages.
+     */
+    synchronized void save(File side, int numPages) throws IOException {
+        long[] words = this.free.toLongArray();
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(side)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(numPages);
+            out.writeInt(words.length);
+            for(long w : words)
+                out.writeLong(w);
+        } finally {
+            out.close();
+        }
+        this.dirty = false;
+        this.side = side;
+    }
+
+    /**
+     * Loads a map saved for a heap file of numPages pages.
+     *
+     * @return the map, or null if there is no saved map, it is unreadable,
+     *     or it was saved when the file had a different number of pages
+     */
+    static FreeSpaceMap load(File side, int numPages) {
+        if(!side.isFile())
+            return null;
+        try {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(side)));
+            try {
+                if(in.readInt() != MAGIC || in.readInt() != numPages)
+                    return null;
+                long[] words = new long[in.readInt()];
+                for(int i = 0; i < words.length; i++)
+                    words[i] = in.readLong();
+                return new FreeSpaceMap(BitSet.valueOf(words), side);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e){
+            return null;
+        } catch (NegativeArraySizeException e){
+            return null;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package simpledb;
+
+/**
+ * Gather runs copies of a plan on several worker threads and returns the
+ * tuples of all of them, for example Filters over SeqScans of different
+ * page ranges of the same table.
+ *
+ * @see SeqScan#split
+ */
+public class Gather extends Consumer {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Most worker threads a query plan uses for one Gather. */
+    public static final int MAX_WORKERS = 8;
+
+    /**
+     * Constructor.
+     *
+     * @param children
+     *            the plans to run, one per worker thread, which must all
+     *            have the same TupleDesc
+     */
+    public Gather(DbIterator[] children) {
+        super(producers(children));
+    }
+
+    private static Producer[] producers(DbIterator[] children) {
+        Producer[] producers = new Producer[children.length];
+        for (int i = 0; i < children.length; i++)
+            producers[i] = new Producer(children[i]);
+        return producers;
+    }
+
+    /**
+     * @return the number of worker threads a query plan should use for a
+     *         Gather, which is the number of processors up to MAX_WORKERS.
+     */
+    public static int defaultWorkers() {
+        return Math.min(Runtime.getRuntime().availableProcessors(), MAX_WORKERS);
+    }
+
+    public String getName() {
+        return "gather(" + getProducers().length + ")";
+    }
+}
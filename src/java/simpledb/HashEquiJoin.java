@@ -4,6 +4,15 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * HashEquiJoin builds a hash table of child1 and probes it with the tuples
+ * of child2. If child1 has more tuples than fit in memory, it is a hybrid
+ * hash join: both children are split into partitions on the join key, one
+ * partition of child1 stays in memory, and the others are written to
+ * temporary files and joined one at a time. Each child is read once, and
+ * its spilled partitions once more, unless a partition of child1 is still
+ * too large for memory; then that partition of child2 is read once for each
+ * part of it that fits.
  */
 public class HashEquiJoin extends Operator {
 
@@ -26,10 +35,7 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
-        this.pred = p;
-        this.child1 = child1;
-        this.child2 = child2;
-        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this(p, child1, child2, MAP_SIZE);
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -50,51 +56,273 @@ public class HashEquiJoin extends Operator {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
     
-    HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
+    /** The tuples of child1 that are in memory, by join key. */
+    transient private JoinHashTable table = null;
+    /**
+     * False if the join fields have different types, so that no tuples
+     * match.
+     */
+    transient private boolean comparable = true;
+    /** Default number of tuples of child1 kept in memory. */
     public final static int MAP_SIZE = 20000;
+    /** Number of partitions the inputs are split into when they are spilled. */
+    final static int PARTITIONS = 32;
+    private final static int PARTITION_BITS = 5;
+
+    /** Most tuples of child1 kept in memory. */
+    private final int maxTuples;
+    /**
+     * The partitions of child1 and child2 spilled to disk, or null while
+     * child1 fits in memory.
+     */
+    transient private SpillFile[] buildParts = null;
+    transient private SpillFile[] probeParts = null;
+    /**
+     * The partition of child1 kept in table while child2 is read, or -1 if
+     * all partitions were spilled.
+     */
+    transient private int memPart = -1;
+    /** The spilled partition being joined, or -1 while child2 is read. */
+    transient private int part = -1;
+    transient private SpillFile.Reader buildReader = null;
+    transient private SpillFile.Reader probeReader = null;
+
+    /**
+     * Constructor with a memory budget for the build side.
+     *
+     * @param maxTuples
+     *            the most tuples of child1 to keep in memory; if child1 has
+     *            more, both children are partitioned to temporary files
+     * @throws IllegalArgumentException
+     *             if maxTuples is less than 1
+     * @see #HashEquiJoin(JoinPredicate, DbIterator, DbIterator)
+     */
+    public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2, int maxTuples) {
+        if (maxTuples < 1)
+            throw new IllegalArgumentException("memory budget must be positive");
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.maxTuples = maxTuples;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return the most tuples of child1 kept in memory
+     */
+    int getMaxTuples() {
+        return maxTuples;
+    }
+
+    /**
+     * @return the partition of the join key field of t
+     */
+    private static int partition(Tuple t, int field) {
+        return (JoinHashTable.hashCode(t, field) * 0x9E3779B9) >>> (32 - PARTITION_BITS);
+    }
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
+    private JoinHashTable newTable() {
+        return JoinHashTable.create(child1.getTupleDesc().getFieldType(pred.getField1()),
+                pred.getField1());
+    }
+
+    /**
+     * Reads child1 into table. If it has more than maxTuples tuples, child1
+     * is partitioned on the join key: one partition stays in table as long
+     * as it fits, and the others are written to spill files. This is the
+     * only time child1 is read.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        table = newTable();
+        comparable = table.keyType() == child2.getTupleDesc().getFieldType(pred.getField2());
         while (child1.hasNext()) {
             t1 = child1.next();
-            ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
-            if (list == null) {
-                list = new ArrayList<Tuple>();
-                map.put(t1.getField(pred.getField1()), list);
+            if (buildParts == null && table.size() == maxTuples)
+                startSpilling();
+            if (buildParts == null) {
+                table.add(t1);
+                continue;
+            }
+            int p = partition(t1, pred.getField1());
+            if (p == memPart && table.size() == maxTuples) {
+                // the partition kept in memory is too large as well
+                spill(memPart);
+            }
+            if (p == memPart)
+                table.add(t1);
+            else
+                buildParts[p].add(t1);
+        }
+    }
+
+    /**
+     * Creates the spill files and writes the tuples in table to them,
+     * except those of partition 0, which stay in memory.
+     */
+    private void startSpilling() throws DbException {
+        buildParts = new SpillFile[PARTITIONS];
+        probeParts = new SpillFile[PARTITIONS];
+        for (int i = 0; i < PARTITIONS; i++) {
+            buildParts[i] = new SpillFile(child1.getTupleDesc());
+            probeParts[i] = new SpillFile(child2.getTupleDesc());
+        }
+        memPart = 0;
+        JoinHashTable kept = newTable();
+        for (int r = 0; r < table.size(); r++) {
+            Tuple t = table.row(r);
+            int p = partition(t, pred.getField1());
+            if (p == memPart)
+                kept.add(t);
+            else
+                buildParts[p].add(t);
+        }
+        table = kept;
+    }
+
+    /** Writes the partition kept in memory to its spill file. */
+    private void spill(int p) throws DbException {
+        for (int r = 0; r < table.size(); r++)
+            buildParts[p].add(table.row(r));
+        table.clear();
+        memPart = -1;
+    }
+
+    /**
+     * Loads the next tuples of the spilled partition of child1 being
+     * joined into table, at most maxTuples of them.
+     *
+     * @return false if the partition has no more tuples
+     */
+    private boolean loadChunk() throws DbException {
+        table.clear();
+        Tuple t;
+        while (table.size() < maxTuples && (t = buildReader.next()) != null)
+            table.add(t);
+        return table.size() > 0;
+    }
+
+    /**
+     * Moves on to the next spilled partition that has tuples on both sides.
+     *
+     * @return false if there is none
+     */
+    private boolean nextPartition() throws DbException {
+        closeReaders();
+        while (++part < PARTITIONS) {
+            if (part == memPart || buildParts[part].size() == 0
+                    || probeParts[part].size() == 0)
+                continue;
+            buildReader = buildParts[part].reader();
+            probeReader = probeParts[part].reader();
+            loadChunk();
+            return true;
+        }
+        table.clear();
+        return false;
+    }
+
+    /**
+     * Returns the next tuple of child2 to look up in table. While child2 is
+     * read, the tuples of spilled partitions are written to their spill
+     * files instead. Then each spilled partition of child2 is read for
+     * every chunk of the same partition of child1 that fits in memory.
+     *
+     * @return the next tuple to probe, or null if there are no more
+     */
+    private Tuple nextProbe() throws DbException, TransactionAbortedException {
+        while (true) {
+            if (part < 0) {
+                if (child2.hasNext()) {
+                    Tuple t = child2.next();
+                    if (probeParts == null)
+                        return t;
+                    int p = partition(t, pred.getField2());
+                    if (p == memPart)
+                        return t;
+                    probeParts[p].add(t);
+                    continue;
+                }
+                if (probeParts == null || !nextPartition())
+                    return null;
+                continue;
             }
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+            if (part == PARTITIONS)
+                return null;
+            Tuple t = probeReader.next();
+            if (t != null)
+                return t;
+            if (loadChunk()) {
+                probeReader.rewind();
+                continue;
+            }
+            if (!nextPartition())
+                return null;
         }
-        return cnt > 0;
+    }
 
+    private void closeReaders() {
+        if (buildReader != null)
+            buildReader.close();
+        if (probeReader != null)
+            probeReader.close();
+        buildReader = null;
+        probeReader = null;
     }
 
+    /** Deletes the spill files, if any. */
+    private void closeSpills() {
+        closeReaders();
+        if (buildParts != null) {
+            for (int i = 0; i < PARTITIONS; i++) {
+                buildParts[i].close();
+                probeParts[i].close();
+            }
+        }
+        buildParts = null;
+        probeParts = null;
+        memPart = -1;
+        part = -1;
+    }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        build();
+        super.open();
     }
 
     public void close() {
         super.close();
         child2.close();
         child1.close();
+        closeSpills();
         this.t1=null;
         this.t2=null;
-        this.listIt=null;
-        this.map.clear();
+        this.match=JoinHashTable.NONE;
+        this.probe=null;
+        this.batchMatch=JoinHashTable.NONE;
+        this.table=null;
     }
 
+    /**
+     * Rewinds the join. If child1 fits in memory only child2 is read again;
+     * otherwise both children are partitioned again.
+     */
     public void rewind() throws DbException, TransactionAbortedException {
-        child1.rewind();
+        this.match = JoinHashTable.NONE;
+        this.probe = null;
+        this.batchMatch = JoinHashTable.NONE;
         child2.rewind();
+        if (buildParts != null) {
+            closeSpills();
+            child1.rewind();
+            build();
+        }
     }
 
-    transient Iterator<Tuple> listIt = null;
+    /** The next row of table that matches t2, or NONE. */
+    transient private int match = JoinHashTable.NONE;
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
@@ -115,49 +343,78 @@ public class HashEquiJoin extends Operator {
      * @see JoinPredicate#filter
      */
     private Tuple processList() throws TransactionAbortedException, DbException {
-        t1 = listIt.next();
+        t1 = table.row(match);
+        match = table.next(match);
 
         int td1n = t1.getTupleDesc().numFields();
         int td2n = t2.getTupleDesc().numFields();
 
         // set fields in combined tuple
         Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
+        t.copyFields(0, t1, 0, td1n);
+        t.copyFields(td1n, t2, 0, td2n);
         return t;
 
     }
 
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
-
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
-
+        while (match == JoinHashTable.NONE) {
+            t2 = nextProbe();
+            if (t2 == null)
+                return null;
             // if match, create a combined tuple and fill it with the values
             // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
-
-            return processList();
-
+            if (comparable)
+                match = table.find(t2, pred.getField2());
         }
+        return processList();
+    }
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
-        }
+    /** Batch of child2 being probed by nextBatch, or null. */
+    transient private TupleBatch probe = null;
+    /** Index of the next selected row of probe to look up. */
+    transient private int probeNext = 0;
+    /** Physical row of probe whose matches are being returned. */
+    transient private int probeRow = 0;
+    /** The next row of table that matches probeRow, or NONE. */
+    transient private int batchMatch = JoinHashTable.NONE;
 
-        return null;
+    /**
+     * Returns the next batch of joined tuples. While child1 fits in memory,
+     * the tuples of child2 are read a batch at a time and copied into the
+     * output batch without creating a Tuple for each of them.
+     */
+    @Override
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (buildParts != null)
+            return super.nextBatch();
+        int td1n = child1.getTupleDesc().numFields();
+        int td2n = child2.getTupleDesc().numFields();
+        TupleBatch out = new TupleBatch(comboTD);
+        while (!out.isFull()) {
+            if (batchMatch != JoinHashTable.NONE) {
+                Tuple left = table.row(batchMatch);
+                batchMatch = table.next(batchMatch);
+                int row = out.addRow();
+                for (int i = 0; i < td1n; i++)
+                    out.setValue(i, row, left, i);
+                for (int i = 0; i < td2n; i++)
+                    out.setValue(td1n + i, row, probe, i, probeRow);
+                continue;
+            }
+            if (probe != null && probeNext < probe.size()) {
+                probeRow = probe.row(probeNext++);
+                if (comparable)
+                    batchMatch = table.find(probe, pred.getField2(), probeRow);
+                continue;
+            }
+            probe = TupleBatch.next(child2);
+            probeNext = 0;
+            if (probe == null)
+                break;
+        }
+        return out.size() == 0 ? null : out;
     }
 
     @Override
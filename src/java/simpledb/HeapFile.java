@@ -1,6 +1,8 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
@@ -15,7 +17,32 @@ import java.util.*;
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
-public class HeapFile implements DbFile {
+public class HeapFile implements DbFile, Closeable {
+
+    /** Page moves in order an iterator must make before it reads ahead. */
+    static final int SEQUENTIAL_MOVES_BEFORE_READ_AHEAD = 2;
+
+    /** Pages per mapped segment in {@link IoMode#MAPPED} mode. */
+    static final int MAP_SEGMENT_PAGES = 1024;
+
+    /** How a HeapFile reads its pages. */
+    public enum IoMode {
+        /** Positional reads through the file's FileChannel into a new array. */
+        CHANNEL,
+        /**
+         * Pages are decoded straight from a read-only memory mapping of the
+         * file, without a read call or a copy. Writes still go through the
+         * channel; the operating system keeps both views coherent.
+         */
+        MAPPED,
+        /**
+         * Reads and writes bypass the operating system's page cache, so
+         * that pages are cached only once, in the BufferPool. Needs a JVM
+         * and file system with direct I/O support, and a page size that
+         * is a multiple of the file system's block size.
+         */
+        DIRECT
+    }
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -28,11 +55,53 @@ public class HeapFile implements DbFile {
     private TupleDesc td;
     private String name;
     private int numPages;
+    /** Size of each page of this file in bytes. */
+    private final int pageSize;
+    /**
+     * Channel used for all reads and writes of the file, opened on first use
+     * and kept open until {@link #close}. Only positional reads and writes
+     * are used, so concurrent callers never share a file pointer.
+     */
+    private transient FileChannel channel;
+    /** Pages to read ahead of a sequential scan; 0 disables read-ahead. */
+    private volatile int readAheadWindow = 0;
+    private volatile IoMode ioMode = IoMode.CHANNEL;
+    /**
+     * Read-only mappings of the file in MAP_SEGMENT_PAGES sized segments,
+     * created on first use. Only the segment holding the end of the file
+     * is ever remapped as the file grows.
+     */
+    private transient MappedByteBuffer[] segments;
+    /** Channel used for all reads and writes in DIRECT mode. */
+    private transient FileChannel directChannel;
+    /** Alignment of direct transfers, set when DIRECT mode is selected. */
+    private transient int blockSize;
+    /** Aligned buffers for direct transfers, one per thread. */
+    private transient ThreadLocal<ByteBuffer> directBuffers;
+    /** Pages with empty slots, loaded or rebuilt on the first insert. */
+    private transient FreeSpaceMap freeSpace;
+    /** Held by {@link #vacuum} so that only one runs at a time. */
+    private final Object vacuumLock = new Object();
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, with pages of
+     * the given size. Large pages suit tables that are mostly scanned, and
+     * small pages tables that are mostly probed for single rows.
+     *
+     * @param pageSize the size of each page of the file in bytes
+     * @throws IllegalArgumentException if no tuple fits on a page of that size
+     */
+    public HeapFile(File f, TupleDesc td, int pageSize) {
         // some code goes here
+        if(pageSize * 8 < td.getSize() * 8 + 1)
+            throw new IllegalArgumentException("a page of " + pageSize + " bytes cannot hold a tuple");
         this.f = f;
         this.td = td;
-        this.numPages = (int)f.length() / BufferPool.PAGE_SIZE;
+        this.pageSize = pageSize;
+        this.numPages = (int) (f.length() / pageSize);
     }
 
     /**
@@ -59,6 +128,13 @@ public class HeapFile implements DbFile {
         return this.f.getAbsoluteFile().hashCode();
     }
 
+    /**
+     * Returns the size of the pages of this file in bytes.
+     */
+    public int getPageSize() {
+        return this.pageSize;
+    }
+
     /**
      * Returns the TupleDesc of the table stored in this DbFile.
      * 
@@ -74,11 +150,14 @@ public class HeapFile implements DbFile {
     public Page readPage(PageId pid) {
         // some code goes here
         try {
-            RandomAccessFile raf = new RandomAccessFile(this.f, "r");
-            long pos = BufferPool.PAGE_SIZE * pid.pageNumber();
-            byte[] data = new byte[BufferPool.PAGE_SIZE];
-            raf.seek(pos);
-            raf.read(data, 0, BufferPool.PAGE_SIZE);
+            if(this.ioMode == IoMode.MAPPED){
+                ByteBuffer mapped = mappedPage(pid.pageNumber());
+                if(mapped != null)
+                    return new HeapPage((HeapPageId)pid, mapped);
+            }
+            long pos = (long) this.pageSize * pid.pageNumber();
+            byte[] data = new byte[this.pageSize];
+            read(data, pos);
             HeapPage hp = new HeapPage((HeapPageId)pid, data);
             return hp;
 
@@ -94,11 +173,331 @@ public class HeapFile implements DbFile {
         // some code goes here
         HeapPage hp = (HeapPage)page;
         int pgNo = hp.getId().pageNumber();
-        RandomAccessFile raf = new RandomAccessFile(this.f, "rw");
         byte[] data = hp.getPageData();
-        raf.seek(pgNo * BufferPool.PAGE_SIZE);
-        raf.write(data);
+        write(data, (long) pgNo * this.pageSize);
+
+    }
+
+    /**
+     * Reads pages that are adjacent in this file with a single read.
+     *
+     * @param firstPgNo the number of the first page to read
+     * @param count the number of pages to read
+     * @return the pages, in page number order
+     * @throws IOException if the read fails
+     */
+    public List<Page> readPages(int firstPgNo, int count) throws IOException {
+        if(this.ioMode == IoMode.MAPPED){
+            List<Page> pages = new ArrayList<>(count);
+            for(int i = 0; i < count; i++){
+                ByteBuffer mapped = mappedPage(firstPgNo + i);
+                if(mapped == null)
+                    throw new EOFException("page " + (firstPgNo + i) + " is not in " + this.f);
+                pages.add(new HeapPage(new HeapPageId(this.getId(), firstPgNo + i), mapped));
+            }
+            return pages;
+        }
+        byte[] data = new byte[count * this.pageSize];
+        if(read(data, (long) firstPgNo * this.pageSize) < data.length)
+            throw new EOFException("pages " + firstPgNo + " to " + (firstPgNo + count - 1)
+                    + " are not all in " + this.f);
+        List<Page> pages = new ArrayList<>(count);
+        for(int i = 0; i < count; i++){
+            byte[] pageData = Arrays.copyOfRange(data, i * this.pageSize, (i + 1) * this.pageSize);
+            pages.add(new HeapPage(new HeapPageId(this.getId(), firstPgNo + i), pageData));
+        }
+        return pages;
+    }
+
+    /**
+     * Writes pages that are adjacent in this file with a single write.
+     *
+     * @param pages the pages to write, ordered by page number with no gaps
+     * @throws IOException if the write fails
+     */
+    public void writePages(List<Page> pages) throws IOException {
+        if(pages.isEmpty())
+            return;
+        int firstPgNo = pages.get(0).getId().pageNumber();
+        byte[] data = new byte[pages.size() * this.pageSize];
+        for(int i = 0; i < pages.size(); i++){
+            Page p = pages.get(i);
+            if(p.getId().pageNumber() != firstPgNo + i)
+                throw new IllegalArgumentException("pages are not adjacent");
+            System.arraycopy(p.getPageData(), 0, data, i * this.pageSize, this.pageSize);
+        }
+        write(data, (long) firstPgNo * this.pageSize);
+    }
+
+    /**
+     * Enables read-ahead for sequential scans of this file. Once an iterator
+     * has moved through a few pages in order, it asks the BufferPool to load
+     * the next window pages in the background, so that later page
+     * boundaries find their page already resident.
+     *
+     * @param window the number of pages to keep requested ahead of the
+     *     scan; 0 disables read-ahead
+     */
+    public void setReadAheadWindow(int window) {
+        if(window < 0)
+            throw new IllegalArgumentException("negative read-ahead window");
+        this.readAheadWindow = window;
+    }
+
+    /**
+     * @return the number of pages read ahead of a sequential scan, 0 if
+     *     read-ahead is disabled.
+     */
+    public int getReadAheadWindow() {
+        return this.readAheadWindow;
+    }
+
+    /**
+     * @return the open channel of this file, opening it if necessary.
+     *     Files that cannot be opened for writing are opened read-only.
+     */
+    private synchronized FileChannel channel() throws IOException {
+        if(this.channel == null || !this.channel.isOpen()){
+            RandomAccessFile raf;
+            try {
+                raf = new RandomAccessFile(this.f, "rw");
+            } catch (FileNotFoundException e) {
+                raf = new RandomAccessFile(this.f, "r");
+            }
+            this.channel = raf.getChannel();
+        }
+        return this.channel;
+    }
+
+    /**
+     * Selects how pages of this file are read and written.
+     *
+     * @param mode the I/O mode to use from now on
+     * @throws IOException if DIRECT mode is not supported for this file;
+     *     the mode is then left unchanged
+     */
+    public synchronized void setIoMode(IoMode mode) throws IOException {
+        if(mode == IoMode.DIRECT && this.ioMode != IoMode.DIRECT){
+            int block = DirectIo.blockSize(this.f);
+            if(this.pageSize % block != 0)
+                throw new IOException("page size " + this.pageSize
+                        + " is not a multiple of the block size " + block);
+            this.blockSize = block;
+            this.directBuffers = new ThreadLocal<ByteBuffer>();
+            this.directChannel = DirectIo.open(this.f);
+        }
+        this.ioMode = mode;
+        if(mode != IoMode.MAPPED)
+            unmap();
+        if(mode != IoMode.DIRECT)
+            closeDirect();
+    }
+
+    /** @return the I/O mode used to read pages of this file. */
+    public IoMode getIoMode() {
+        return this.ioMode;
+    }
+
+    /**
+     * Returns a view of one page of the mapped file. The segment holding
+     * the page is mapped on first use, and the last, partial segment is
+     * remapped when the file has grown past its end.
+     *
+     * @return a buffer over exactly the page's bytes, or null if the page
+     *     lies beyond the end of the file
+     */
+    private synchronized ByteBuffer mappedPage(int pgNo) throws IOException {
+        int seg = pgNo / MAP_SEGMENT_PAGES;
+        int offset = (pgNo % MAP_SEGMENT_PAGES) * this.pageSize;
+        if(this.segments == null)
+            this.segments = new MappedByteBuffer[seg + 1];
+        else if(seg >= this.segments.length)
+            this.segments = Arrays.copyOf(this.segments, Math.max(seg + 1, 2 * this.segments.length));
+
+        MappedByteBuffer m = this.segments[seg];
+        if(m == null || m.capacity() < offset + this.pageSize){
+            long segStart = (long) seg * MAP_SEGMENT_PAGES * this.pageSize;
+            long len = Math.min((long) MAP_SEGMENT_PAGES * this.pageSize,
+                    channel().size() - segStart);
+            if(len < offset + this.pageSize)
+                return null;
+            m = channel().map(FileChannel.MapMode.READ_ONLY, segStart, len);
+            this.segments[seg] = m;
+        }
+        ByteBuffer page = m.duplicate();
+        page.position(offset);
+        page.limit(offset + this.pageSize);
+        return page.slice();
+    }
+
+    /**
+     * Drops all mappings, which must happen before the file is truncated.
+     */
+    private synchronized void unmap() {
+        this.segments = null;
+    }
+
+    /**
+     * Returns the free space map of this file. The map saved by the last
+     * {@link #close} is used if it matches the current size of the file and
+     * has not changed since it was saved;
+     * otherwise it is rebuilt by reading every page from disk, bypassing
+     * the BufferPool so that no page locks are taken.
+     */
+    private synchronized FreeSpaceMap freeSpace() throws IOException {
+        if(this.freeSpace == null){
+            FreeSpaceMap fsm = FreeSpaceMap.load(freeSpaceFile(), this.numPages);
+            if(fsm == null){
+                fsm = new FreeSpaceMap();
+                for(int i = 0; i < this.numPages; i++){
+                    HeapPage hp = (HeapPage) readPage(new HeapPageId(this.getId(), i));
+                    if(hp == null || hp.getNumEmptySlots() > 0)
+                        fsm.setFree(i, true);
+                }
+            }
+            this.freeSpace = fsm;
+        }
+        return this.freeSpace;
+    }
+
+    /** @return the side file the free space map is saved in. */
+    private File freeSpaceFile() {
+        return freeSpaceFile(this.f);
+    }
+
+    /** @return the side file the free space map of a heap file is saved in. */
+    static File freeSpaceFile(File f) {
+        return new File(f.getPath() + ".fsm");
+    }
+
+    /**
+     * Requests that a heap file and the side file of its free space map be
+     * deleted when the virtual machine exits, for temporary tables.
+     *
+     * @see File#deleteOnExit
+     */
+    public static void deleteOnExit(File f) {
+        f.deleteOnExit();
+        freeSpaceFile(f).deleteOnExit();
+    }
+
+    /**
+     * Closes this file and deletes it together with the side file of its
+     * free space map, for tables that are dropped. The file must not be
+     * used afterwards.
+     */
+    public synchronized void delete() throws IOException {
+        this.freeSpace = null;
+        close();
+        this.f.delete();
+        freeSpaceFile().delete();
+    }
+
+    /**
+     * Fills data from the given file position, stopping early only at the
+     * end of the file. Bytes past the end of the file are left untouched.
+     *
+     * @return the number of bytes read
+     */
+    private int read(byte[] data, long pos) throws IOException {
+        if(this.ioMode == IoMode.DIRECT)
+            return directRead(data, pos);
+        FileChannel fc = channel();
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while(buf.hasRemaining()){
+            int n = fc.read(buf, pos + buf.position());
+            if(n < 0)
+                break;
+        }
+        return buf.position();
+    }
+
+    /**
+     * Writes all of data at the given file position.
+     */
+    private void write(byte[] data, long pos) throws IOException {
+        if(this.ioMode == IoMode.DIRECT){
+            directWrite(data, pos);
+            return;
+        }
+        FileChannel fc = channel();
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while(buf.hasRemaining())
+            fc.write(buf, pos + buf.position());
+    }
+
+    /**
+     * Reads data with direct I/O through an aligned buffer. Transfers stop
+     * at the end of the file, or at a short transfer that leaves the next
+     * one unaligned.
+     */
+    private int directRead(byte[] data, long pos) throws IOException {
+        FileChannel fc = directChannel();
+        ByteBuffer buf = directBuffer(data.length);
+        while(buf.hasRemaining()){
+            int n = fc.read(buf, pos + buf.position());
+            if(n <= 0 || n % this.blockSize != 0)
+                break;
+        }
+        buf.flip();
+        int read = buf.remaining();
+        buf.get(data, 0, read);
+        return read;
+    }
+
+    /**
+     * Writes data with direct I/O through an aligned buffer.
+     */
+    private void directWrite(byte[] data, long pos) throws IOException {
+        FileChannel fc = directChannel();
+        ByteBuffer buf = directBuffer(data.length);
+        buf.put(data);
+        buf.flip();
+        while(buf.hasRemaining())
+            fc.write(buf, pos + buf.position());
+    }
 
+    /**
+     * Returns this thread's aligned buffer, grown to at least len bytes,
+     * with its limit set to len.
+     */
+    private ByteBuffer directBuffer(int len) throws IOException {
+        ByteBuffer buf = this.directBuffers.get();
+        if(buf == null || buf.capacity() < len){
+            buf = DirectIo.allocate(len, this.blockSize);
+            this.directBuffers.set(buf);
+        }
+        buf.clear();
+        buf.limit(len);
+        return buf;
+    }
+
+    private synchronized FileChannel directChannel() throws IOException {
+        if(this.directChannel == null || !this.directChannel.isOpen())
+            this.directChannel = DirectIo.open(this.f);
+        return this.directChannel;
+    }
+
+    private synchronized void closeDirect() throws IOException {
+        if(this.directChannel != null){
+            this.directChannel.close();
+            this.directChannel = null;
+        }
+    }
+
+    /**
+     * Closes the channel of this file. The file is reopened if it is used
+     * again. Called by {@link Catalog#clear}.
+     */
+    public synchronized void close() throws IOException {
+        unmap();
+        closeDirect();
+        if(this.freeSpace != null && this.freeSpace.isDirty() && this.f.exists())
+            this.freeSpace.save(freeSpaceFile(), this.numPages);
+        if(this.channel != null){
+            this.channel.close();
+            this.channel = null;
+        }
     }
 
     /**
@@ -120,25 +519,33 @@ public class HeapFile implements DbFile {
         int nPages = this.numPages();
         int tableId = this.getId();
         Permissions perm = Permissions.READ_WRITE;
-        //int headerSize = 0;
-        for(int i = 0; i < nPages; i++){
+        BufferPool bp = Database.getBufferPool();
+        FreeSpaceMap fsm = freeSpace();
+        for(int i = fsm.nextFree(0); i >= 0 && i < nPages; i = fsm.nextFree(i + 1)){
             HeapPageId hpid = new HeapPageId(tableId, i);
-            HeapPage hp = (HeapPage)Database.getBufferPool().getPage(tid, hpid, perm);
-            //headerSize = hp.getHeaderSize();
-            if(hp.getNumEmptySlots() > 0){
-                hp.insertTuple(t);
-                res.add(hp);
-                break;
+            HeapPage hp = (HeapPage)bp.pinPage(tid, hpid, perm);
+            try {
+                if(hp.getNumEmptySlots() > 0){
+                    hp.insertTuple(t);
+                    hp.markDirty(true, tid);
+                    res.add(hp);
+                }
+                fsm.setFree(i, hp.getNumEmptySlots() > 0);
+                if(!res.isEmpty())
+                    break;
+            } finally {
+                bp.unpinPage(hpid);
             }
         }
         if(res.isEmpty()){
             HeapPageId hpid = new HeapPageId(tableId, nPages);
-            byte[] initData = new byte[BufferPool.PAGE_SIZE];
+            byte[] initData = HeapPage.createEmptyPageData(this.pageSize);
             HeapPage newHp = new HeapPage(hpid, initData);
             newHp.insertTuple(t);
             res.add(newHp);
             this.numPages++;
             writePage(newHp);
+            fsm.setFree(nPages, newHp.getNumEmptySlots() > 0);
         }
         return res;
 
@@ -150,25 +557,14 @@ public class HeapFile implements DbFile {
         // some code goes here
         PageId pid = t.getRecordId().getPageId();
         Permissions perm = Permissions.READ_WRITE;
-        HeapPage hp = (HeapPage)Database.getBufferPool().getPage(tid, pid, perm);
-        hp.deleteTuple(t);
-        if(hp.isEmpty()){
-            RandomAccessFile raf = new RandomAccessFile(this.f, "rw");
-            int pgNo = hp.getId().pageNumber();
-            int tableId = this.getId();
-            FileChannel fc = raf.getChannel();
-            for(int i = pgNo + 1; i < this.numPages; i++){
-                HeapPageId hpid = new HeapPageId(tableId, i);
-                HeapPage hpi = (HeapPage)Database.getBufferPool().getPage(tid, hpid, perm);
-                byte[] data = hpi.getPageData();
-                raf.seek((i - 1) * BufferPool.PAGE_SIZE);
-                raf.write(data);
-
-            }
-            this.numPages--;
-            fc.truncate((this.numPages )  * BufferPool.PAGE_SIZE);
-
-            fc.close();
+        BufferPool bp = Database.getBufferPool();
+        HeapPage hp = (HeapPage)bp.pinPage(tid, pid, perm);
+        try {
+            hp.deleteTuple(t);
+            hp.markDirty(true, tid);
+            freeSpace().setFree(hp.getId().pageNumber(), true);
+        } finally {
+            bp.unpinPage(pid);
         }
         return hp;
 
@@ -176,91 +572,261 @@ public class HeapFile implements DbFile {
 
 
 
+    /**
+     * Compacts this file and returns the space freed by deletes to the file
+     * system. Deletes leave emptied pages in place, so this is the only way
+     * the file shrinks.
+     *
+     * Tuples are moved from the last pages of the file into empty slots of
+     * earlier pages, which gives the moved tuples new RecordIds. Trailing
+     * pages left with no tuples are then cut off the file. Only the pages
+     * that are changed are locked, so the table can stay in use. The pages
+     * changed by tid are flushed before the file is truncated.
+     *
+     * @param tid the transaction doing the vacuum
+     * @return the number of pages removed from the file
+     */
+    public int vacuum(TransactionId tid)
+            throws DbException, IOException, TransactionAbortedException {
+        synchronized (this.vacuumLock) {
+            BufferPool bp = Database.getBufferPool();
+            FreeSpaceMap fsm = freeSpace();
+            int tableId = this.getId();
+            Permissions perm = Permissions.READ_WRITE;
+            int last = this.numPages - 1;
+            int target = fsm.nextFree(0);
+            while(target >= 0 && target < last){
+                HeapPageId srcId = new HeapPageId(tableId, last);
+                HeapPage src = (HeapPage) bp.pinPage(tid, srcId, perm);
+                try {
+                    List<Tuple> tuples = new ArrayList<>();
+                    Iterator<Tuple> it = src.iterator();
+                    while(it.hasNext())
+                        tuples.add(it.next());
+                    for(Tuple t : tuples){
+                        target = moveTuple(tid, src, t, target, last);
+                        if(target < 0)
+                            break;
+                    }
+                    src.markDirty(true, tid);
+                } finally {
+                    bp.unpinPage(srcId);
+                }
+                fsm.setFree(last, true);
+                if(target >= 0)
+                    last--;
+            }
+            bp.flushPages(tid);
+
+            int keep = this.numPages;
+            while(keep > 0){
+                HeapPageId hpid = new HeapPageId(tableId, keep - 1);
+                if(!((HeapPage) bp.getPage(tid, hpid, perm)).isEmpty())
+                    break;
+                keep--;
+            }
+            int removed = this.numPages - keep;
+            if(removed > 0){
+                for(int i = keep; i < this.numPages; i++){
+                    bp.discardPage(new HeapPageId(tableId, i));
+                    fsm.setFree(i, false);
+                }
+                this.numPages = keep;
+                unmap();
+                channel().truncate((long) keep * this.pageSize);
+            }
+            return removed;
+        }
+    }
+
+    /**
+     * Moves one tuple of src to the first page before limit that has an
+     * empty slot, starting the search at page from.
+     *
+     * @return the page the tuple was moved to, or -1 if no page before
+     *     limit has room
+     */
+    private int moveTuple(TransactionId tid, HeapPage src, Tuple t, int from, int limit)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        FreeSpaceMap fsm = freeSpace();
+        for(int i = fsm.nextFree(from); i >= 0 && i < limit; i = fsm.nextFree(i + 1)){
+            HeapPageId hpid = new HeapPageId(this.getId(), i);
+            HeapPage dst = (HeapPage) bp.pinPage(tid, hpid, Permissions.READ_WRITE);
+            try {
+                if(dst.getNumEmptySlots() > 0){
+                    src.deleteTuple(t);
+                    dst.insertTuple(t);
+                    dst.markDirty(true, tid);
+                    fsm.setFree(i, dst.getNumEmptySlots() > 0);
+                    return i;
+                }
+                fsm.setFree(i, false);
+            } finally {
+                bp.unpinPage(hpid);
+            }
+        }
+        return -1;
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
-        return new MyIterator(tid);
+        return new MyIterator(tid, 0, numPages());
+    }
+
+    /**
+     * Returns an iterator over the tuples of a range of pages of this file,
+     * so that several threads can scan the file at once.
+     *
+     * @param firstPage the first page to read
+     * @param endPage the page after the last page to read
+     * @throws IllegalArgumentException if the range is empty or not within
+     *     the file
+     */
+    public DbFileIterator iterator(TransactionId tid, int firstPage, int endPage) {
+        if (firstPage < 0 || firstPage >= endPage || endPage > numPages())
+            throw new IllegalArgumentException("bad page range " + firstPage + "-" + endPage
+                    + " for a file of " + numPages() + " pages");
+        return new MyIterator(tid, firstPage, endPage);
     }
 
-    private class MyIterator implements DbFileIterator{
+    private class MyIterator implements DbFileIterator, BatchIterator{
         private boolean open = false;
         private int tableId;
         private TransactionId tid;
+        /** The page after the last page this iterator reads. */
         private int numPages;
         private int currentPgNo = 0;
         private Permissions perm;
         private HeapPage pg;
         private Iterator<Tuple> pgItr;
-        public MyIterator(TransactionId tid){
+        /** Next slot of the current page to read by nextBatch. */
+        private int batchSlot = 0;
+        /** The pool the current page is pinned in, null if none is pinned. */
+        private BufferPool pinnedIn;
+        /** Number of consecutive moves to the following page. */
+        private int sequentialMoves = 0;
+        /** Last page requested from the read-ahead, -1 if none. */
+        private int readAheadTo = -1;
+        /** First page of the range this iterator reads. */
+        private final int firstPage;
+
+        public MyIterator(TransactionId tid, int firstPage, int endPage){
             this.tableId = HeapFile.this.getId();
             this.tid = tid;
-            this.numPages = HeapFile.this.numPages();
+            this.firstPage = firstPage;
+            this.currentPgNo = firstPage;
+            this.numPages = endPage;
             this.perm = Permissions.READ_ONLY;
         }
-        public void open() throws DbException, TransactionAbortedException{
-            HeapPageId pid;
+
+        /**
+         * Pins the given page and makes it the current page, unpinning the
+         * previous one. The current page stays pinned until the iterator
+         * moves on, so it cannot be evicted while its tuples are read.
+         */
+        private void moveTo(int pgNo, String error) throws DbException, TransactionAbortedException{
+            unpinCurrent();
+            HeapPageId pid = new HeapPageId(this.tableId, pgNo);
+            BufferPool bp = Database.getBufferPool();
             try {
-                open = true;
-                pid = new HeapPageId(this.tableId, this.currentPgNo);
-                this.pg = (HeapPage) Database.getBufferPool().getPage(this.tid, pid, this.perm);
-                this.pgItr = this.pg.iterator();
+                this.pg = (HeapPage) bp.pinPage(this.tid, pid, this.perm);
             }catch (IOException e){
-                throw new DbException("Open file error");
+                throw new DbException(error);
+            }
+            this.pinnedIn = bp;
+            if(this.open && pgNo == this.currentPgNo + 1)
+                this.sequentialMoves++;
+            else {
+                this.sequentialMoves = 0;
+                this.readAheadTo = pgNo;
             }
+            this.currentPgNo = pgNo;
+            this.pgItr = this.pg.iterator();
+            this.batchSlot = 0;
+            readAhead(bp);
+        }
+
+        /**
+         * Once the scan is known to be sequential, keeps the next window
+         * pages requested. A new request is issued when less than half a
+         * window remains ahead of the current page.
+         */
+        private void readAhead(BufferPool bp){
+            int window = HeapFile.this.readAheadWindow;
+            if(window == 0 || this.sequentialMoves < SEQUENTIAL_MOVES_BEFORE_READ_AHEAD)
+                return;
+            if(this.readAheadTo - this.currentPgNo > window / 2)
+                return;
+            int first = Math.max(this.readAheadTo, this.currentPgNo) + 1;
+            int last = Math.min(this.currentPgNo + window, this.numPages - 1);
+            if(first <= last){
+                bp.prefetchPages(this.tableId, first, last - first + 1);
+                this.readAheadTo = last;
+            }
+        }
+
+        private void unpinCurrent(){
+            if(this.pinnedIn != null){
+                this.pinnedIn.unpinPage(new HeapPageId(this.tableId, this.currentPgNo));
+                this.pinnedIn = null;
+            }
+        }
+
+        public void open() throws DbException, TransactionAbortedException{
+            open = true;
+            moveTo(this.currentPgNo, "Open file error");
         }
 
         public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException{
-            HeapPageId pid;
-            Tuple res;
-            if(!this.open)
+            if(!hasNext())
                 throw new NoSuchElementException();
-            Tuple t = this.pgItr.next();
-            if(t == null){
-                try {
-                    this.currentPgNo++;
-                    pid = new HeapPageId(this.tableId, this.currentPgNo);
-                    this.pg = (HeapPage) Database.getBufferPool().getPage(this.tid, pid, this.perm);
-                    this.pgItr = this.pg.iterator();
-                    if(this.pgItr.hasNext())
-                        return this.pgItr.next();
-                }catch (IOException e){
-                    throw new DbException("Open file error");
-                }
-            }
-            return t;
+            return this.pgItr.next();
 
         }
 
         public boolean hasNext() throws DbException, TransactionAbortedException{
-            HeapPageId pid;
             if(!this.open)
                 return false;
-            if(this.currentPgNo < this.numPages - 1)
-                return true;
-            else if(this.currentPgNo == this.numPages - 1){
-                return this.pgItr.hasNext();
+            // pages emptied by deletes stay in the file until a vacuum
+            while(!this.pgItr.hasNext()){
+                if(this.currentPgNo >= this.numPages - 1)
+                    return false;
+                moveTo(this.currentPgNo + 1, "Open file error");
             }
-            else
-                return false;
+            return true;
 
         }
 
-        public void rewind() throws DbException, TransactionAbortedException{
-            this.currentPgNo = 0;
-            HeapPageId pid = new HeapPageId(this.tableId, this.currentPgNo);
-            try {
-                this.pg = (HeapPage) Database.getBufferPool().getPage(this.tid, pid, this.perm);
-                this.pgItr = this.pg.iterator();
-            }catch (IOException e){
-                throw new DbException("IOException happens");
+        /**
+         * Reads the tuples of the file into batches page by page, without
+         * creating a Tuple for each of them.
+         */
+        public TupleBatch nextBatch() throws DbException, TransactionAbortedException{
+            if(!this.open)
+                return null;
+            TupleBatch b = new TupleBatch(HeapFile.this.td);
+            while(!b.isFull()){
+                if(this.batchSlot >= 0)
+                    this.batchSlot = this.pg.addToBatch(b, this.batchSlot);
+                if(this.batchSlot >= 0 || this.currentPgNo >= this.numPages - 1)
+                    break;
+                moveTo(this.currentPgNo + 1, "Open file error");
             }
+            return b.size() == 0 ? null : b;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException{
+            moveTo(this.firstPage, "IOException happens");
 
         }
 
         public void close(){
+            unpinCurrent();
             this.pg = null;
             this.open = false;
-            this.currentPgNo = 0;
+            this.currentPgNo = this.firstPage;
         }
     }
 
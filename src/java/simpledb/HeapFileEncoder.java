@@ -105,6 +105,8 @@ public class HeapFileEncoder {
     int nheaderbits = nheaderbytes * 8;
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
+    // a map saved for an earlier file of the same name no longer applies
+    HeapFile.freeSpaceFile(outFile).delete();
     FileOutputStream os = new FileOutputStream(outFile);
 
     // our numbers probably won't be much larger than 1024 digits
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -15,11 +16,46 @@ public class HeapPage implements Page {
 
     HeapPageId pid;
     TupleDesc td;
-    byte header[];
+    /** Size of the page in bytes, which is set per table in the catalog. */
+    int pageSize;
+    /**
+     * The slot bitmap, 64 slots per word: slot i is bit i % 64 of word
+     * i / 64, which matches the little-endian byte order of the header on
+     * disk. Bits past the last slot are always zero.
+     */
+    long header[];
+    /** Size of the header on disk, in bytes. */
+    int headerSize;
+    /** Number of clear bits in header, kept up to date by markSlotUsed. */
+    int numEmptySlots;
+    /**
+     * Tuples of the page, created the first time they are asked for. A used
+     * slot whose entry is still null is decoded from data when needed.
+     */
     Tuple tuples[];
     int numSlots;
+    /**
+     * The bytes the page was read from, which are also its before-image.
+     * They are never written to.
+     */
+    ByteBuffer data;
+    /**
+     * True if data may change while this page is alive, for example when it
+     * is a slice of a mapped file, so tuples must not decode fields from it
+     * after they are created.
+     */
+    boolean sharedData;
+    /** Offset of each field within a tuple. */
+    int fieldOffsets[];
 
-    byte[] oldData;
+    /**
+     * The current bytes of the page, created from data the first time the
+     * page is changed and null until then. Slots in staleSlots have not
+     * been encoded into it yet.
+     */
+    byte[] image;
+    /** Slots changed since they were last encoded into image. */
+    long staleSlots[];
     TransactionId tid;
     boolean dirty = false;
 
@@ -28,39 +64,64 @@ public class HeapPage implements Page {
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.PAGE_SIZE*8) / (tuple size * 8 + 1))
+     *          floor((page size*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
      * database table, which can be determined via {@link Catalog#getTupleDesc}.
      * The number of 8-bit header words is equal to:
      * <p>
      *      ceiling(no. tuple slots / 8)
+     * <p> where the page size is given by {@link Catalog#getPageSize}.
      * <p>
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
-     * @see BufferPool#PAGE_SIZE
+     * @see Catalog#getPageSize
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data), false);
+    }
+
+    /**
+     * Create a HeapPage from the bytes of a page in a buffer, for example a
+     * slice of a memory-mapped file. The page keeps a view of the buffer
+     * instead of copying it; the buffer's position and limit are not
+     * changed.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, data, true);
+    }
+
+    /**
+     * Only the header is read here. Tuples are created, and their fields
+     * decoded, only when they are asked for.
+     */
+    private HeapPage(HeapPageId id, ByteBuffer data, boolean sharedData) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = Database.getCatalog().getPageSize(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.data = data.slice();
+        this.sharedData = sharedData;
+        if (this.data.remaining() < pageSize)
+            throw new EOFException("a page needs " + pageSize + " bytes");
 
         // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-
-        try{
-            // allocate and read the actual records of this page
-            tuples = new Tuple[numSlots];
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
-
-        setBeforeImage();
+        headerSize = getHeaderSize();
+        header = new long[(numSlots + 63) / 64];
+        for (int i=0; i<headerSize; i++)
+            header[i >>> 3] |= (this.data.get(i) & 0xffL) << ((i & 7) * 8);
+        if (numSlots % 64 != 0)
+            header[header.length - 1] &= (1L << numSlots) - 1;
+        numEmptySlots = numSlots;
+        for (long word : header)
+            numEmptySlots -= Long.bitCount(word);
+        staleSlots = new long[header.length];
+
+        tuples = new Tuple[numSlots];
+        fieldOffsets = new int[td.numFields()];
+        for (int j=1; j<fieldOffsets.length; j++)
+            fieldOffsets[j] = fieldOffsets[j-1] + td.getFieldType(j-1).getLen();
     }
 
     /** Retrieve the number of tuples on this page.
@@ -69,7 +130,7 @@ public class HeapPage implements Page {
     public int getNumTuples() {
         // some code goes here
         int tupleSize = this.td.getSize();
-        int numTuples = (BufferPool.PAGE_SIZE * 8) / (tupleSize * 8 + 1);
+        int numTuples = (this.pageSize * 8) / (tupleSize * 8 + 1);
 
         return numTuples;
         //return 0;
@@ -114,7 +175,9 @@ public class HeapPage implements Page {
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
-            return new HeapPage(pid,oldData);
+            byte[] before = new byte[pageSize];
+            data.duplicate().get(before);
+            return new HeapPage(pid,before);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -123,8 +186,50 @@ public class HeapPage implements Page {
         return null;
     }
     
-    public void setBeforeImage() {
-        oldData = getPageData().clone();
+    /**
+     * Makes the current contents of this page its before-image. Nothing
+     * is copied unless the page has changed since it was read or since
+     * the last call.
+     */
+    public synchronized void setBeforeImage() {
+        if (image != null) {
+            data = ByteBuffer.wrap(getPageData());
+            image = null;
+        }
+    }
+
+    /**
+     * Fills or clears a slot and records that it has changed, in one step
+     * with respect to {@link #getPageData}, which re-encodes the whole
+     * header but only the stale slots: an image never has the bit of a
+     * slot set over a body that was not encoded with it.
+     */
+    private synchronized void slotChanged(int slotId, boolean used) {
+        markSlotUsed(slotId, used);
+        slotChanged(slotId);
+    }
+
+    /**
+     * Records that a slot has changed. The first change to the page
+     * copies its bytes into image, leaving data as the before-image.
+     * <p>
+     * Callers change the slot first, so a slot changed while the page is
+     * being written out is either encoded or left stale for the next write.
+     * Marking it stale is exclusive with {@link #getPageData}, which may
+     * run on the page cleaner without a page lock.
+     */
+    private synchronized void slotChanged(int slotId) {
+        if (image == null) {
+            byte[] current = new byte[pageSize];
+            data.duplicate().get(current);
+            if (sharedData) {
+                // the before-image must not follow later writes to the file
+                data = ByteBuffer.wrap(current.clone());
+                sharedData = false;
+            }
+            image = current;
+        }
+        staleSlots[slotId >>> 6] |= 1L << slotId;
     }
 
     /**
@@ -137,37 +242,132 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the offset of the tuple in the given slot within the page.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    private int slotOffset(int slotId) {
+        return headerSize + slotId * td.getSize();
+    }
+
+    /**
+     * Returns the tuple in the given slot, creating it if this is the
+     * first time it is asked for.
+     *
+     * @throws NoSuchElementException if the slot is empty
+     */
+    public Tuple getTuple(int slotId) throws NoSuchElementException {
+        if (!isSlotUsed(slotId))
+            throw new NoSuchElementException("slot " + slotId + " is empty");
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            PageTuple pt = new PageTuple(slotId);
+            if (sharedData)
+                pt.decodeAll();
+            tuples[slotId] = t = pt;
         }
+        return t;
+    }
+
+    /**
+     * Reads one field of the tuple in the given slot. Unless the tuple has
+     * already been created, the field is decoded straight from the page
+     * bytes and no Tuple is created.
+     *
+     * @throws NoSuchElementException if the slot is empty
+     */
+    public Field getField(int slotId, int fieldNo) throws NoSuchElementException {
+        if (!isSlotUsed(slotId))
+            throw new NoSuchElementException("slot " + slotId + " is empty");
+        Tuple t = tuples[slotId];
+        if (t != null)
+            return t.getField(fieldNo);
+        return decodeField(slotId, fieldNo);
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
+    /**
+     * Decodes one field of the given slot from the page bytes.
+     */
+    private Field decodeField(int slotId, int fieldNo) throws NoSuchElementException {
         try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
+            return td.getFieldType(fieldNo).parse(data, slotOffset(slotId) + fieldOffsets[fieldNo]);
         } catch (java.text.ParseException e) {
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
         }
+    }
 
-        return t;
+    /**
+     * A tuple of this page whose fields are decoded from the page bytes
+     * the first time each one is read.
+     */
+    private class PageTuple extends Tuple {
+
+        private static final long serialVersionUID = 1L;
+        private final int slotId;
+
+        PageTuple(int slotId) {
+            super(td);
+            this.slotId = slotId;
+            setRecordId(new RecordId(pid, slotId));
+        }
+
+        @Override
+        public Field getField(int i) {
+            Field f = super.getField(i);
+            if (f == null) {
+                f = decodeField(slotId, i);
+                super.setField(i, f);
+            }
+            return f;
+        }
+
+        @Override
+        public int getInt(int i) {
+            if (hasValue(i) || td.getFieldType(i) != Type.INT_TYPE)
+                return super.getInt(i);
+            // read straight from the page bytes, without an IntField
+            return data.getInt(slotOffset(slotId) + fieldOffsets[i]);
+        }
+
+        @Override
+        public void setField(int i, Field f) {
+            super.setField(i, f);
+            if (tuples[slotId] == this)
+                slotChanged(slotId);
+        }
+
+        @Override
+        public void setInt(int i, int v) {
+            super.setInt(i, v);
+            if (tuples[slotId] == this)
+                slotChanged(slotId);
+        }
+
+        @Override
+        public Iterator<Field> fields() {
+            decodeAll();
+            return super.fields();
+        }
+
+        @Override
+        public String toString() {
+            decodeAll();
+            return super.toString();
+        }
+
+        /** Decodes every field that has not been read yet. */
+        void decodeAll() {
+            for (int i = 0; i < td.numFields(); i++)
+                getField(i);
+        }
+
+        /** Tuples are serialized as plain tuples, without their page. */
+        private Object writeReplace() {
+            Tuple t = new Tuple(getTupleDesc());
+            t.setRecordId(getRecordId());
+            for (int i = 0; i < td.numFields(); i++)
+                t.setField(i, getField(i));
+            return t;
+        }
     }
 
     /**
@@ -181,65 +381,46 @@ public class HeapPage implements Page {
      * @see #HeapPage
      * @return A byte array correspond to the bytes of this page.
      */
-    public byte[] getPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
+    public synchronized byte[] getPageData() {
+        if (image == null) {
+            // unchanged since the page was read
+            byte[] out = new byte[pageSize];
+            data.duplicate().get(out);
+            return out;
         }
 
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
+        // re-encode only the header and the slots that changed
+        for (int i=0; i<headerSize; i++)
+            image[i] = (byte) (header[i >>> 3] >>> ((i & 7) * 8));
+        for (int w=0; w<staleSlots.length; w++) {
+            for (long word = staleSlots[w]; word != 0; word &= word - 1)
+                encodeSlot((w << 6) + Long.numberOfTrailingZeros(word));
+            staleSlots[w] = 0;
         }
+        return image.clone();
+    }
 
-        // padding
-        int zerolen = BufferPool.PAGE_SIZE - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Writes the tuple in the given slot into image, or zeroes if the slot
+     * is empty.
+     */
+    private void encodeSlot(int slotId) {
+        int off = slotOffset(slotId);
+        if (!isSlotUsed(slotId)) {
+            Arrays.fill(image, off, off + td.getSize(), (byte) 0);
+            return;
         }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        Tuple t = tuples[slotId];
+        for (int j=0; j<td.numFields(); j++) {
+            try {
+                t.getField(j).serialize(dos);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
-
-        return baos.toByteArray();
+        System.arraycopy(baos.toByteArray(), 0, image, off, baos.size());
     }
 
     /**
@@ -252,8 +433,18 @@ public class HeapPage implements Page {
      * @return The returned ByteArray.
      */
     public static byte[] createEmptyPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        return new byte[len]; //all 0
+        return createEmptyPageData(BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * HeapPage of the given size.
+     *
+     * @param pageSize the size of the page in bytes
+     * @return The returned ByteArray.
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
     }
 
     /**
@@ -266,11 +457,18 @@ public class HeapPage implements Page {
     public void deleteTuple(Tuple t) throws DbException {
         // some code goes here
         RecordId rid = t.getRecordId();
+        if(rid == null || !this.pid.equals(rid.getPageId()))
+            throw new DbException("This tuple is not on this page");
         int tupleno = rid.tupleno();
-        Tuple test = tuples[tupleno];
-        if(test == null || !rid.equals(test.getRecordId()))
+        if(tupleno < 0 || tupleno >= numSlots || !isSlotUsed(tupleno))
             throw new DbException("This tuple is not on this page");
-        markSlotUsed(tupleno, false);
+        // the caller may still read the tuple, so decode it while its
+        // bytes are known to be current
+        if(t instanceof PageTuple)
+            ((PageTuple) t).decodeAll();
+        if(tuples[tupleno] instanceof PageTuple)
+            ((PageTuple) tuples[tupleno]).decodeAll();
+        slotChanged(tupleno, false);
         tuples[tupleno] = null;
 
 
@@ -280,18 +478,25 @@ public class HeapPage implements Page {
     /**
      * Adds the specified tuple to the page;  the tuple should be updated to reflect
      *  that it is now stored on this page.
+     * The page stores a copy of the tuple's fields, so later changes must be
+     *  made to the tuple returned by {@link #getTuple} for the slot.
      * @throws DbException if the page is full (no empty slots) or tupledesc
      *         is mismatch.
      * @param t The tuple to add.
      */
     public void insertTuple(Tuple t) throws DbException {
         // some code goes here
-       for(int i = 0; i < numSlots; i++){
-           if(!isSlotUsed(i)){
+       for(int w = 0; w < header.length && numEmptySlots > 0; w++){
+           long free = ~header[w];
+           int i = (w << 6) + Long.numberOfTrailingZeros(free);
+           if(free != 0 && i < numSlots){
                RecordId newRid = new RecordId(this.pid, i);
                t.setRecordId(newRid);
-               tuples[i] = t;
-               markSlotUsed(i, true);
+               PageTuple stored = new PageTuple(i);
+               for(int j = 0; j < td.numFields(); j++)
+                   stored.setField(j, t.getField(j));
+               tuples[i] = stored;
+               slotChanged(i, true);
                return;
            }
        }
@@ -330,18 +535,7 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         // some code goes here
-        int numEmptySlots = 0;
-        int flag = 0;
-        for(int i = 0; i < this.header.length; i++){
-            for(int j = 0; j < 8; j++){
-                flag++;
-                if(((this.header[i] & (1 << j)) & 0xff) == 0)
-                    numEmptySlots++;
-                if(flag == this.numSlots)
-                    break;
-            }
-        }
-        return numEmptySlots;
+        return this.numEmptySlots;
     }
 
     /**
@@ -349,10 +543,54 @@ public class HeapPage implements Page {
      */
     public boolean isSlotUsed(int i) {
         // some code goes here
-        int index = i / 8;
-        if(((this.header[index] & (1 << (i - index * 8))) & 0xff ) == 0)
-            return false;
-        return true;
+        return (this.header[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /**
+     * Returns the first used slot at or after from, skipping empty slots a
+     * word at a time.
+     *
+     * @return the slot number, or -1 if no later slot is used
+     */
+    public int nextUsedSlot(int from) {
+        int w = from >>> 6;
+        if (w >= this.header.length)
+            return -1;
+        long word = this.header[w] & (-1L << from);
+        while (word == 0) {
+            if (++w == this.header.length)
+                return -1;
+            word = this.header[w];
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    /**
+     * Adds the tuples of the used slots from the given slot on to a batch,
+     * until the batch is full. Int fields of tuples that have not been
+     * created are read straight from the page bytes.
+     *
+     * @return the slot to continue from, or -1 if every used slot from the
+     *         given one on has been added
+     */
+    public int addToBatch(TupleBatch b, int from) {
+        for (int slot = nextUsedSlot(from); slot >= 0; slot = nextUsedSlot(slot + 1)) {
+            if (b.isFull())
+                return slot;
+            int row = b.addRow();
+            Tuple t = tuples[slot];
+            int offset = slotOffset(slot);
+            for (int j = 0; j < fieldOffsets.length; j++) {
+                if (t != null)
+                    b.setValue(j, row, t, j);
+                else if (td.getFieldType(j) == Type.INT_TYPE)
+                    b.setInt(j, row, data.getInt(offset + fieldOffsets[j]));
+                else
+                    b.setField(j, row, decodeField(slot, j));
+            }
+            b.setRecordId(row, new RecordId(pid, slot));
+        }
+        return -1;
     }
 
     /**
@@ -360,12 +598,16 @@ public class HeapPage implements Page {
      */
     private void markSlotUsed(int i, boolean value) {
         // some code goes here
-        int index = i / 8;
-        if(value)
-            this.header[index] = (byte) (this.header[index] | (1 << (i - index * 8)));
-        else
-            this.header[index] = (byte)((this.header[index]) & (~(1 << (i - index * 8))));
-
+        if(isSlotUsed(i) == value)
+            return;
+        if(value){
+            this.header[i >>> 6] |= 1L << i;
+            this.numEmptySlots--;
+        }
+        else {
+            this.header[i >>> 6] &= ~(1L << i);
+            this.numEmptySlots++;
+        }
     }
 
     /**
@@ -378,30 +620,18 @@ public class HeapPage implements Page {
     }
 
     private class MyIterator implements Iterator<Tuple>{
-        int cursor;
-        int count = 0;
-        int validTupleSize = 0;
-        MyIterator(){
-            this.cursor = 0;
-            this.count = 0;
-            this.validTupleSize = HeapPage.this.tuples.length - HeapPage.this.getNumEmptySlots();
-        }
+        int cursor = 0;
 
         public boolean hasNext(){
-            return this.count != this.validTupleSize;
+            return HeapPage.this.nextUsedSlot(this.cursor) >= 0;
         }
 
         public Tuple next(){
-            int i = this.cursor;
-            Tuple[] elementData = HeapPage.this.tuples;
-            while (i < elementData.length && !HeapPage.this.isSlotUsed(i)) i++;
-            if(i == elementData.length)
+            int i = HeapPage.this.nextUsedSlot(this.cursor);
+            if(i < 0)
                 return null;
             this.cursor = i + 1;
-            this.count++;
-            return elementData[i];
-
-
+            return HeapPage.this.getTuple(i);
         }
 
         public void remove(){
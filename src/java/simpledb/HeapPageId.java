@@ -42,7 +42,7 @@ public class HeapPageId implements PageId {
      */
     public int hashCode() {
         // some code goes here
-        return this.toString().hashCode();
+        return 31 * this.tableId + this.pgNo;
         //throw new UnsupportedOperationException("implement this");
     }
 
@@ -1,9 +1,9 @@
 package simpledb;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Map;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
@@ -15,10 +15,16 @@ public class IntegerAggregator implements Aggregator {
     private Type gbfieldtype;
     private int afield;
     private Op what;
+    /** Index of each group in keys, values and counts. */
     private HashMap<Field, Integer> index = new HashMap<>();
-    private HashMap<Field, Integer> counter = new HashMap<>();
-    private ArrayList<Tuple> res = new ArrayList<>();
-    private ArrayList<Tuple> avgRes = new ArrayList<>();
+    /** The group-by value of each group, in the order they were first seen. */
+    private ArrayList<Field> keys = new ArrayList<>();
+    /**
+     * The running sum, min or max of each group. Sums are ints, and wrap
+     * around as the sum of IntFields does.
+     */
+    private int[] values = new int[16];
+    private int[] counts = new int[16];
     private boolean noGrouping = false;
     private TupleDesc td;
 
@@ -61,125 +67,90 @@ public class IntegerAggregator implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
-        Tuple newTuple;
-        Tuple t2 = new Tuple(td);
-        Field af = tup.getField(afield);
-        Field gf;
-        if(!noGrouping){
-            gf = tup.getField(gbfield);
-            t2.setField(0, gf);
-            t2.setField(1, af);
-            if(!index.containsKey(gf)){
-                counter.put(gf, 1);
-                index.put(gf, res.size());
-                if(what == Op.COUNT)
-                    t2.setField(1, new IntField(1));
-                res.add(t2);
-                avgRes.add(t2);
-            }
-            else {
-                int i = index.get(gf);
-                Tuple t1 = res.get(i);
-                newTuple = mergeTuples(t1, t2, gf);
-                res.set(i, newTuple);
-                int c = counter.get(gf);
-                counter.put(gf, c + 1);
-            }
-        }
-        else {
-            gf = new IntField(Aggregator.NO_GROUPING);
-            t2.setField(0, af);
-            index.put(gf, 0);
-            if(res.size() == 0){
-                res.add(t2);
-                avgRes.add(t2);
-                counter.put(gf, 1);
-            }
-            else {
-                Tuple t1 = res.get(0);
-                newTuple = mergeTuples(t1, t2, gf);
-                res.set(0, newTuple);
-                int c = counter.get(gf);
-                counter.put(gf, c + 1);
-            }
+        int g = noGrouping ? group(null) : group(tup.getField(gbfield));
+        merge(g, tup.getInt(afield));
+    }
+
+    /**
+     * Merges every selected row of a batch into the aggregate. The values
+     * to aggregate are read from the batch's int column without creating
+     * IntFields.
+     */
+    public void mergeBatch(TupleBatch batch) {
+        int[] col = batch.intColumn(afield);
+        if (noGrouping) {
+            int g = group(null);
+            for (int k = 0; k < batch.size(); k++)
+                merge(g, col[batch.row(k)]);
+            return;
         }
-        if(what == Op.AVG){
-            int abfield = 1;
-            if(noGrouping)
-                abfield = 0;
-            else
-                abfield = 1;
-            for(Map.Entry<Field, Integer> e: counter.entrySet()){
-                Field key = e.getKey();
-                Integer value = e.getValue();
-                Tuple originTup = res.get(index.get(key));
-                Tuple newTup = new Tuple(td);
-                if(abfield == 1){
-                    gf = originTup.getField(0);
-                    newTup.setField(0, gf);
-                }
-                IntField originField = (IntField) originTup.getField(abfield);
-                int sum = originField.getValue();
-                int r = sum / value;
-                IntField newField = new IntField(r);
-                newTup.setField(abfield, newField);
-                avgRes.set(index.get(key), newTup);
-            }
+        for (int k = 0; k < batch.size(); k++) {
+            int row = batch.row(k);
+            merge(group(batch.getField(gbfield, row)), col[row]);
         }
+    }
 
+    /**
+     * @return the index of the group of the given group-by value, adding
+     *         the group if it is new
+     */
+    private int group(Field key) {
+        Integer g = index.get(key);
+        if (g != null)
+            return g;
+        g = keys.size();
+        if (g == values.length) {
+            values = Arrays.copyOf(values, g * 2);
+            counts = Arrays.copyOf(counts, g * 2);
+        }
+        keys.add(key);
+        index.put(key, g);
+        return g;
     }
 
     /**
+     * Merges the groups of another aggregator, which computes the same
+     * aggregate over other tuples, into this one. Each group of the result
+     * is as if all tuples of both had been merged into this aggregator.
      *
-     * @param tuple1
-     * @param tuple2
-     * @param gf
-     * @return Merge two tuples using the specified operator op
+     * @param partial an aggregator with the same group-by field, aggregate
+     *            field and operator as this one
      */
-    private Tuple mergeTuples(Tuple tuple1, Tuple tuple2, Field gf){
-        Tuple newTuple = new Tuple(td);
-        int afield = 1;
-        if(noGrouping)
-            afield = 0;
-        else{
-            afield = 1;
-            newTuple.setField(0, gf);
+    public void combine(IntegerAggregator partial) {
+        for (int h = 0; h < partial.keys.size(); h++)
+            merge(group(partial.keys.get(h)), partial.values[h], partial.counts[h]);
+    }
+
+    private void merge(int g, int v) {
+        merge(g, v, 1);
+    }
+
+    /**
+     * Merges n values, whose sum, min or max is v, into group g.
+     */
+    private void merge(int g, int v, int n) {
+        int c = counts[g];
+        counts[g] += n;
+        if (c == 0) {
+            values[g] = v;
+            return;
         }
-        IntField f1 = (IntField)tuple1.getField(afield);
-        IntField f2 = (IntField)tuple2.getField(afield);
-        int v1 = f1.getValue();
-        int v2 = f2.getValue();
         switch (what){
             case MIN:
-                if(v1 < v2)
-                    return tuple1;
-                else
-                    return tuple2;
+                values[g] = Math.min(values[g], v);
+                break;
             case MAX:
-                if(v1 < v2)
-                    return tuple2;
-                else
-                    return tuple1;
+                values[g] = Math.max(values[g], v);
+                break;
             case AVG:
             case SUM:
-                int v = v1 + v2;
-                newTuple.setField(afield, new IntField(v));
-                return newTuple;
+                values[g] += v;
+                break;
             case COUNT:
-                newTuple.setField(afield, new IntField(counter.get(gf) + 1));
-                return newTuple;
-
-           /* case AVG:
-                int s = v1 * counter.get(gf) + v2;
-                int c = counter.get(gf) + 1;
-                int r = s / c;
-                newTuple.setField(afield, new IntField(r));
-                return newTuple;*/
+                break;
             default:
                 throw new IllegalArgumentException("Unsupported operation " + what);
         }
-
-        //return null;
     }
 
     /**
@@ -192,9 +163,25 @@ public class IntegerAggregator implements Aggregator {
      */
     public DbIterator iterator() {
         // some code goes here
-        if(what != Op.AVG)
-            return new MyIntAggIterator(td, res);
-        return new MyIntAggIterator(td, avgRes);
+        ArrayList<Tuple> res = new ArrayList<>();
+        for (int g = 0; g < keys.size(); g++) {
+            Tuple t = new Tuple(td);
+            int r;
+            if (what == Op.COUNT)
+                r = counts[g];
+            else if (what == Op.AVG)
+                r = values[g] / counts[g];
+            else
+                r = values[g];
+            if (noGrouping) {
+                t.setInt(0, r);
+            } else {
+                t.setField(0, keys.get(g));
+                t.setInt(1, r);
+            }
+            res.add(t);
+        }
+        return new MyIntAggIterator(td, res);
     }
 
     private class MyIntAggIterator implements DbIterator{
@@ -4,6 +4,10 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * It is a nested-loop join, which scans child2 once for each tuple of
+ * child1, or a block nested-loop join, which reads child1 a block of tuples
+ * at a time and scans child2 once for each block.
  */
 public class Join extends Operator {
 
@@ -17,6 +21,14 @@ public class Join extends Operator {
     private Tuple cursor;
     int i = 0;
 
+    /** The default number of tuples in a block of child1. */
+    public final static int BLOCK_SIZE = 1000;
+    private final int blockSize;
+    /** The block of child1 being joined, and the tuple of child2 joined with it. */
+    transient private ArrayList<Tuple> block = null;
+    transient private int blockPos = 0;
+    transient private Tuple inner = null;
+
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
@@ -29,7 +41,22 @@ public class Join extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public Join(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, 1);
+    }
+
+    /**
+     * Constructor of a block nested-loop join.
+     *
+     * @param blockSize
+     *            The number of tuples of child1 to join per scan of child2. A
+     *            block size of 1 is a nested-loop join.
+     */
+    public Join(JoinPredicate p, DbIterator child1, DbIterator child2,
+            int blockSize) {
         // some code goes here
+        if (blockSize < 1)
+            throw new IllegalArgumentException("block size must be positive");
+        this.blockSize = blockSize;
         this.p = p;
         this.child1 = child1;
         this.child2 = child2;
@@ -37,6 +64,13 @@ public class Join extends Operator {
         this.td2 = child2.getTupleDesc();
     }
 
+    /**
+     * @return the number of tuples of child1 joined per scan of child2
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
     public JoinPredicate getJoinPredicate() {
         // some code goes here
         return p;
@@ -100,12 +134,17 @@ public class Join extends Operator {
         super.close();
         child1.close();
         child2.close();
+        block = null;
+        inner = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
         child1.rewind();
         child2.rewind();
+        cursor = null;
+        block = null;
+        inner = null;
     }
 
     /**
@@ -130,6 +169,8 @@ public class Join extends Operator {
         // some code goes here
         if(td == null)
             td = getTupleDesc();
+        if (blockSize > 1)
+            return fetchNextBlock();
         Tuple newTuple = new Tuple(td);
         boolean flag = true;
         while (child1.hasNext() || child2.hasNext() ){
@@ -150,10 +191,8 @@ public class Join extends Operator {
             while (child2.hasNext()){
                 Tuple t2 = child2.next();
                 if(p.filter(t1, t2)){
-                    for(int i = 0; i < td1.numFields(); i++)
-                        newTuple.setField(i, t1.getField(i));
-                    for(int i = td1.numFields(); i < td.numFields(); i++)
-                        newTuple.setField(i, t2.getField(i - td1.numFields()));
+                    newTuple.copyFields(0, t1, 0, td1.numFields());
+                    newTuple.copyFields(td1.numFields(), t2, 0, td2.numFields());
                     return newTuple;
                 }
             }
@@ -162,6 +201,43 @@ public class Join extends Operator {
         return null;
     }
 
+    /**
+     * Returns the next tuple of a block nested-loop join: each tuple of
+     * child2 is joined with every tuple of the block, and child2 is
+     * rewound for the next block.
+     */
+    private Tuple fetchNextBlock() throws TransactionAbortedException,
+            DbException {
+        while (true) {
+            if (inner != null) {
+                while (blockPos < block.size()) {
+                    Tuple t1 = block.get(blockPos++);
+                    if (p.filter(t1, inner)) {
+                        Tuple newTuple = new Tuple(td);
+                        newTuple.copyFields(0, t1, 0, td1.numFields());
+                        newTuple.copyFields(td1.numFields(), inner, 0, td2.numFields());
+                        return newTuple;
+                    }
+                }
+                inner = null;
+            }
+            if (block != null && child2.hasNext()) {
+                inner = child2.next();
+                blockPos = 0;
+                continue;
+            }
+            if (!child1.hasNext())
+                return null;
+            if (block == null)
+                block = new ArrayList<Tuple>(blockSize);
+            else
+                child2.rewind();
+            block.clear();
+            while (block.size() < blockSize && child1.hasNext())
+                block.add(child1.next());
+        }
+    }
+
     @Override
     public DbIterator[] getChildren() {
         // some code goes here
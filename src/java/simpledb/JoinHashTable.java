@@ -0,0 +1,269 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * JoinHashTable is the hash table a hash join builds on the join key of one
+ * of its inputs. The rows are kept in one array, and the rows with the same
+ * key are chained through an int array, so that a key costs no objects
+ * besides its rows. Tables for INT keys keep the keys in an int array with
+ * open addressing; tables for other keys keep the hash of each key next to
+ * it, so that most mismatches are found without calling equals.
+ * <p>
+ * A table is built by one thread, after which any number of threads may
+ * look rows up in it.
+ */
+abstract class JoinHashTable {
+
+    /** Marks an empty slot and the end of a chain. */
+    static final int NONE = -1;
+
+    /** The key field of the rows and its type. */
+    protected final int keyField;
+    private final Type keyType;
+    private Tuple[] rows = new Tuple[16];
+    /** For each row, the next row with the same key, or NONE. */
+    private int[] next = new int[16];
+    private int size;
+    /** For each slot, the first and last rows of its key, or NONE. */
+    protected int[] heads;
+    protected int[] tails;
+    /** Number of slots used. */
+    protected int used;
+
+    protected JoinHashTable(Type keyType, int keyField) {
+        this.keyType = keyType;
+        this.keyField = keyField;
+    }
+
+    /**
+     * Creates an empty table.
+     *
+     * @param keyType
+     *            the type of the key field
+     * @param keyField
+     *            the key field of the rows added to the table
+     */
+    static JoinHashTable create(Type keyType, int keyField) {
+        if (keyType == Type.INT_TYPE)
+            return new IntKeys(keyField);
+        return new FieldKeys(keyType, keyField);
+    }
+
+    /**
+     * @return the hash of field of t, which is the hashCode of the field,
+     *         without creating an IntField for INT fields
+     */
+    static int hashCode(Tuple t, int field) {
+        if (t.getTupleDesc().getFieldType(field) == Type.INT_TYPE)
+            return t.getInt(field);
+        return t.getField(field).hashCode();
+    }
+
+    /** Spreads the bits of a hash code over the slots. */
+    protected static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the type of the keys. Only fields of this type may be looked
+     *         up in the table.
+     */
+    Type keyType() {
+        return keyType;
+    }
+
+    /** @return the number of rows in the table */
+    int size() {
+        return size;
+    }
+
+    /** @return row r */
+    Tuple row(int r) {
+        return rows[r];
+    }
+
+    /**
+     * @return the row after row r with the same key, in the order they were
+     *         added, or NONE
+     */
+    int next(int r) {
+        return next[r];
+    }
+
+    /** Adds a row to the table. */
+    void add(Tuple t) {
+        if (size == rows.length) {
+            rows = Arrays.copyOf(rows, size * 2);
+            next = Arrays.copyOf(next, size * 2);
+        }
+        if ((used + 1) * 2 > heads.length)
+            grow();
+        int slot = insert(t);
+        rows[size] = t;
+        next[size] = NONE;
+        if (heads[slot] == NONE)
+            heads[slot] = size;
+        else
+            next[tails[slot]] = size;
+        tails[slot] = size;
+        size++;
+    }
+
+    /** Removes all rows from the table. */
+    void clear() {
+        Arrays.fill(rows, 0, size, null);
+        size = 0;
+        used = 0;
+        reset(16);
+    }
+
+    /** Allocates empty arrays of the given number of slots. */
+    protected void reset(int slots) {
+        heads = new int[slots];
+        tails = new int[slots];
+        Arrays.fill(heads, NONE);
+    }
+
+    /**
+     * @return the first row whose key equals field of t, or NONE
+     */
+    abstract int find(Tuple t, int field);
+
+    /**
+     * @return the first row whose key equals column col of physical row row
+     *         of a batch, or NONE
+     */
+    abstract int find(TupleBatch b, int col, int row);
+
+    /**
+     * @return the slot of the key of t, which is used for it if it has none
+     *         yet
+     */
+    protected abstract int insert(Tuple t);
+
+    /** Doubles the number of slots. */
+    protected abstract void grow();
+
+    /**
+     * A table of INT keys.
+     */
+    private static class IntKeys extends JoinHashTable {
+        private int[] keys;
+
+        IntKeys(int keyField) {
+            super(Type.INT_TYPE, keyField);
+            reset(16);
+        }
+
+        protected void reset(int slots) {
+            super.reset(slots);
+            keys = new int[slots];
+        }
+
+        /** @return the slot of key, or of the empty slot it would go in */
+        private int slot(int key) {
+            int mask = heads.length - 1;
+            int s = mix(key) & mask;
+            while (heads[s] != NONE && keys[s] != key)
+                s = (s + 1) & mask;
+            return s;
+        }
+
+        int find(Tuple t, int field) {
+            return heads[slot(t.getInt(field))];
+        }
+
+        int find(TupleBatch b, int col, int row) {
+            return heads[slot(b.getInt(col, row))];
+        }
+
+        protected int insert(Tuple t) {
+            int key = t.getInt(keyField);
+            int s = slot(key);
+            if (heads[s] == NONE) {
+                keys[s] = key;
+                used++;
+            }
+            return s;
+        }
+
+        protected void grow() {
+            int[] oldKeys = keys, oldHeads = heads, oldTails = tails;
+            reset(oldHeads.length * 2);
+            for (int i = 0; i < oldHeads.length; i++) {
+                if (oldHeads[i] == NONE)
+                    continue;
+                int s = slot(oldKeys[i]);
+                keys[s] = oldKeys[i];
+                heads[s] = oldHeads[i];
+                tails[s] = oldTails[i];
+            }
+        }
+    }
+
+    /**
+     * A table of keys of any type, compared with equals.
+     */
+    private static class FieldKeys extends JoinHashTable {
+        private Field[] keys;
+        private int[] hashes;
+
+        FieldKeys(Type keyType, int keyField) {
+            super(keyType, keyField);
+            reset(16);
+        }
+
+        protected void reset(int slots) {
+            super.reset(slots);
+            keys = new Field[slots];
+            hashes = new int[slots];
+        }
+
+        private int slot(Field key, int hash) {
+            int mask = heads.length - 1;
+            int s = hash & mask;
+            while (heads[s] != NONE && (hashes[s] != hash || !keys[s].equals(key)))
+                s = (s + 1) & mask;
+            return s;
+        }
+
+        int find(Tuple t, int field) {
+            Field key = t.getField(field);
+            return heads[slot(key, mix(key.hashCode()))];
+        }
+
+        int find(TupleBatch b, int col, int row) {
+            Field key = b.getField(col, row);
+            return heads[slot(key, mix(key.hashCode()))];
+        }
+
+        protected int insert(Tuple t) {
+            Field key = t.getField(keyField);
+            int hash = mix(key.hashCode());
+            int s = slot(key, hash);
+            if (heads[s] == NONE) {
+                keys[s] = key;
+                hashes[s] = hash;
+                used++;
+            }
+            return s;
+        }
+
+        protected void grow() {
+            Field[] oldKeys = keys;
+            int[] oldHashes = hashes, oldHeads = heads, oldTails = tails;
+            reset(oldHeads.length * 2);
+            for (int i = 0; i < oldHeads.length; i++) {
+                if (oldHeads[i] == NONE)
+                    continue;
+                int s = slot(oldKeys[i], oldHashes[i]);
+                keys[s] = oldKeys[i];
+                hashes[s] = oldHashes[i];
+                heads[s] = oldHeads[i];
+                tails[s] = oldTails[i];
+            }
+        }
+    }
+}
@@ -14,6 +14,26 @@ public class JoinOptimizer {
     LogicalPlan p;
     Vector<LogicalJoinNode> joins;
 
+    /**
+     * The physical algorithms a join can be computed with.
+     */
+    public enum Algorithm {
+        /** A {@link Join}, which scans its inner child once per outer tuple */
+        NESTED_LOOP,
+        /**
+         * A {@link Join} that scans its inner child once per
+         * {@link Join#BLOCK_SIZE} outer tuples
+         */
+        BLOCK_NESTED_LOOP,
+        /** A {@link HashEquiJoin}, which computes = joins only */
+        HASH,
+        /** A {@link SortMergeJoin}, which computes all but &lt;&gt; and LIKE joins */
+        SORT_MERGE;
+    }
+
+    /** The estimated fraction of pairs of tuples a range predicate joins */
+    static final double RANGE_JOIN_SELECTIVITY = 0.3;
+
     /**
      * Constructor
      * 
@@ -70,8 +90,30 @@ public class JoinOptimizer {
 
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
+        boolean sameTypes = plan1.getTupleDesc().getFieldType(t1id) == plan2
+                .getTupleDesc().getFieldType(t2id);
+
+        // joins that were not planned by orderJoins use the algorithm it
+        // would choose for large inputs
+        Algorithm a = lj.algorithm;
+        if (a == null) {
+            if (lj instanceof LogicalSubplanJoinNode)
+                a = Algorithm.NESTED_LOOP;
+            else if (lj.p == Predicate.Op.EQUALS)
+                a = Algorithm.HASH;
+            else
+                a = Algorithm.SORT_MERGE;
+        }
 
-        j = new Join(p,plan1,plan2);
+        if (a == Algorithm.HASH && lj.p == Predicate.Op.EQUALS && sameTypes)
+            j = new HashEquiJoin(p, plan1, plan2);
+        else if (a == Algorithm.SORT_MERGE && SortMergeJoin.canJoin(lj.p)
+                && sameTypes)
+            j = new SortMergeJoin(p, plan1, plan2);
+        else if (a == Algorithm.BLOCK_NESTED_LOOP)
+            j = new Join(p, plan1, plan2, Join.BLOCK_SIZE);
+        else
+            j = new Join(p,plan1,plan2);
 
         return j;
 
@@ -110,14 +152,128 @@ public class JoinOptimizer {
             // You do not need to implement proper support for these for Project 3.
             return card1 + cost1 + cost2;
         } else {
-            // some code goes here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic nested-loops
-            // join.
+            // the cost of a nested-loop join, which can compute any join;
+            // see estimateJoinCosts for the cost of the other algorithms
             return cost1 + card1 * cost2 + card1 * card2;
         }
     }
 
+    /**
+     * Estimate the cost of a join with each of the join algorithms. Like
+     * {@link #estimateJoinCost}, the cost is in terms of cost1 and cost2 and
+     * of one unit per tuple processed. Algorithms that cannot compute the
+     * join cost Double.POSITIVE_INFINITY.
+     * <ul>
+     * <li>A nested-loop join scans child2 once per tuple of child1.
+     * <li>A block nested-loop join scans child2 once per block of child1.
+     * <li>A hash join scans each child once, inserting child1 into a hash
+     * table and probing it with child2. Whatever part of child1 does not fit
+     * in {@link HashEquiJoin#MAP_SIZE} tuples is written out and read back
+     * with the matching part of child2, at the I/O cost of the pages those
+     * tuples take up.
+     * <li>A sort-merge join scans and sorts each child, and then merges
+     * them, producing the joined pairs of a range predicate one by one.
+     * </ul>
+     * 
+     * @param j
+     *            A LogicalJoinNode representing the join operation being
+     *            performed.
+     * @param card1
+     *            Estimated cardinality of the left-hand side of the query
+     * @param card2
+     *            Estimated cardinality of the right-hand side of the query
+     * @param cost1
+     *            Estimated cost of one full scan of the table on the left-hand
+     *            side of the query
+     * @param cost2
+     *            Estimated cost of one full scan of the table on the right-hand
+     *            side of the query
+     * @return The cost of each algorithm, indexed by
+     *         {@link Algorithm#ordinal}
+     */
+    public double[] estimateJoinCosts(LogicalJoinNode j, int card1,
+            int card2, double cost1, double cost2) {
+        double[] costs = new double[Algorithm.values().length];
+        Arrays.fill(costs, Double.POSITIVE_INFINITY);
+        costs[Algorithm.NESTED_LOOP.ordinal()] = estimateJoinCost(j, card1,
+                card2, cost1, cost2);
+        if (j instanceof LogicalSubplanJoinNode)
+            return costs;
+
+        double blocks = Math.max(1, Math.ceil(card1 / (double) Join.BLOCK_SIZE));
+        costs[Algorithm.BLOCK_NESTED_LOOP.ordinal()] = cost1 + blocks * cost2
+                + (double) card1 * card2;
+        if (!sameKeyTypes(j))
+            return costs;
+
+        if (j.p == Predicate.Op.EQUALS) {
+            double cost = cost1 + cost2 + 2.0 * card1 + card2;
+            if (card1 > HashEquiJoin.MAP_SIZE) {
+                double spilled = 1.0 - HashEquiJoin.MAP_SIZE / (double) card1;
+                double bytes = spilled * ((double) card1 * tupleSize(j.t1Alias)
+                        + (double) card2 * tupleSize(j.t2Alias));
+                // each spilled page is written once and read once
+                cost += 2 * Math.ceil(bytes / BufferPool.PAGE_SIZE)
+                        * TableStats.IOCOSTPERPAGE;
+            }
+            costs[Algorithm.HASH.ordinal()] = cost;
+        }
+        if (SortMergeJoin.canJoin(j.p)) {
+            double cost = cost1 + cost2 + sortCost(card1) + sortCost(card2)
+                    + card1 + card2;
+            if (j.p != Predicate.Op.EQUALS)
+                cost += RANGE_JOIN_SELECTIVITY * card1 * card2;
+            costs[Algorithm.SORT_MERGE.ordinal()] = cost;
+        }
+        return costs;
+    }
+
+    /**
+     * @return the number of comparisons to sort card tuples
+     */
+    private static double sortCost(int card) {
+        return card * (Math.log(Math.max(card, 2)) / Math.log(2));
+    }
+
+    /**
+     * @return the cheapest algorithm, given the cost of each
+     */
+    static Algorithm cheapest(double[] costs) {
+        Algorithm best = Algorithm.NESTED_LOOP;
+        for (Algorithm a : Algorithm.values()) {
+            if (costs[a.ordinal()] < costs[best.ordinal()])
+                best = a;
+        }
+        return best;
+    }
+
+    /**
+     * @return the size of a tuple of the table with the given alias. For
+     *     the left side of a join of several tables this is a lower bound.
+     */
+    private int tupleSize(String alias) {
+        return Database.getCatalog().getTupleDesc(p.getTableId(alias)).getSize();
+    }
+
+    /**
+     * Return true if the fields a join compares have the same type, which
+     * the hash and sort-merge joins need
+     */
+    private boolean sameKeyTypes(LogicalJoinNode j) {
+        Integer tid1 = p.getTableId(j.t1Alias);
+        Integer tid2 = p.getTableId(j.t2Alias);
+        if (tid1 == null || tid2 == null)
+            return false;
+        try {
+            TupleDesc td1 = Database.getCatalog().getTupleDesc(tid1);
+            TupleDesc td2 = Database.getCatalog().getTupleDesc(tid2);
+            return td1.getFieldType(td1.fieldNameToIndex(j.f1PureName)) == td2
+                    .getFieldType(td2.fieldNameToIndex(j.f2PureName));
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -170,7 +326,7 @@ public class JoinOptimizer {
                 return card1 > card2 ? card1 : card2;
         }
         else
-            return (int)(card1 * card2 * 0.3);
+            return (int)(card1 * card2 * RANGE_JOIN_SELECTIVITY);
     }
 
     /**
@@ -249,20 +405,23 @@ public class JoinOptimizer {
                          cc = computeCostAndCardOfSubplan(stats, filterSelectivities,
                                 lj, slj, Double.POSITIVE_INFINITY, pc);
                          if (cc == null) continue;
-                         pc.addPlan(slj, cc.cost, cc.card, cc.plan);
+                         pc.addPlan(slj, cc.cost, cc.card, cc.plan, cc.joinCosts);
                          flag = false;
                     }
                    else {
                         cc = computeCostAndCardOfSubplan(stats, filterSelectivities,
                                 lj, slj, pc.getCost(slj), pc);
-                        if(cc != null)  pc.addPlan(slj, cc.cost, cc.card, cc.plan);
+                        if(cc != null)  pc.addPlan(slj, cc.cost, cc.card, cc.plan, cc.joinCosts);
                     }
                 }
             }
         }
         Set<Set<LogicalJoinNode>> sslj = enumerateSubsets(joins, size);
         for(Set<LogicalJoinNode> slj : sslj){
-            return pc.getOrder(slj);
+            Vector<LogicalJoinNode> order = pc.getOrder(slj);
+            if (explain && order != null)
+                printAlgorithms(order, pc);
+            return order;
         }
         return joins;
     }
@@ -392,14 +551,20 @@ public class JoinOptimizer {
         }
 
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double[] costs1 = estimateJoinCosts(j, t1card, t2card, t1cost, t2cost);
+        Algorithm a1 = cheapest(costs1);
+        double cost1 = costs1[a1.ordinal()];
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double[] costs2 = estimateJoinCosts(j2, t2card, t1card, t2cost, t1cost);
+        Algorithm a2 = cheapest(costs2);
+        double cost2 = costs2[a2.ordinal()];
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
             cost1 = cost2;
+            costs1 = costs2;
+            a1 = a2;
             tmp = rightPkey;
             rightPkey = leftPkey;
             leftPkey = tmp;
@@ -412,8 +577,9 @@ public class JoinOptimizer {
         cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey,
                 rightPkey, stats);
         cc.cost = cost1;
+        cc.joinCosts = costs1;
         cc.plan = (Vector<LogicalJoinNode>) prevBest.clone();
-        cc.plan.addElement(j); // prevbest is left -- add new join to end
+        cc.plan.addElement(j.withAlgorithm(a1)); // prevbest is left -- add new join to end
         return cc;
     }
 
@@ -460,6 +626,42 @@ public class JoinOptimizer {
 
     }
 
+    /**
+     * Print the algorithm chosen for each join of a plan, and the estimated
+     * cost of each algorithm it was chosen over.
+     * 
+     * @param js
+     *            the join plan to explain
+     * @param pc
+     *            the PlanCache accumulated while building the optimal plan
+     */
+    private void printAlgorithms(Vector<LogicalJoinNode> js, PlanCache pc) {
+        HashSet<LogicalJoinNode> pathSoFar = new HashSet<LogicalJoinNode>();
+        System.out.println("The join algorithms are:");
+        for (LogicalJoinNode j : js) {
+            pathSoFar.add(j);
+            double[] costs = pc.getJoinCosts(pathSoFar);
+            Algorithm a = pc.getAlgorithm(pathSoFar);
+            if (costs == null || a == null)
+                continue;
+            StringBuilder sb = new StringBuilder();
+            sb.append(j.f1QuantifiedName).append(" ").append(j.p).append(" ")
+                    .append(j.t2Alias == null ? "subplan" : j.f2QuantifiedName)
+                    .append(": ").append(a).append(" (cost ")
+                    .append(costs[a.ordinal()]);
+            for (Algorithm other : Algorithm.values()) {
+                if (other == a)
+                    continue;
+                sb.append(", ").append(other).append(" ");
+                if (Double.isInfinite(costs[other.ordinal()]))
+                    sb.append("cannot compute it");
+                else
+                    sb.append(costs[other.ordinal()]);
+            }
+            System.out.println(sb.append(")"));
+        }
+    }
+
     /**
      * Helper function to display a Swing window with a tree representation of
      * the specified list of joins. See {@link #orderJoins}, which may want to
@@ -43,6 +43,9 @@ public class JoinPredicate implements Serializable {
      */
     public boolean filter(Tuple t1, Tuple t2) {
         // some code goes here
+        if (t1.getTupleDesc().getFieldType(this.field1) == Type.INT_TYPE
+                && t2.getTupleDesc().getFieldType(this.field2) == Type.INT_TYPE)
+            return IntField.compare(t1.getInt(this.field1), this.op, t2.getInt(this.field2));
         Field f1 = t1.getField(this.field1);
         Field f2 = t2.getField(this.field2);
         return f1.compare(this.op, f2);
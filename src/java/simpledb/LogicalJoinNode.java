@@ -23,6 +23,9 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** The algorithm chosen for the join by the optimizer, or null if none was chosen */
+    public JoinOptimizer.Algorithm algorithm;
+
     public LogicalJoinNode() {
     }
 
@@ -63,6 +66,14 @@ public class LogicalJoinNode {
         return j2;
     }
     
+    /** Return a copy of this join, to be computed with the given
+     * algorithm. */
+    public LogicalJoinNode withAlgorithm(JoinOptimizer.Algorithm a) {
+        LogicalJoinNode j2 = new LogicalJoinNode(t1Alias,t2Alias,f1PureName,f2PureName, p);
+        j2.algorithm = a;
+        return j2;
+    }
+
     @Override public boolean equals(Object o) {
         LogicalJoinNode j2 =(LogicalJoinNode)o;
         return (j2.t1Alias.equals(t1Alias)  || j2.t1Alias.equals(t2Alias)) && (j2.t2Alias.equals(t1Alias)  || j2.t2Alias.equals(t2Alias));
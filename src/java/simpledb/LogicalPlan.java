@@ -36,8 +36,12 @@ public class LogicalPlan {
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
     private String query;
+    private int workers = Gather.defaultWorkers();
 //    private Query owner;
 
+    /** Smallest number of pages each worker of a parallel scan reads. */
+    public static final int MIN_PAGES_PER_WORKER = 16;
+
     /** Constructor -- generate an empty logical plan */
     public LogicalPlan() {
         joins = new Vector<LogicalJoinNode>();
@@ -50,6 +54,16 @@ public class LogicalPlan {
         this.query = "";
     }
 
+    /** Set the number of worker threads that scans of large tables may be
+        split over. Plans that modify the tables they scan should use 1, so
+        that every scan runs on the thread that applies the changes.
+
+        @param workers the number of threads, 1 for no parallel scans
+    */
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
     /** Set the text of the query representing this logical plan.  Does NOT parse the
         specified query -- this method is just used so that the object can print the
         SQL it represents.
@@ -345,7 +359,6 @@ public class LogicalPlan {
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
 
-        
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
         joins = jo.orderJoins(statsMap,filterSelectivities,explain);
@@ -415,6 +428,12 @@ public class LogicalPlan {
         
         DbIterator node =  (DbIterator)(subplanMap.entrySet().iterator().next().getValue());
 
+        // run the plan on the morsel workers if it is a single pipeline,
+        // otherwise run its large scans in parallel
+        boolean morsels = workers > 1 && MorselPipeline.canRun(node);
+        if (workers > 1 && !morsels)
+            node = parallelizeScans(node, workers);
+
         //walk the select list, to determine order in which to project output fields
         ArrayList<Integer> outFields = new ArrayList<Integer>();
         ArrayList<Type> outTypes = new ArrayList<Type>();
@@ -468,18 +487,23 @@ public class LogicalPlan {
 
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
+            DbIterator aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int afield = td.fieldNameToIndex(aggField);
+                int gfield = groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField);
+                if (morsels && td.getFieldType(afield) == Type.INT_TYPE)
+                    aggNode = new MorselPipeline(node, afield, gfield, getAggOp(aggOp));
+                else
+                    aggNode = new Aggregate(morsels ? new MorselPipeline(node) : node,
+                                            afield, gfield, getAggOp(aggOp));
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
                 throw new simpledb.ParsingException(e);
             }
             node = aggNode;
+        } else if (morsels) {
+            node = new MorselPipeline(node);
         }
 
         if (hasOrderBy) {
@@ -490,6 +514,63 @@ public class LogicalPlan {
         return new Project(outFields, outTypes, node);
     }
 
+    /** Split a chain of Filters over a SeqScan of a large HeapFile into copies
+        of the chain over page ranges of the table, run by a {@link Gather}.
+
+        @param plan the plan of one table, with its filters
+        @param workers the largest number of threads to split it over
+        @return the parallel plan, or plan itself if it is not such a chain or
+            the table has too few pages to give each worker MIN_PAGES_PER_WORKER
+    */
+    static DbIterator parallelize(DbIterator plan, int workers) {
+        ArrayList<Predicate> preds = new ArrayList<Predicate>();
+        DbIterator node = plan;
+        while (node instanceof Filter) {
+            preds.add(((Filter) node).getPredicate());
+            node = ((Filter) node).getChildren()[0];
+        }
+        if (!(node instanceof SeqScan))
+            return plan;
+        SeqScan ss = (SeqScan) node;
+        DbFile df = Database.getCatalog().getDbFile(
+                Database.getCatalog().getTableId(ss.getTableName()));
+        if (!(df instanceof HeapFile))
+            return plan;
+        int n = Math.min(workers, ((HeapFile) df).numPages() / MIN_PAGES_PER_WORKER);
+        if (n < 2)
+            return plan;
+        SeqScan[] scans = ss.split(n);
+        DbIterator[] chains = new DbIterator[scans.length];
+        for (int i = 0; i < scans.length; i++) {
+            chains[i] = scans[i];
+            for (int j = preds.size() - 1; j >= 0; j--)
+                chains[i] = new Filter(preds.get(j), chains[i]);
+        }
+        return new Gather(chains);
+    }
+
+    /** Replace every chain of Filters over a SeqScan in a plan with its
+        parallel form, as parallelize does for one chain. The inner child
+        of a nested-loop Join is left serial: it is rewound for every
+        block of the outer child, and each rewind of a Gather would stop
+        and start its threads.
+
+        @param plan the plan
+        @param workers the largest number of threads to split each scan over
+        @return the plan, changed in place, or its parallel form
+    */
+    static DbIterator parallelizeScans(DbIterator plan, int workers) {
+        DbIterator p = parallelize(plan, workers);
+        if (p != plan || !(plan instanceof Operator) || plan instanceof Exchange)
+            return p;
+        DbIterator[] children = ((Operator) plan).getChildren();
+        int n = plan instanceof Join ? 1 : children.length;
+        for (int i = 0; i < n; i++)
+            children[i] = parallelizeScans(children[i], workers);
+        ((Operator) plan).setChildren(children);
+        return plan;
+    }
+
     public static void main(String argv[]) {
         // construct a 3-column table schema
         Type types[] = new Type[]{ Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
@@ -0,0 +1,132 @@
+package simpledb;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum). The victim is the frame
+ * whose K-th most recent access lies furthest in the past. Frames that have
+ * been accessed fewer than K times count as infinitely old and are evicted
+ * first, oldest last access first, so a page touched once by a scan cannot
+ * push out a page that is read over and over.
+ * <p>
+ * Access histories of evicted pages are retained for a bounded number of
+ * pages, so a page that comes back soon after eviction keeps its history.
+ */
+public class LruKPolicy implements EvictionPolicy {
+
+    /** The K used when none is given. */
+    public static final int DEFAULT_K = 2;
+
+    /** Creates LRU-2 instances for the BufferPool. */
+    public static final EvictionPolicy.Factory FACTORY = factory(DEFAULT_K);
+
+    private int k;
+    private long clock = 0;
+    private PageId[] pids;
+    /** history[f][0] is the latest access of frame f, history[f][k-1] the K-th latest. */
+    private long[][] history;
+    private boolean[] resident;
+    /**
+     * Resident frames, ordered by K-th latest access, then by latest access,
+     * so that the victim is the first unpinned frame.
+     */
+    private TreeSet<Integer> order;
+    /** Histories of recently evicted pages, oldest first. */
+    private LinkedHashMap<PageId, long[]> retained;
+    private int maxRetained;
+
+    /**
+     * @param numFrames the number of frames in the buffer pool
+     */
+    public LruKPolicy(int numFrames) {
+        this(numFrames, DEFAULT_K);
+    }
+
+    /**
+     * @param numFrames the number of frames in the buffer pool
+     * @param k how many past accesses to consider for each page
+     */
+    public LruKPolicy(int numFrames, int k) {
+        if(k < 1)
+            throw new IllegalArgumentException("k must be positive");
+        this.k = k;
+        this.pids = new PageId[numFrames];
+        this.history = new long[numFrames][];
+        this.resident = new boolean[numFrames];
+        this.order = new TreeSet<>(new Comparator<Integer>() {
+            public int compare(Integer f1, Integer f2) {
+                long[] h1 = history[f1];
+                long[] h2 = history[f2];
+                // 0 marks a missing access, i.e. an infinite backward K-distance
+                int c = Long.compare(h1[LruKPolicy.this.k - 1], h2[LruKPolicy.this.k - 1]);
+                if(c == 0)
+                    c = Long.compare(h1[0], h2[0]);
+                return c != 0 ? c : Integer.compare(f1, f2);
+            }
+        });
+        this.retained = new LinkedHashMap<>();
+        this.maxRetained = numFrames;
+    }
+
+    public void frameLoaded(int frame, PageId pid) {
+        long[] h = this.retained.remove(pid);
+        if(h == null)
+            h = new long[this.k];
+        this.pids[frame] = pid;
+        this.history[frame] = h;
+        this.resident[frame] = true;
+        record(h);
+        this.order.add(frame);
+    }
+
+    public void frameAccessed(int frame) {
+        // the frame is reordered by its new history
+        this.order.remove(frame);
+        record(this.history[frame]);
+        this.order.add(frame);
+    }
+
+    public void frameRemoved(int frame) {
+        if(!this.resident[frame])
+            return;
+        this.order.remove(frame);
+        this.retained.put(this.pids[frame], this.history[frame]);
+        if(this.retained.size() > this.maxRetained){
+            Iterator<Map.Entry<PageId, long[]>> it = this.retained.entrySet().iterator();
+            it.next();
+            it.remove();
+        }
+        this.resident[frame] = false;
+        this.pids[frame] = null;
+        this.history[frame] = null;
+    }
+
+    public int chooseVictim(int[] pinCounts) {
+        for(int frame : this.order){
+            if(pinCounts[frame] == 0)
+                return frame;
+        }
+        return -1;
+    }
+
+    /**
+     * @param k how many past accesses each created policy considers
+     * @return a factory of LRU-K policies for the BufferPool
+     */
+    public static EvictionPolicy.Factory factory(final int k) {
+        return new EvictionPolicy.Factory() {
+            public EvictionPolicy create(int numFrames) {
+                return new LruKPolicy(numFrames, k);
+            }
+        };
+    }
+
+    private void record(long[] h) {
+        System.arraycopy(h, 0, h, 1, this.k - 1);
+        h[0] = ++this.clock;
+    }
+}
@@ -0,0 +1,47 @@
+package simpledb;
+
+import java.util.LinkedHashSet;
+
+/**
+ * Evicts the least recently used frame. This is the BufferPool default.
+ */
+public class LruPolicy implements EvictionPolicy {
+
+    /** Creates LruPolicy instances for the BufferPool. */
+    public static final EvictionPolicy.Factory FACTORY = new EvictionPolicy.Factory() {
+        public EvictionPolicy create(int numFrames) {
+            return new LruPolicy(numFrames);
+        }
+    };
+
+    /** Resident frames, least recently used first. */
+    private LinkedHashSet<Integer> order;
+
+    /**
+     * @param numFrames the number of frames in the buffer pool
+     */
+    public LruPolicy(int numFrames) {
+        this.order = new LinkedHashSet<>(numFrames * 4 / 3 + 1);
+    }
+
+    public void frameLoaded(int frame, PageId pid) {
+        this.order.add(frame);
+    }
+
+    public void frameAccessed(int frame) {
+        this.order.remove(frame);
+        this.order.add(frame);
+    }
+
+    public void frameRemoved(int frame) {
+        this.order.remove(frame);
+    }
+
+    public int chooseVictim(int[] pinCounts) {
+        for(int frame : this.order){
+            if(pinCounts[frame] == 0)
+                return frame;
+        }
+        return -1;
+    }
+}
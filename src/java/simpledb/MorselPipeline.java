@@ -0,0 +1,487 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MorselPipeline runs a plan on the workers of the {@link MorselScheduler}.
+ * The plan must be a pipeline of Filters, Projects and equality joins over
+ * a SeqScan of a HeapFile. Each worker runs the whole pipeline on the
+ * morsels of the table it takes: it scans the morsel's pages, filters the
+ * batches and probes the hash tables of the joins, which are built once
+ * from the other children of the joins and shared by all workers. A join
+ * is only run this way if the child it builds from has no more tuples than
+ * the join may keep in memory; otherwise the plan is left to the join
+ * operator, which spills.
+ * <p>
+ * With an aggregate, each worker merges its batches into an aggregator of
+ * its own, and the partial aggregates are combined when all morsels are
+ * done. Without one, the batches are returned in the order the workers
+ * finish them.
+ */
+public class MorselPipeline extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of batches per worker that may wait to be read. */
+    private static final int BATCHES_PER_WORKER = 4;
+
+    private DbIterator plan;
+    /** The aggregate field, or -1 if the pipeline is not aggregated. */
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op aop;
+    private final TupleDesc td;
+
+    /** The first step of the pipeline, while open. */
+    private transient Step first;
+    private transient SeqScan scan;
+    private transient MorselScheduler.Job job;
+    private transient BlockingQueue<TupleBatch> queue;
+    private transient ConcurrentHashMap<Thread, IntegerAggregator> partials;
+    private transient DbIterator aggregate;
+    private transient TupleBatch current;
+    private transient int nextRow;
+
+    /**
+     * Creates an operator that returns the tuples of a plan, running it on
+     * the morsel workers.
+     *
+     * @param plan
+     *            a pipeline of Filters, Projects and equality joins over a
+     *            SeqScan of a HeapFile
+     */
+    public MorselPipeline(DbIterator plan) {
+        this(plan, -1, Aggregator.NO_GROUPING, null);
+    }
+
+    /**
+     * Creates an operator that returns the result of the same aggregate as
+     * {@link Aggregate} over a plan, running the plan and the aggregation
+     * on the morsel workers.
+     *
+     * @param plan
+     *            a pipeline of Filters, Projects and equality joins over a
+     *            SeqScan of a HeapFile
+     * @param afield
+     *            the INT field of the plan to aggregate
+     * @param gfield
+     *            the field to group by, or NO_GROUPING
+     * @param aop
+     *            the aggregation operator
+     */
+    public MorselPipeline(DbIterator plan, int afield, int gfield, Aggregator.Op aop) {
+        if (compile(plan, new Step(), new SeqScan[1]) == null)
+            throw new IllegalArgumentException("plan is not a pipeline over a HeapFile");
+        TupleDesc ptd = plan.getTupleDesc();
+        if (afield >= 0 && ptd.getFieldType(afield) != Type.INT_TYPE)
+            throw new IllegalArgumentException("only INT fields are aggregated in parallel");
+        this.plan = plan;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        if (afield < 0)
+            this.td = ptd;
+        else if (gfield == Aggregator.NO_GROUPING)
+            this.td = new TupleDesc(new Type[] { Type.INT_TYPE });
+        else
+            this.td = new TupleDesc(new Type[] { ptd.getFieldType(gfield), Type.INT_TYPE });
+    }
+
+    /**
+     * @return true if plan is a pipeline this operator can run, over a table
+     *         large enough to give more than one worker a morsel
+     */
+    public static boolean canRun(DbIterator plan) {
+        SeqScan[] scan = new SeqScan[1];
+        return compile(plan, new Step(), scan) != null
+                && scan[0].numPages() > MorselScheduler.MORSEL_PAGES;
+    }
+
+    public String getName() {
+        if (afield < 0)
+            return "morsels";
+        return "morsels," + aop + "(" + plan.getTupleDesc().getFieldName(afield) + ")";
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Builds the steps that apply plan to the batches of its scan, followed
+     * by next.
+     *
+     * @param scan
+     *            set to the scan the pipeline reads
+     * @return the first step, or null if plan is not a pipeline over a
+     *         SeqScan of a HeapFile
+     */
+    private static Step compile(DbIterator plan, Step next, SeqScan[] scan) {
+        if (plan instanceof SeqScan) {
+            if (((SeqScan) plan).numPages() < 0)
+                return null;
+            scan[0] = (SeqScan) plan;
+            return next;
+        }
+        if (plan instanceof Filter) {
+            Filter f = (Filter) plan;
+            return compile(f.getChildren()[0], new FilterStep(f.getPredicate(), next), scan);
+        }
+        if (plan instanceof Project) {
+            Project p = (Project) plan;
+            return compile(p.getChildren()[0],
+                    new ProjectStep(p.getTupleDesc(), p.getOutputColumns(), next), scan);
+        }
+        JoinPredicate pred;
+        DbIterator[] children;
+        long budget;
+        if (plan instanceof HashEquiJoin) {
+            pred = ((HashEquiJoin) plan).getJoinPredicate();
+            children = ((HashEquiJoin) plan).getChildren();
+            budget = ((HashEquiJoin) plan).getMaxTuples();
+        } else if (plan instanceof Join
+                && ((Join) plan).getJoinPredicate().getOperator() == Predicate.Op.EQUALS) {
+            pred = ((Join) plan).getJoinPredicate();
+            children = ((Join) plan).getChildren();
+            budget = HashEquiJoin.MAP_SIZE;
+        } else {
+            return null;
+        }
+        // probe with the child that is a pipeline, and with the one over
+        // the larger table if both are, so that the smaller one is built
+        TupleDesc jtd = plan.getTupleDesc();
+        SeqScan[] left = new SeqScan[1];
+        SeqScan[] right = new SeqScan[1];
+        Step probeLeft = null;
+        Step probeRight = null;
+        if (fits(children[1], budget))
+            probeLeft = compile(children[0], new ProbeStep(jtd, children[1],
+                    pred.getField2(), pred.getField1(), true, next), left);
+        if (fits(children[0], budget))
+            probeRight = compile(children[1], new ProbeStep(jtd, children[0],
+                    pred.getField1(), pred.getField2(), false, next), right);
+        if (probeRight != null && (probeLeft == null
+                || right[0].numPages() >= left[0].numPages())) {
+            scan[0] = right[0];
+            return probeRight;
+        }
+        scan[0] = left[0];
+        return probeLeft;
+    }
+
+    /**
+     * @return true if build is known to have at most budget tuples, so
+     *         that a ProbeStep may hold all of them in memory
+     */
+    private static boolean fits(DbIterator build, long budget) {
+        long max = maxTuples(build);
+        return max >= 0 && max <= budget;
+    }
+
+    /**
+     * @return the most tuples plan can return, or -1 if that is not known
+     */
+    private static long maxTuples(DbIterator plan) {
+        if (plan instanceof SeqScan)
+            return ((SeqScan) plan).maxTuples();
+        if (plan instanceof Filter || plan instanceof Project)
+            return maxTuples(((Operator) plan).getChildren()[0]);
+        return -1;
+    }
+
+    private void start() throws DbException, TransactionAbortedException {
+        SeqScan[] s = new SeqScan[1];
+        Step sink;
+        if (afield < 0) {
+            queue = new ArrayBlockingQueue<TupleBatch>(
+                    BATCHES_PER_WORKER * Gather.defaultWorkers());
+            sink = new QueueSink();
+        } else {
+            partials = new ConcurrentHashMap<Thread, IntegerAggregator>();
+            sink = new AggregateSink();
+        }
+        first = compile(plan, sink, s);
+        scan = s[0];
+        for (Step step = first; step != sink; step = step.next)
+            step.open();
+        current = null;
+        job = new MorselScheduler.Job(new MorselScheduler.Work() {
+            public void run(int firstPage, int endPage) throws Exception {
+                runMorsel(firstPage, endPage);
+            }
+        }, 0, scan.numPages());
+        job.start();
+        if (afield >= 0) {
+            job.await();
+            IntegerAggregator agg = newAggregator();
+            for (IntegerAggregator p : partials.values())
+                agg.combine(p);
+            partials = null;
+            aggregate = agg.iterator();
+            aggregate.open();
+        }
+    }
+
+    private IntegerAggregator newAggregator() {
+        Type gtype = gfield == Aggregator.NO_GROUPING ? null
+                : plan.getTupleDesc().getFieldType(gfield);
+        return new IntegerAggregator(gfield, gtype, afield, aop);
+    }
+
+    /**
+     * Runs the pipeline on one morsel, on a worker thread.
+     */
+    private void runMorsel(int firstPage, int endPage) throws Exception {
+        if (firstPage == endPage)
+            return;
+        SeqScan s = scan.subrange(firstPage, endPage);
+        s.open();
+        try {
+            TupleBatch b;
+            while (!job.isStopped() && (b = s.nextBatch()) != null)
+                first.push(b);
+        } finally {
+            s.close();
+        }
+    }
+
+    private void stop() {
+        if (job != null)
+            job.stop();
+        job = null;
+        if (first != null) {
+            for (Step step = first; step != null; step = step.next)
+                step.close();
+        }
+        first = null;
+        queue = null;
+        partials = null;
+        if (aggregate != null)
+            aggregate.close();
+        aggregate = null;
+        current = null;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        start();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        stop();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (aggregate != null) {
+            aggregate.rewind();
+            return;
+        }
+        stop();
+        start();
+    }
+
+    /**
+     * Returns the next batch a worker has finished, waiting for one if
+     * there is none yet.
+     */
+    @Override
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (aggregate != null)
+            return super.nextBatch();
+        while (true) {
+            boolean done = job.isDone();
+            TupleBatch b = queue.poll();
+            if (b != null)
+                return b;
+            if (done) {
+                job.await();
+                return null;
+            }
+            try {
+                b = queue.poll(10, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while waiting for " + getName());
+            }
+            if (b != null)
+                return b;
+        }
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (aggregate != null)
+            return aggregate.hasNext() ? aggregate.next() : null;
+        while (current == null || nextRow == current.size()) {
+            current = nextBatch();
+            nextRow = 0;
+            if (current == null)
+                return null;
+        }
+        return current.getTuple(nextRow++);
+    }
+
+    /**
+     * @return the plan this operator runs
+     */
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.plan };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.plan = children[0];
+    }
+
+    /**
+     * One step of a pipeline. Steps are called by several workers at once,
+     * so they keep no state while a batch is pushed through them.
+     */
+    private static class Step {
+        Step next;
+
+        /** Prepares the step, on the thread that opens the pipeline. */
+        void open() throws DbException, TransactionAbortedException {
+        }
+
+        void close() {
+        }
+
+        /**
+         * Applies the step to a batch and pushes the result to the next
+         * step.
+         */
+        void push(TupleBatch b) throws DbException, TransactionAbortedException,
+                InterruptedException {
+        }
+    }
+
+    private static class FilterStep extends Step {
+        private final Predicate pred;
+
+        FilterStep(Predicate pred, Step next) {
+            this.pred = pred;
+            this.next = next;
+        }
+
+        void push(TupleBatch b) throws DbException, TransactionAbortedException,
+                InterruptedException {
+            pred.filter(b);
+            if (b.size() > 0)
+                next.push(b);
+        }
+    }
+
+    private static class ProjectStep extends Step {
+        private final TupleDesc td;
+        private final int[] cols;
+
+        ProjectStep(TupleDesc td, int[] cols, Step next) {
+            this.td = td;
+            this.cols = cols;
+            this.next = next;
+        }
+
+        void push(TupleBatch b) throws DbException, TransactionAbortedException,
+                InterruptedException {
+            next.push(b.project(td, cols));
+        }
+    }
+
+    /**
+     * Probes a hash table of the other child of a join, which open builds
+     * and all workers share.
+     */
+    private static class ProbeStep extends Step {
+        private final TupleDesc td;
+        private final DbIterator build;
+        private final int buildField;
+        private final int probeField;
+        /** True if the probed batches are the left child of the join. */
+        private final boolean probeLeft;
+        private JoinHashTable table;
+
+        ProbeStep(TupleDesc td, DbIterator build, int buildField, int probeField,
+                boolean probeLeft, Step next) {
+            this.td = td;
+            this.build = build;
+            this.buildField = buildField;
+            this.probeField = probeField;
+            this.probeLeft = probeLeft;
+            this.next = next;
+        }
+
+        void open() throws DbException, TransactionAbortedException {
+            Type keyType = build.getTupleDesc().getFieldType(buildField);
+            table = JoinHashTable.create(keyType, buildField);
+            build.open();
+            try {
+                while (build.hasNext())
+                    table.add(build.next());
+            } finally {
+                build.close();
+            }
+        }
+
+        void close() {
+            table = null;
+        }
+
+        void push(TupleBatch b) throws DbException, TransactionAbortedException,
+                InterruptedException {
+            int nBuild = build.getTupleDesc().numFields();
+            int nProbe = td.numFields() - nBuild;
+            int buildAt = probeLeft ? nProbe : 0;
+            int probeAt = probeLeft ? 0 : nBuild;
+            if (b.getTupleDesc().getFieldType(probeField) != table.keyType())
+                return;
+            TupleBatch out = new TupleBatch(td);
+            for (int k = 0; k < b.size(); k++) {
+                int row = b.row(k);
+                for (int m = table.find(b, probeField, row); m != JoinHashTable.NONE;
+                        m = table.next(m)) {
+                    Tuple t = table.row(m);
+                    if (out.isFull()) {
+                        next.push(out);
+                        out = new TupleBatch(td);
+                    }
+                    int r = out.addRow();
+                    for (int i = 0; i < nBuild; i++)
+                        out.setValue(buildAt + i, r, t, i);
+                    for (int i = 0; i < nProbe; i++)
+                        out.setValue(probeAt + i, r, b, i, row);
+                }
+            }
+            if (out.size() > 0)
+                next.push(out);
+        }
+    }
+
+    /** Queues the batches for the thread reading this operator. */
+    private class QueueSink extends Step {
+        void push(TupleBatch b) throws InterruptedException {
+            while (!job.isStopped()) {
+                if (queue.offer(b, 10, TimeUnit.MILLISECONDS))
+                    return;
+            }
+        }
+    }
+
+    /** Merges the batches into the partial aggregate of the worker. */
+    private class AggregateSink extends Step {
+        void push(TupleBatch b) {
+            IntegerAggregator agg = partials.get(Thread.currentThread());
+            if (agg == null) {
+                agg = newAggregator();
+                partials.put(Thread.currentThread(), agg);
+            }
+            agg.mergeBatch(b);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package simpledb;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * MorselScheduler runs work over the pages of a table on a shared fork-join
+ * pool. The pages are split in halves down to morsels of at most
+ * MORSEL_PAGES pages. A worker runs the first half of a range itself and
+ * leaves the second half for any idle worker to steal, so a worker that is
+ * slowed down by an expensive part of the table does not keep the others
+ * waiting.
+ */
+class MorselScheduler {
+
+    /** Most pages in one morsel. */
+    static final int MORSEL_PAGES = 8;
+
+    private static ForkJoinPool pool;
+
+    /**
+     * The work to run on each morsel. It is run by several workers at once.
+     */
+    interface Work {
+        /**
+         * Runs the work on pages firstPage to endPage (exclusive).
+         */
+        void run(int firstPage, int endPage) throws Exception;
+    }
+
+    /**
+     * @return the pool shared by all jobs, with one worker per processor up
+     *         to Gather.MAX_WORKERS
+     */
+    private static synchronized ForkJoinPool pool() {
+        if (pool == null)
+            pool = new ForkJoinPool(Gather.defaultWorkers());
+        return pool;
+    }
+
+    /**
+     * A run of some work over all the morsels of a range of pages.
+     */
+    static class Job {
+        private final Work work;
+        private final Morsels root;
+        private volatile boolean stopped;
+        /** The first exception thrown by the work, or null. */
+        private volatile Exception failure;
+
+        /**
+         * Creates a job that runs work on pages firstPage to endPage
+         * (exclusive) once it is started.
+         */
+        Job(Work work, int firstPage, int endPage) {
+            this.work = work;
+            this.root = new Morsels(this, firstPage, endPage);
+        }
+
+        /** Submits the job to the pool. */
+        void start() {
+            pool().execute(root);
+        }
+
+        /**
+         * @return true if the job was stopped or failed, so that the work
+         *         should return as soon as possible
+         */
+        boolean isStopped() {
+            return stopped;
+        }
+
+        /** @return true if no morsel of the job is still running */
+        boolean isDone() {
+            return root.isDone();
+        }
+
+        /**
+         * Stops the job, skipping the morsels that have not started, and
+         * waits for the running ones to return.
+         */
+        void stop() {
+            stopped = true;
+            root.quietlyJoin();
+        }
+
+        /**
+         * Waits for the job to finish.
+         *
+         * @throws DbException if the work failed on some morsel
+         * @throws TransactionAbortedException if the work's transaction was
+         *         aborted
+         */
+        void await() throws DbException, TransactionAbortedException {
+            root.quietlyJoin();
+            Exception e = failure;
+            if (e == null && root.isCompletedAbnormally())
+                e = new DbException("morsel failed: " + root.getException());
+            if (e instanceof TransactionAbortedException)
+                throw (TransactionAbortedException) e;
+            if (e instanceof DbException)
+                throw (DbException) e;
+            if (e != null)
+                throw new DbException("morsel failed: " + e);
+        }
+
+        private synchronized void fail(Exception e) {
+            if (failure == null)
+                failure = e;
+            stopped = true;
+        }
+    }
+
+    /**
+     * The task that runs a job on a range of pages, splitting it in two
+     * while it is larger than a morsel.
+     */
+    private static class Morsels extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private final Job job;
+        private final int firstPage;
+        private final int endPage;
+
+        Morsels(Job job, int firstPage, int endPage) {
+            this.job = job;
+            this.firstPage = firstPage;
+            this.endPage = endPage;
+        }
+
+        protected void compute() {
+            if (job.isStopped())
+                return;
+            if (endPage - firstPage <= MORSEL_PAGES) {
+                try {
+                    job.work.run(firstPage, endPage);
+                } catch (Exception e) {
+                    job.fail(e);
+                }
+                return;
+            }
+            int mid = firstPage + (endPage - firstPage) / 2;
+            invokeAll(new Morsels(job, firstPage, mid), new Morsels(job, mid, endPage));
+        }
+    }
+}
@@ -7,7 +7,7 @@ import java.util.NoSuchElementException;
  * <code>next</code> and <code>hasNext</code>. Subclasses only need to implement
  * <code>open</code> and <code>readNext</code>.
  */
-public abstract class Operator implements DbIterator {
+public abstract class Operator implements DbIterator, BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -33,6 +33,22 @@ public abstract class Operator implements DbIterator {
         return result;
     }
 
+    /**
+     * Returns the next batch of tuples. This implementation collects them
+     * one at a time with fetchNext; operators that can produce a batch
+     * directly override it.
+     *
+     * @see BatchIterator
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (!hasNext())
+            return null;
+        TupleBatch b = new TupleBatch(getTupleDesc());
+        while (!b.isFull() && hasNext())
+            b.addRow(next());
+        return b;
+    }
+
     /**
      * Returns the next Tuple in the iterator, or null if the iteration is
      * finished. Operator uses this method to implement both <code>next</code>
@@ -0,0 +1,259 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * PageCleaner is a background writer for the BufferPool. It wakes up
+ * periodically and, once the share of dirty frames exceeds a high
+ * watermark, writes dirty pages back until the share drops below a low
+ * watermark. Foreground getPage calls then usually find a clean victim and
+ * do not stall on a write.
+ * <p>
+ * The cleaner writes exactly the pages that eviction is allowed to write:
+ * BufferPool evicts dirty pages by writing them back, so any dirty page may
+ * be cleaned early. Dirty pages are grouped per table and sorted by page
+ * number; runs of adjacent pages of a HeapFile go out in a single write.
+ * <p>
+ * While a run is written the cleaner holds the latches of the stripes the
+ * pages belong to, but no page locks, so transactions may update the pages
+ * meanwhile. It clears the dirty flag before taking the page image.
+ * HeapPage encodes its image exclusively with recording a changed slot,
+ * and fills or clears a slot's header bit in the same step, so a
+ * concurrent update either makes it into the written image whole, header
+ * and tuple, or stays pending, with the page marked dirty again, for the
+ * next write.
+ *
+ * @see BufferPool#startPageCleaner
+ */
+class PageCleaner implements Runnable {
+
+    /** Most pages written by a single coalesced write. */
+    static final int MAX_RUN = 16;
+
+    private final BufferStripe[] stripes;
+    private final double highWatermark;
+    private final double lowWatermark;
+    private final long intervalMillis;
+    private volatile boolean running = true;
+    private Thread thread;
+    private long pagesWritten = 0;
+    private long writeCalls = 0;
+    private long failures = 0;
+    /** The first failure not yet taken by the BufferPool, or null. */
+    private IOException failure = null;
+
+    private static final Comparator<Page> BY_FILE_POSITION = new Comparator<Page>() {
+        public int compare(Page a, Page b) {
+            int ta = a.getId().getTableId();
+            int tb = b.getId().getTableId();
+            if(ta != tb)
+                return ta < tb ? -1 : 1;
+            return Integer.compare(a.getId().pageNumber(), b.getId().pageNumber());
+        }
+    };
+
+    /**
+     * @param stripes the stripes of the pool to clean
+     * @param highWatermark share of dirty frames, between 0 and 1, above
+     *     which the cleaner starts writing
+     * @param lowWatermark share of dirty frames at which it stops again
+     * @param intervalMillis how long to sleep between two checks
+     */
+    PageCleaner(BufferStripe[] stripes, double highWatermark, double lowWatermark,
+            long intervalMillis) {
+        if(lowWatermark < 0 || lowWatermark > highWatermark || highWatermark > 1)
+            throw new IllegalArgumentException("need 0 <= low <= high <= 1");
+        this.stripes = stripes;
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+        this.intervalMillis = intervalMillis;
+    }
+
+    void start() {
+        this.thread = new Thread(this, "simpledb-page-cleaner");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Stops the cleaner thread and waits for it to finish its current pass.
+     */
+    void shutdown() {
+        this.running = false;
+        if(this.thread == null)
+            return;
+        this.thread.interrupt();
+        try {
+            this.thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void run() {
+        while(this.running){
+            try {
+                cleanOnce();
+            } catch (IOException e) {
+                failed(e);
+            }
+            try {
+                Thread.sleep(this.intervalMillis);
+            } catch (InterruptedException e) {
+                // shutdown() interrupts the sleep; the loop condition decides
+            }
+        }
+    }
+
+    /**
+     * Runs a single cleaning pass on the calling thread.
+     *
+     * @return the number of pages written
+     */
+    synchronized int cleanOnce() throws IOException {
+        int capacity = 0;
+        int dirty = 0;
+        for(BufferStripe stripe : this.stripes){
+            capacity += stripe.capacity();
+            dirty += stripe.countDirty();
+        }
+        if(capacity == 0 || dirty <= this.highWatermark * capacity)
+            return 0;
+        int toClean = dirty - (int) (this.lowWatermark * capacity);
+
+        List<Page> candidates = new ArrayList<>();
+        for(BufferStripe stripe : this.stripes)
+            stripe.collectDirty(candidates);
+        Collections.sort(candidates, BY_FILE_POSITION);
+
+        int written = 0;
+        int start = 0;
+        while(start < candidates.size() && written < toClean){
+            int end = start + 1;
+            while(end < candidates.size() && end - start < MAX_RUN
+                    && adjacent(candidates.get(end - 1), candidates.get(end)))
+                end++;
+            written += writeRun(candidates.subList(start, end));
+            start = end;
+        }
+        return written;
+    }
+
+    /**
+     * Writes a run of adjacent pages while holding the latches of their
+     * stripes. Pages evicted or cleaned since they were collected are
+     * skipped, splitting the run where necessary.
+     */
+    private int writeRun(List<Page> run) throws IOException {
+        TreeSet<Integer> held = new TreeSet<>();
+        for(Page p : run)
+            held.add(stripeIndex(p.getId()));
+        // always latch in ascending stripe order, so that this cannot
+        // deadlock with any other thread that takes several latches
+        for(int i : held)
+            this.stripes[i].latch().lock();
+        try {
+            int written = 0;
+            List<Page> pending = new ArrayList<>();
+            for(Page p : run){
+                BufferStripe stripe = this.stripes[stripeIndex(p.getId())];
+                if(stripe.holds(p) && p.isDirty() != null)
+                    pending.add(p);
+                else {
+                    written += write(pending);
+                    pending.clear();
+                }
+            }
+            written += write(pending);
+            return written;
+        } finally {
+            for(int i : held.descendingSet())
+                this.stripes[i].latch().unlock();
+        }
+    }
+
+    /**
+     * Writes adjacent dirty pages, marking them clean first. If the write
+     * fails, the pages are marked dirty again for their transactions.
+     */
+    private int write(List<Page> pages) throws IOException {
+        if(pages.isEmpty())
+            return 0;
+        TransactionId[] dirtiers = new TransactionId[pages.size()];
+        for(int i = 0; i < pages.size(); i++){
+            dirtiers[i] = pages.get(i).isDirty();
+            pages.get(i).markDirty(false, null);
+        }
+        try {
+            DbFile df = Database.getCatalog().getDbFile(pages.get(0).getId().getTableId());
+            if(df instanceof HeapFile){
+                ((HeapFile) df).writePages(pages);
+                this.writeCalls++;
+            }
+            else {
+                for(Page p : pages){
+                    df.writePage(p);
+                    this.writeCalls++;
+                }
+            }
+        } catch (IOException e) {
+            for(int i = 0; i < pages.size(); i++)
+                pages.get(i).markDirty(true, dirtiers[i]);
+            throw e;
+        }
+        for(Page p : pages)
+            this.stripes[stripeIndex(p.getId())].pageWrittenBack();
+        this.pagesWritten += pages.size();
+        return pages.size();
+    }
+
+    /**
+     * Records a failed pass. The pages of the failed write are dirty again,
+     * so a later pass or eviction retries them.
+     */
+    private synchronized void failed(IOException e) {
+        this.failures++;
+        if(this.failure == null)
+            this.failure = e;
+    }
+
+    /** @return the number of passes that failed with an IOException. */
+    synchronized long getFailures() {
+        return this.failures;
+    }
+
+    /**
+     * Returns the first failure since the last call and forgets it.
+     *
+     * @return the failure, or null if every pass since succeeded
+     */
+    synchronized IOException takeFailure() {
+        IOException e = this.failure;
+        this.failure = null;
+        return e;
+    }
+
+    /** @return the number of pages written since the cleaner was created. */
+    synchronized long getPagesWritten() {
+        return this.pagesWritten;
+    }
+
+    /** @return the number of file writes used to write those pages. */
+    synchronized long getWriteCalls() {
+        return this.writeCalls;
+    }
+
+    private int stripeIndex(PageId pid) {
+        return BufferPool.stripeIndex(pid, this.stripes.length);
+    }
+
+    private static boolean adjacent(Page a, Page b) {
+        return a.getId().getTableId() == b.getId().getTableId()
+                && a.getId().pageNumber() + 1 == b.getId().pageNumber();
+    }
+}
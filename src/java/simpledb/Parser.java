@@ -392,6 +392,7 @@ public class Parser {
         } else {
             ZQuery zq = (ZQuery) s.getQuery();
             LogicalPlan lp = parseQueryLogicalPlan(tId, zq);
+            lp.setWorkers(1);
             newTups = lp.physicalPlan(tId, TableStats.getStatsMap(), explain);
         }
         Query insertQ = new Query(tId);
@@ -423,6 +424,7 @@ public class Parser {
         if (s.getWhere() != null)
             processExpression(tid, (ZExpression) s.getWhere(), lp);
         lp.addProjectField("null.*", null);
+        lp.setWorkers(1);
 
         DbIterator op = new Delete(tid, lp.physicalPlan(tid,
                 TableStats.getStatsMap(), false));
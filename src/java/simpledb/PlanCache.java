@@ -9,6 +9,7 @@ public class PlanCache {
     HashMap<Set<LogicalJoinNode>,Vector<LogicalJoinNode>> bestOrders= new HashMap<Set<LogicalJoinNode>,Vector<LogicalJoinNode>>();
     HashMap<Set<LogicalJoinNode>,Double> bestCosts= new HashMap<Set<LogicalJoinNode>,Double>();
     HashMap<Set<LogicalJoinNode>,Integer> bestCardinalities = new HashMap<Set<LogicalJoinNode>,Integer>();
+    HashMap<Set<LogicalJoinNode>,double[]> bestJoinCosts = new HashMap<Set<LogicalJoinNode>,double[]>();
     
     /** Add a new cost, cardinality and ordering for a particular join set.  Does not verify that the
         new cost is less than any previously added cost -- simply adds or replaces an existing plan for the
@@ -23,6 +24,17 @@ public class PlanCache {
         bestCosts.put(s,cost);
         bestCardinalities.put(s,card);
     }
+
+    /** Add a new cost, cardinality and ordering for a particular join set, with the cost of
+        each join algorithm for the last join of the ordering, which is computed with
+        the algorithm set in its LogicalJoinNode
+        @param joinCosts the cost of each algorithm for the last join, indexed by
+        {@link JoinOptimizer.Algorithm#ordinal}
+    */
+    void addPlan(Set<LogicalJoinNode> s, double cost, int card, Vector<LogicalJoinNode> order, double[] joinCosts) {
+        addPlan(s,cost,card,order);
+        bestJoinCosts.put(s,joinCosts);
+    }
     
     /** Find the best join order in the cache for the specified plan 
         @param s the set of joins to look up the best order for
@@ -47,4 +59,24 @@ public class PlanCache {
     int getCard(Set<LogicalJoinNode> s) {
         return bestCardinalities.get(s);
     }
+
+    /** Find the algorithm of the last join of the best join order in the cache for the specified plan
+        @param s the set of joins to look up the algorithm for
+        @return the algorithm chosen for the last join of the best order for s, or null if none was chosen
+    */
+    JoinOptimizer.Algorithm getAlgorithm(Set<LogicalJoinNode> s) {
+        Vector<LogicalJoinNode> order = bestOrders.get(s);
+        if (order == null || order.isEmpty())
+            return null;
+        return order.lastElement().algorithm;
+    }
+
+    /** Find the cost of each join algorithm for the last join of the best join order in the
+        cache for the specified plan
+        @param s the set of joins to look up the algorithm costs for
+        @return the costs, indexed by {@link JoinOptimizer.Algorithm#ordinal}, or null
+    */
+    double[] getJoinCosts(Set<LogicalJoinNode> s) {
+        return bestJoinCosts.get(s);
+    }
 }
@@ -113,11 +113,41 @@ public class Predicate implements Serializable {
      */
     public boolean filter(Tuple t) {
         // some code goes here
+        if (this.operand instanceof IntField)
+            return IntField.compare(t.getInt(this.field), this.op,
+                    ((IntField) this.operand).getValue());
         Field f = t.getField(this.field);
 
         return f.compare(this.op, this.operand);
     }
 
+    /**
+     * Applies the predicate to every selected row of a batch, narrowing its
+     * selection to the rows for which it is true.
+     *
+     * @see #filter(Tuple)
+     */
+    public void filter(TupleBatch b) {
+        int[] sel = new int[b.size()];
+        int n = 0;
+        int[] col = b.intColumn(this.field);
+        if (col != null && this.operand instanceof IntField) {
+            int v = ((IntField) this.operand).getValue();
+            for (int k = 0; k < b.size(); k++) {
+                int row = b.row(k);
+                if (IntField.compare(col[row], this.op, v))
+                    sel[n++] = row;
+            }
+        } else {
+            for (int k = 0; k < b.size(); k++) {
+                int row = b.row(k);
+                if (b.getField(this.field, row).compare(this.op, this.operand))
+                    sel[n++] = row;
+            }
+        }
+        b.select(sel, n);
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string
@@ -0,0 +1,146 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Producer reads its child on a worker thread and puts the child's tuples,
+ * a batch at a time, on the queue of a {@link Consumer}. When the child is
+ * exhausted it puts itself on the queue to signal that it is done.
+ * <p>
+ * Read as an ordinary operator, a Producer returns its child's tuples.
+ */
+public class Producer extends Exchange implements Runnable {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child;
+    /** The queue the tuples are put on while running, or null. */
+    private transient BlockingQueue<Object> out;
+    /** The exception that stopped the child, or null. */
+    private transient Exception failure;
+    /**
+     * Set when the consumer no longer reads the queue. The thread is not
+     * interrupted instead, since an interrupt during file I/O closes the
+     * file's channel for every thread.
+     */
+    private transient volatile boolean stopped;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            the operator whose tuples are produced
+     */
+    public Producer(DbIterator child) {
+        this.child = child;
+    }
+
+    public String getName() {
+        return "producer";
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    /**
+     * Sets the queue that run puts the child's batches on.
+     */
+    void setOutput(BlockingQueue<Object> out) {
+        this.out = out;
+        this.stopped = false;
+    }
+
+    /**
+     * Asks run to return as soon as possible, without putting anything
+     * more on the queue.
+     */
+    void stop() {
+        this.stopped = true;
+    }
+
+    /**
+     * Puts an item on the queue, waiting while it is full.
+     *
+     * @return false if the producer was stopped first
+     */
+    private boolean put(Object o) throws InterruptedException {
+        while (!this.stopped) {
+            if (out.offer(o, 10, TimeUnit.MILLISECONDS))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the exception that stopped the child before it was
+     *         exhausted, or null if there was none
+     */
+    Exception getFailure() {
+        return this.failure;
+    }
+
+    /**
+     * Opens the child, puts all its batches on the queue and closes it.
+     * Returns early if the producer is stopped.
+     */
+    public void run() {
+        this.failure = null;
+        try {
+            child.open();
+            try {
+                TupleBatch b;
+                while (!this.stopped && (b = TupleBatch.next(child)) != null) {
+                    if (!put(b))
+                        return;
+                }
+            } finally {
+                child.close();
+            }
+        } catch (InterruptedException e) {
+            return;
+        } catch (Exception e) {
+            this.failure = e;
+        } catch (Error e) {
+            this.failure = new DbException("producer failed: " + e);
+        }
+        try {
+            put(this);
+        } catch (InterruptedException e) {
+            // nobody waits for this producer any more
+        }
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (child.hasNext())
+            return child.next();
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+}
@@ -11,6 +11,10 @@ public class Project extends Operator {
     private DbIterator child;
     private TupleDesc td;
     private ArrayList<Integer> outFieldIds;
+    /** outFieldIds as an array, for TupleBatch.project. */
+    private int[] outCols;
+    /** The compiled form of this Project and its subtree, or null. */
+    private transient ScanPipeline pipeline;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -39,25 +43,44 @@ public class Project extends Operator {
             fieldAr[i] = childtd.getFieldName(fieldList.get(i));
         }
         td = new TupleDesc(types, fieldAr);
+        outCols = new int[fieldList.size()];
+        for (int i = 0; i < outCols.length; i++)
+            outCols[i] = fieldList.get(i);
     }
 
     public TupleDesc getTupleDesc() {
         return td;
     }
 
+    /** @return for each output field, the field of the child it comes from. */
+    int[] getOutputColumns() {
+        return outCols.clone();
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
-        child.open();
+        pipeline = ScanPipeline.compile(this);
+        if (pipeline != null)
+            pipeline.open();
+        else
+            child.open();
         super.open();
     }
 
     public void close() {
         super.close();
-        child.close();
+        if (pipeline != null)
+            pipeline.close();
+        else
+            child.close();
+        pipeline = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        child.rewind();
+        if (pipeline != null)
+            pipeline.rewind();
+        else
+            child.rewind();
     }
 
     /**
@@ -68,18 +91,32 @@ public class Project extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
+        if (pipeline != null)
+            return pipeline.next();
         while (child.hasNext()) {
             Tuple t = child.next();
             Tuple newTuple = new Tuple(td);
             newTuple.setRecordId(t.getRecordId());
             for (int i = 0; i < td.numFields(); i++) {
-                newTuple.setField(i, t.getField(outFieldIds.get(i)));
+                newTuple.copyField(i, t, outFieldIds.get(i));
             }
             return newTuple;
         }
         return null;
     }
 
+    /**
+     * Returns the next batch of the child with only the projected columns.
+     * The batch shares its columns with the child's batch.
+     */
+    @Override
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (pipeline != null)
+            return pipeline.nextBatch();
+        TupleBatch b = TupleBatch.next(child);
+        return b == null ? null : b.project(td, outCols);
+    }
+
     @Override
     public DbIterator[] getChildren() {
         return new DbIterator[] { this.child };
@@ -0,0 +1,255 @@
+package simpledb;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+
+/**
+ * ScanPipeline runs a chain of Filters, optionally under a Project, over a
+ * SeqScan as one loop over the scan's batches, instead of passing each
+ * tuple up through every operator.
+ * <p>
+ * The predicates of the chain that compare an int column with an int
+ * constant are compiled into a single MethodHandle, composed from one
+ * comparison per operator with the column and the constant bound into it,
+ * and joined with guardWithTest so that each row stops at the first
+ * condition it fails. The JIT compiles the composed handle like code
+ * written for that chain, with no dispatch on the operator or through
+ * Field.compare per row. The other predicates run through the
+ * interpreter, {@link Predicate#filter(TupleBatch)}, after the compiled
+ * ones. Filter and Project build a pipeline when they are opened and fall
+ * back to the usual operators when their subtree has another shape.
+ * <p>
+ * The operator tree itself is not changed, so plans are explained and
+ * costed as before.
+ */
+class ScanPipeline {
+
+    /** Set to false to run every Filter and Project through the interpreter. */
+    static volatile boolean enabled = true;
+
+    private static final MethodType COMPARISON = MethodType.methodType(boolean.class,
+            int.class, int.class);
+    /** TupleBatch.intColumn, (TupleBatch, int)int[]. */
+    private static final MethodHandle INT_COLUMN;
+    /** A condition that no row passes, (TupleBatch, int)boolean. */
+    private static final MethodHandle NONE;
+    static {
+        try {
+            INT_COLUMN = MethodHandles.lookup().findVirtual(TupleBatch.class, "intColumn",
+                    MethodType.methodType(int[].class, int.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+        NONE = MethodHandles.dropArguments(MethodHandles.constant(boolean.class, false),
+                0, TupleBatch.class, int.class);
+    }
+
+    private final SeqScan scan;
+    /**
+     * The compiled conditions, (TupleBatch, int row)boolean, or null if
+     * there are none.
+     */
+    private final MethodHandle test;
+    /** The predicates run through the interpreter. */
+    private final Predicate[] interpreted;
+    /** Schema of the output, or null if there is no projection. */
+    private final TupleDesc td;
+    /** Columns of the scan to output, or null if there is no projection. */
+    private final int[] cols;
+    private transient TupleBatch current;
+    private transient int nextRow;
+
+    private ScanPipeline(SeqScan scan, MethodHandle test, Predicate[] interpreted,
+            TupleDesc td, int[] cols) {
+        this.scan = scan;
+        this.test = test;
+        this.interpreted = interpreted;
+        this.td = td;
+        this.cols = cols;
+    }
+
+    /**
+     * Compiles the subtree rooted at the given operator.
+     *
+     * @return the pipeline, or null if the subtree is not a chain of
+     *         Filters, under at most one Project, over a SeqScan
+     */
+    static ScanPipeline compile(DbIterator top) {
+        if (!enabled)
+            return null;
+        try {
+            DbIterator node = top;
+            TupleDesc td = null;
+            int[] cols = null;
+            if (node instanceof Project) {
+                td = node.getTupleDesc();
+                cols = ((Project) node).getOutputColumns();
+                node = ((Project) node).getChildren()[0];
+            }
+            ArrayList<MethodHandle> compiled = new ArrayList<MethodHandle>();
+            ArrayList<Predicate> interpreted = new ArrayList<Predicate>();
+            while (node instanceof Filter) {
+                Filter f = (Filter) node;
+                Predicate p = f.getPredicate();
+                if (f.getTupleDesc().getFieldType(p.getField()) == Type.INT_TYPE
+                        && p.getOperand() instanceof IntField)
+                    compiled.add(compile(p));
+                else
+                    interpreted.add(p);
+                node = f.getChildren()[0];
+            }
+            if (!(node instanceof SeqScan) || (cols == null && compiled.isEmpty()
+                    && interpreted.isEmpty()))
+                return null;
+            // the conditions nearest the scan come last in the list and are
+            // tested first, as the filters would apply them
+            MethodHandle test = null;
+            for (MethodHandle c : compiled)
+                test = test == null ? c : MethodHandles.guardWithTest(c, test, NONE);
+            return new ScanPipeline((SeqScan) node, test,
+                    interpreted.toArray(new Predicate[interpreted.size()]), td, cols);
+        } catch (ReflectiveOperationException e) {
+            // the comparison could not be compiled; use the interpreter
+            return null;
+        } catch (RuntimeException e) {
+            // an operator we do not understand; use the interpreter
+            return null;
+        }
+    }
+
+    /**
+     * @return a handle (TupleBatch b, int row)boolean that compares the
+     *         int column of the predicate in the given row of b with its
+     *         constant
+     */
+    private static MethodHandle compile(Predicate p) throws ReflectiveOperationException {
+        MethodHandle cmp = MethodHandles.lookup().findStatic(ScanPipeline.class,
+                comparison(p.getOp()), COMPARISON);
+        cmp = MethodHandles.insertArguments(cmp, 1, ((IntField) p.getOperand()).getValue());
+        MethodHandle element = MethodHandles.filterReturnValue(
+                MethodHandles.arrayElementGetter(int[].class), cmp);
+        MethodHandle column = MethodHandles.insertArguments(INT_COLUMN, 1, p.getField());
+        return MethodHandles.filterArguments(element, 0, column);
+    }
+
+    /**
+     * @return the name of the comparison method for an operator, which
+     *         compares ints as {@link IntField#compare(int, Predicate.Op, int)}
+     */
+    private static String comparison(Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return "eq";
+        case NOT_EQUALS:
+            return "ne";
+        case GREATER_THAN:
+            return "gt";
+        case GREATER_THAN_OR_EQ:
+            return "ge";
+        case LESS_THAN:
+            return "lt";
+        case LESS_THAN_OR_EQ:
+            return "le";
+        default:
+            throw new IllegalStateException("unknown operator " + op);
+        }
+    }
+
+    private static boolean eq(int a, int b) {
+        return a == b;
+    }
+
+    private static boolean ne(int a, int b) {
+        return a != b;
+    }
+
+    private static boolean gt(int a, int b) {
+        return a > b;
+    }
+
+    private static boolean ge(int a, int b) {
+        return a >= b;
+    }
+
+    private static boolean lt(int a, int b) {
+        return a < b;
+    }
+
+    private static boolean le(int a, int b) {
+        return a <= b;
+    }
+
+    void open() throws DbException, TransactionAbortedException {
+        this.scan.open();
+        this.current = null;
+    }
+
+    void rewind() throws DbException, TransactionAbortedException {
+        this.scan.rewind();
+        this.current = null;
+    }
+
+    void close() {
+        this.scan.close();
+        this.current = null;
+    }
+
+    /**
+     * @return the next batch with a row passing every condition, projected
+     *         if there is a projection, or null if there are no more rows
+     */
+    TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch b;
+        while ((b = this.scan.nextBatch()) != null) {
+            if (this.test != null)
+                select(b);
+            for (int i = 0; i < this.interpreted.length && b.size() > 0; i++)
+                this.interpreted[i].filter(b);
+            if (b.size() == 0)
+                continue;
+            return this.cols == null ? b : b.project(this.td, this.cols);
+        }
+        return null;
+    }
+
+    /**
+     * Narrows the selection of a batch to the rows that pass the compiled
+     * conditions.
+     */
+    private void select(TupleBatch b) {
+        int[] sel = new int[b.size()];
+        int n = 0;
+        try {
+            for (int k = 0; k < b.size(); k++) {
+                int row = b.row(k);
+                if ((boolean) this.test.invokeExact(b, row))
+                    sel[n++] = row;
+            }
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            // the composed handles throw no checked exceptions
+            throw new IllegalStateException(e);
+        }
+        b.select(sel, n);
+    }
+
+    /**
+     * @return the next row that passes every condition, or null if there
+     *         are no more rows
+     */
+    Tuple next() throws DbException, TransactionAbortedException {
+        while (this.current == null || this.nextRow == this.current.size()) {
+            this.current = nextBatch();
+            this.nextRow = 0;
+            if (this.current == null)
+                return null;
+        }
+        return this.current.getTuple(this.nextRow++);
+    }
+}
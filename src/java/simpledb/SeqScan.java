@@ -7,7 +7,7 @@ import java.util.*;
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
  */
-public class SeqScan implements DbIterator {
+public class SeqScan implements DbIterator, BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private TransactionId tid;
@@ -15,6 +15,9 @@ public class SeqScan implements DbIterator {
     private String tableAlias;
     private DbFileIterator itr;
     private TupleDesc td;
+    /** First page to scan and the page after the last, or -1 to scan all pages. */
+    private int firstPage = -1;
+    private int endPage = -1;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -73,6 +76,87 @@ public class SeqScan implements DbIterator {
         // some code goes here
         this.tableid = tableid;
         this.tableAlias = tableAlias;
+        this.firstPage = -1;
+        this.endPage = -1;
+    }
+
+    /**
+     * Creates a sequential scan over a range of pages of a table stored in
+     * a HeapFile.
+     *
+     * @param firstPage
+     *            the first page to scan
+     * @param endPage
+     *            the page after the last page to scan
+     * @see HeapFile#iterator(TransactionId, int, int)
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int firstPage, int endPage) {
+        this(tid, tableid, tableAlias);
+        this.firstPage = firstPage;
+        this.endPage = endPage;
+    }
+
+    /**
+     * Splits this scan into scans over consecutive page ranges of about the
+     * same size, which together read the same tuples as this scan.
+     *
+     * @param n
+     *            the largest number of scans to return
+     * @return the scans, or just this scan if its table is not a HeapFile
+     *         or has fewer than two pages to split
+     */
+    public SeqScan[] split(int n) {
+        DbFile df = Database.getCatalog().getDbFile(tableid);
+        if (!(df instanceof HeapFile))
+            return new SeqScan[] { this };
+        int first = this.firstPage < 0 ? 0 : this.firstPage;
+        int end = this.firstPage < 0 ? ((HeapFile) df).numPages() : this.endPage;
+        n = Math.min(n, end - first);
+        if (n < 2)
+            return new SeqScan[] { this };
+        SeqScan[] scans = new SeqScan[n];
+        for (int i = 0; i < n; i++) {
+            scans[i] = new SeqScan(tid, tableid, tableAlias,
+                    first + (int) ((long) (end - first) * i / n),
+                    first + (int) ((long) (end - first) * (i + 1) / n));
+        }
+        return scans;
+    }
+
+    /**
+     * @return the number of pages this scan reads, or -1 if its table is
+     *         not a HeapFile
+     */
+    int numPages() {
+        DbFile df = Database.getCatalog().getDbFile(tableid);
+        if (!(df instanceof HeapFile))
+            return -1;
+        if (this.firstPage >= 0)
+            return this.endPage - this.firstPage;
+        return ((HeapFile) df).numPages();
+    }
+
+    /**
+     * @return the most tuples the pages this scan reads can hold, or -1 if
+     *         its table is not a HeapFile
+     */
+    long maxTuples() {
+        int pages = numPages();
+        if (pages < 0)
+            return -1;
+        HeapFile hf = (HeapFile) Database.getCatalog().getDbFile(tableid);
+        int perPage = (hf.getPageSize() * 8) / (hf.getTupleDesc().getSize() * 8 + 1);
+        return (long) pages * perPage;
+    }
+
+    /**
+     * @return a scan of pages from to to (exclusive) of the pages this scan
+     *         reads, counted from its first page
+     * @see #numPages()
+     */
+    SeqScan subrange(int from, int to) {
+        int first = this.firstPage < 0 ? 0 : this.firstPage;
+        return new SeqScan(tid, tableid, tableAlias, first + from, first + to);
     }
 
     public SeqScan(TransactionId tid, int tableid) {
@@ -82,7 +166,10 @@ public class SeqScan implements DbIterator {
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
         DbFile df = Database.getCatalog().getDbFile(tableid);
-        this.itr = df.iterator(tid);
+        if (this.firstPage >= 0)
+            this.itr = ((HeapFile) df).iterator(tid, this.firstPage, this.endPage);
+        else
+            this.itr = df.iterator(tid);
         this.itr.open();
     }
 
@@ -134,6 +221,21 @@ public class SeqScan implements DbIterator {
         return this.itr.next();
     }
 
+    /**
+     * Returns the next batch of tuples, read straight from the pages when
+     * the file's iterator supports it.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (this.itr instanceof BatchIterator)
+            return ((BatchIterator) this.itr).nextBatch();
+        if (!this.itr.hasNext())
+            return null;
+        TupleBatch b = new TupleBatch(Database.getCatalog().getTupleDesc(tableid));
+        while (!b.isFull() && this.itr.hasNext())
+            b.addRow(this.itr.next());
+        return b;
+    }
+
     public void close() {
         // some code goes here
         this.itr.close();
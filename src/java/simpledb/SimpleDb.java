@@ -5,10 +5,11 @@ import java.io.*;
 public class SimpleDb {
     public static void main (String args[])
             throws DbException, TransactionAbortedException, IOException {
-        // convert a file
+        // convert a file:
+        //   convert file.txt columns [types [separator [pagesize|slotted]]]
         if(args[0].equals("convert")) {
         try {
-            if (args.length<3 || args.length>5){
+            if (args.length<3 || args.length>6){
                 System.err.println("Unexpected number of arguments to convert ");
                 return;
             }
@@ -17,6 +18,8 @@ public class SimpleDb {
             int numOfAttributes=Integer.parseInt(args[2]);
             Type[] ts = new Type[numOfAttributes];
             char fieldSeparator=',';
+            int pageSize=BufferPool.PAGE_SIZE;
+            boolean slotted=false;
 
             if (args.length == 3) 
                 for (int i=0;i<numOfAttributes;i++)
@@ -40,12 +43,23 @@ public class SimpleDb {
                                 return;
                             }
                 }
-                if (args.length==5)
+                if (args.length>=5)
                     fieldSeparator=args[4].charAt(0);
+                if (args.length==6 && args[5].toLowerCase().equals("slotted"))
+                    slotted=true;
+                else if (args.length==6)
+                    pageSize=Integer.parseInt(args[5]);
+            }
+            if (pageSize <= 0) {
+                System.err.println("Invalid page size " + pageSize);
+                return;
             }
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
-                        BufferPool.PAGE_SIZE,numOfAttributes,ts,fieldSeparator);
+            if (slotted)
+                SlottedFileEncoder.convert(sourceTxtFile,targetDatFile,ts,fieldSeparator);
+            else
+                HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
+                        pageSize,numOfAttributes,ts,fieldSeparator);
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
@@ -0,0 +1,249 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * SlottedFile is a DbFile of SlottedPages. It stores the same tuples as a
+ * HeapFile, but strings take only the space of their characters, so tables
+ * with short string columns fit many more rows on a page.
+ * <p>
+ * A {@link FreeSpaceMap} records the pages that may have room for another
+ * record. New tuples go on the first such page they fit on, and a page is
+ * added when they fit on none. A page that a tuple did not fit on leaves
+ * the map until a delete frees space on it; deleted records are reclaimed
+ * by compacting the page. The map is kept in memory only, and is rebuilt
+ * from the file when it is first needed.
+ *
+ * @see simpledb.SlottedPage
+ */
+public class SlottedFile implements DbFile, Closeable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final File f;
+    private final TupleDesc td;
+    private volatile int numPages;
+    /** Held while a tuple is added, so that only one insert appends a page. */
+    private final Object[] appendLock = new Object[0];
+    /** Channel used for all reads and writes, opened on first use. */
+    private transient FileChannel channel;
+    /** The pages that may have room for a record, or null until first used. */
+    private transient FreeSpaceMap freeSpace;
+
+    /**
+     * Constructs a slotted file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file.
+     * @param td the schema of the tuples in the file
+     */
+    public SlottedFile(File f, TupleDesc td) {
+        this.f = f;
+        this.td = td;
+        this.numPages = (int) (f.length() / BufferPool.PAGE_SIZE);
+    }
+
+    /** @return the File backing this SlottedFile on disk. */
+    public File getFile() {
+        return this.f;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this SlottedFile, the hash of the
+     * absolute file name of the underlying file.
+     */
+    public int getId() {
+        return this.f.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    /** @return the number of pages in this SlottedFile. */
+    public int numPages() {
+        return this.numPages;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (pid.getTableId() != getId() || pid.pageNumber() < 0)
+            throw new IllegalArgumentException("page " + pid + " is not in " + this.f);
+        try {
+            byte[] data = new byte[BufferPool.PAGE_SIZE];
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            FileChannel fc = channel();
+            long pos = (long) BufferPool.PAGE_SIZE * pid.pageNumber();
+            while (buf.hasRemaining() && fc.read(buf, pos + buf.position()) >= 0)
+                ;
+            if (buf.position() == 0)
+                data = SlottedPage.createEmptyPageData();
+            return new SlottedPage((HeapPageId) pid, data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("page " + pid + " could not be read", e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(page.getPageData());
+        FileChannel fc = channel();
+        long pos = (long) BufferPool.PAGE_SIZE * page.getId().pageNumber();
+        while (buf.hasRemaining())
+            fc.write(buf, pos + buf.position());
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!t.getTupleDesc().equals(this.td))
+            throw new DbException("Wrong TupleDesc!");
+        if (SlottedPage.recordSize(t) + SlottedPage.HEADER_SIZE + SlottedPage.SLOT_SIZE
+                > BufferPool.PAGE_SIZE)
+            throw new DbException("tuple is too large for a page");
+        ArrayList<Page> res = new ArrayList<Page>();
+        BufferPool bp = Database.getBufferPool();
+        synchronized (this.appendLock) {
+            FreeSpaceMap fsm = freeSpace();
+            for (int i = fsm.nextFree(0); i >= 0 && i < this.numPages; i = fsm.nextFree(i + 1)) {
+                HeapPageId pid = new HeapPageId(getId(), i);
+                SlottedPage sp = (SlottedPage) bp.pinPage(tid, pid, Permissions.READ_WRITE);
+                try {
+                    if (sp.fits(t)) {
+                        sp.insertTuple(t);
+                        sp.markDirty(true, tid);
+                        res.add(sp);
+                        return res;
+                    }
+                    fsm.setFree(i, false);
+                } finally {
+                    bp.unpinPage(pid);
+                }
+            }
+            SlottedPage sp = new SlottedPage(new HeapPageId(getId(), this.numPages),
+                    SlottedPage.createEmptyPageData());
+            sp.insertTuple(t);
+            writePage(sp);
+            fsm.setFree(this.numPages, true);
+            this.numPages++;
+            res.add(sp);
+        }
+        return res;
+    }
+
+    // see DbFile.java for javadocs
+    public Page deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException, IOException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId())
+            throw new DbException("tuple is not in this file");
+        BufferPool bp = Database.getBufferPool();
+        PageId pid = rid.getPageId();
+        SlottedPage sp = (SlottedPage) bp.pinPage(tid, pid, Permissions.READ_WRITE);
+        try {
+            sp.deleteTuple(t);
+            sp.markDirty(true, tid);
+        } finally {
+            bp.unpinPage(pid);
+        }
+        freeSpace().setFree(pid.pageNumber(), true);
+        return sp;
+    }
+
+    /**
+     * Returns the free space map of this file, building it the first time
+     * by reading every page from disk, bypassing the BufferPool so that no
+     * page locks are taken. A page is in the map if a record with empty
+     * strings still fits on it.
+     */
+    private synchronized FreeSpaceMap freeSpace() throws IOException {
+        if (this.freeSpace == null) {
+            FreeSpaceMap fsm = new FreeSpaceMap();
+            int min = SlottedPage.minRecordSize(this.td) + SlottedPage.SLOT_SIZE;
+            for (int i = 0; i < this.numPages; i++) {
+                SlottedPage sp = (SlottedPage) readPage(new HeapPageId(getId(), i));
+                if (sp.getFreeSpace() >= min)
+                    fsm.setFree(i, true);
+            }
+            this.freeSpace = fsm;
+        }
+        return this.freeSpace;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(final TransactionId tid) {
+        return new DbFileIterator() {
+            private int pgNo = -1;
+            private Iterator<Tuple> it;
+
+            public void open() throws DbException, TransactionAbortedException {
+                this.pgNo = -1;
+                this.it = Collections.<Tuple>emptyList().iterator();
+            }
+
+            public boolean hasNext() throws DbException, TransactionAbortedException {
+                if (this.it == null)
+                    return false;
+                while (!this.it.hasNext()) {
+                    if (this.pgNo + 1 >= numPages)
+                        return false;
+                    this.pgNo++;
+                    HeapPageId pid = new HeapPageId(getId(), this.pgNo);
+                    try {
+                        SlottedPage sp = (SlottedPage) Database.getBufferPool()
+                                .getPage(tid, pid, Permissions.READ_ONLY);
+                        // copy the page's tuples, since it may change once
+                        // it is no longer the current page
+                        List<Tuple> tuples = new ArrayList<Tuple>();
+                        for (Iterator<Tuple> i = sp.iterator(); i.hasNext();)
+                            tuples.add(i.next());
+                        this.it = tuples.iterator();
+                    } catch (IOException e) {
+                        throw new DbException("could not read page " + pid);
+                    }
+                }
+                return true;
+            }
+
+            public Tuple next() throws DbException, TransactionAbortedException {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return this.it.next();
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                open();
+            }
+
+            public void close() {
+                this.it = null;
+            }
+        };
+    }
+
+    private synchronized FileChannel channel() throws IOException {
+        if (this.channel == null || !this.channel.isOpen()) {
+            RandomAccessFile raf;
+            try {
+                raf = new RandomAccessFile(this.f, "rw");
+            } catch (FileNotFoundException e) {
+                raf = new RandomAccessFile(this.f, "r");
+            }
+            this.channel = raf.getChannel();
+        }
+        return this.channel;
+    }
+
+    /**
+     * Closes the channel of this file. The file is reopened if it is used
+     * again. Called by {@link Catalog#clear}.
+     */
+    public synchronized void close() throws IOException {
+        if (this.channel != null) {
+            this.channel.close();
+            this.channel = null;
+        }
+    }
+}
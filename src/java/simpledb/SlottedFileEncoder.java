@@ -0,0 +1,94 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.regex.Pattern;
+
+/**
+ * SlottedFileEncoder reads a text file of delimited values and writes it as
+ * the pages of a {@link SlottedFile}, as {@link HeapFileEncoder} does for a
+ * HeapFile.
+ */
+public class SlottedFileEncoder {
+
+    /**
+     * Converts the specified input text file into the pages of a
+     * SlottedFile. Each line of the input is one tuple whose fields are
+     * separated by fieldSeparator. The input is read as UTF-8, and strings
+     * longer than Type.STRING_LEN characters are cut. Lines that do not
+     * have a valid value for every field are reported and skipped.
+     *
+     * @see SlottedPage
+     * @param inFile The input file to read data from
+     * @param outFile The output file to write data to
+     * @param typeAr the type of each field of the tuples
+     * @param fieldSeparator the character between two fields of a line
+     * @throws IOException if the input/output file can't be opened, or a
+     *   line is too long for a page
+     */
+    public static void convert(File inFile, File outFile, Type[] typeAr,
+            char fieldSeparator) throws IOException {
+        TupleDesc td = new TupleDesc(typeAr);
+        String separator = Pattern.quote(String.valueOf(fieldSeparator));
+        BufferedReader br = new BufferedReader(new InputStreamReader(
+                new FileInputStream(inFile), Charset.forName("UTF-8")));
+        FileOutputStream os = new FileOutputStream(outFile);
+        try {
+            int npages = 0;
+            SlottedPage page = newPage(td, npages);
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.trim().isEmpty())
+                    continue;
+                Tuple t = parse(line, separator, td);
+                if (t == null) {
+                    System.out.println("BAD LINE : " + line);
+                    continue;
+                }
+                if (!page.fits(t)) {
+                    if (page.isEmpty())
+                        throw new IOException("line is too long for a page: " + line);
+                    os.write(page.getPageData());
+                    page = newPage(td, ++npages);
+                }
+                page.insertTuple(t);
+            }
+            // an empty file still gets one empty page, as with HeapFileEncoder
+            if (!page.isEmpty() || npages == 0)
+                os.write(page.getPageData());
+        } catch (DbException e) {
+            throw new IOException(e);
+        } finally {
+            br.close();
+            os.close();
+        }
+    }
+
+    private static SlottedPage newPage(TupleDesc td, int pgNo) throws IOException {
+        return new SlottedPage(new HeapPageId(0, pgNo), SlottedPage.createEmptyPageData(), td);
+    }
+
+    /**
+     * @return the tuple of a line, or null if it does not have a valid
+     *   value for every field
+     */
+    private static Tuple parse(String line, String separator, TupleDesc td) {
+        String[] values = line.split(separator, -1);
+        if (values.length != td.numFields())
+            return null;
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < values.length; i++) {
+            String s = values[i].trim();
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                try {
+                    t.setField(i, new IntField(Integer.parseInt(s)));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            } else {
+                t.setField(i, new StringField(s, Type.STRING_LEN));
+            }
+        }
+        return t;
+    }
+}
@@ -0,0 +1,395 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * SlottedPage stores the tuples of a SlottedFile as variable-length
+ * records, so that a string takes only as many bytes as it encodes to
+ * instead of the Type.STRING_LEN bytes it takes on a HeapPage.
+ * <p>
+ * The page starts with a header of two shorts, the number of slots and the
+ * offset where the records begin, followed by a slot directory with one
+ * entry of two shorts, the offset and length of the record, per slot. A
+ * slot with offset 0 is empty. Records are packed from the end of the page
+ * towards the directory. Within a record, an int takes 4 bytes and a string
+ * takes a 2 byte length followed by its UTF-8 bytes.
+ * <p>
+ * The bytes of the page are kept up to date as tuples are inserted and
+ * deleted, so getPageData only copies them.
+ *
+ * @see SlottedFile
+ */
+public class SlottedPage implements Page {
+
+    /** Size of the page header: the slot count and the start of the records. */
+    static final int HEADER_SIZE = 4;
+    /** Size of one slot directory entry: a record offset and length. */
+    static final int SLOT_SIZE = 4;
+    /** The encoding of strings within records. */
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private final HeapPageId pid;
+    private final TupleDesc td;
+    /** The current bytes of the page. */
+    private final byte[] image;
+    private final ByteBuffer buf;
+    /** Tuples decoded from image, by slot, created when first asked for. */
+    private final ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    /** The before-image, or null if the page has not changed since it was set. */
+    private byte[] oldData;
+    private TransactionId tid;
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk.
+     *
+     * @throws IOException if the bytes are not a valid page
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    /**
+     * Create a SlottedPage of tuples with the given schema, for pages of a
+     * table that is not in the catalog.
+     *
+     * @throws IOException if the bytes are not a valid page
+     */
+    SlottedPage(HeapPageId id, byte[] data, TupleDesc td) throws IOException {
+        this.pid = id;
+        this.td = td;
+        if (data.length != BufferPool.PAGE_SIZE)
+            throw new IOException("a page needs " + BufferPool.PAGE_SIZE + " bytes");
+        this.image = data.clone();
+        this.buf = ByteBuffer.wrap(this.image);
+        int n = getNumSlots();
+        int end = recordStart();
+        if (n < 0 || end > BufferPool.PAGE_SIZE || HEADER_SIZE + n * SLOT_SIZE > end)
+            throw new IOException("corrupt slotted page " + id);
+        for (int i = 0; i < n; i++)
+            this.tuples.add(null);
+    }
+
+    /**
+     * @return the bytes of a SlottedPage with no slots.
+     */
+    public static byte[] createEmptyPageData() {
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        ByteBuffer.wrap(data).putShort(2, (short) BufferPool.PAGE_SIZE);
+        return data;
+    }
+
+    public HeapPageId getId() {
+        return this.pid;
+    }
+
+    /** @return the number of entries in the slot directory, used or not. */
+    public int getNumSlots() {
+        return this.buf.getShort(0);
+    }
+
+    /** @return the offset where the packed records begin. */
+    private int recordStart() {
+        int start = this.buf.getShort(2) & 0xffff;
+        return start == 0 ? BufferPool.PAGE_SIZE : start;
+    }
+
+    private int recordOffset(int slot) {
+        return this.buf.getShort(HEADER_SIZE + slot * SLOT_SIZE) & 0xffff;
+    }
+
+    private int recordLength(int slot) {
+        return this.buf.getShort(HEADER_SIZE + slot * SLOT_SIZE + 2) & 0xffff;
+    }
+
+    private void setSlot(int slot, int offset, int length) {
+        this.buf.putShort(HEADER_SIZE + slot * SLOT_SIZE, (short) offset);
+        this.buf.putShort(HEADER_SIZE + slot * SLOT_SIZE + 2, (short) length);
+    }
+
+    /** @return true if the given slot holds a tuple. */
+    public boolean isSlotUsed(int slot) {
+        return slot >= 0 && slot < getNumSlots() && recordOffset(slot) != 0;
+    }
+
+    /** @return the number of tuples on this page. */
+    public int getNumTuples() {
+        int count = 0;
+        for (int i = 0; i < getNumSlots(); i++)
+            if (isSlotUsed(i))
+                count++;
+        return count;
+    }
+
+    /** @return true if no slot of this page holds a tuple. */
+    public boolean isEmpty() {
+        return getNumTuples() == 0;
+    }
+
+    /**
+     * @return the number of bytes free for records and directory entries,
+     *     counting the space of deleted records.
+     */
+    public int getFreeSpace() {
+        int used = HEADER_SIZE + getNumSlots() * SLOT_SIZE;
+        for (int i = 0; i < getNumSlots(); i++)
+            used += recordLength(i);
+        return BufferPool.PAGE_SIZE - used;
+    }
+
+    /**
+     * @return the number of bytes the given tuple takes as a record.
+     */
+    public static int recordSize(Tuple t) {
+        return recordSize(t.getTupleDesc(), encodeStrings(t));
+    }
+
+    /**
+     * @return the encoded bytes of every string field of the given tuple,
+     *     and null for its other fields
+     */
+    private static byte[][] encodeStrings(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        byte[][] strings = new byte[td.numFields()][];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE)
+                strings[i] = ((StringField) t.getField(i)).getValue().getBytes(CHARSET);
+        }
+        return strings;
+    }
+
+    private static int recordSize(TupleDesc td, byte[][] strings) {
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE)
+                size += 2 + strings[i].length;
+            else
+                size += td.getFieldType(i).getLen();
+        }
+        return size;
+    }
+
+    /**
+     * @return the fewest bytes a record of the given schema takes, with
+     *     every string empty
+     */
+    static int minRecordSize(TupleDesc td) {
+        byte[][] strings = new byte[td.numFields()][];
+        Arrays.fill(strings, new byte[0]);
+        return recordSize(td, strings);
+    }
+
+    /**
+     * @return true if the given tuple fits on this page, after compacting
+     *     it if need be.
+     */
+    public boolean fits(Tuple t) {
+        return fits(recordSize(t));
+    }
+
+    private boolean fits(int size) {
+        int needed = size;
+        if (findEmptySlot() < 0)
+            needed += SLOT_SIZE;
+        return needed <= getFreeSpace();
+    }
+
+    private int findEmptySlot() {
+        for (int i = 0; i < getNumSlots(); i++)
+            if (!isSlotUsed(i))
+                return i;
+        return -1;
+    }
+
+    /**
+     * Adds the specified tuple to the page; the tuple is updated to reflect
+     * that it is now stored on this page. The page stores a copy of the
+     * tuple's fields.
+     *
+     * @throws DbException if the tuple does not fit on the page or its
+     *     TupleDesc does not match
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(this.td))
+            throw new DbException("Wrong TupleDesc!");
+        byte[][] strings = encodeStrings(t);
+        int size = recordSize(this.td, strings);
+        if (!fits(size))
+            throw new DbException("This page is full");
+        beforeChange();
+        int slot = findEmptySlot();
+        int dirEnd = HEADER_SIZE + getNumSlots() * SLOT_SIZE + (slot < 0 ? SLOT_SIZE : 0);
+        if (recordStart() - size < dirEnd)
+            compact();
+        if (slot < 0) {
+            slot = getNumSlots();
+            this.buf.putShort(0, (short) (slot + 1));
+            this.tuples.add(null);
+        }
+        int offset = recordStart() - size;
+        encode(t, strings, offset);
+        setSlot(slot, offset, size);
+        this.buf.putShort(2, (short) offset);
+        t.setRecordId(new RecordId(this.pid, slot));
+        this.tuples.set(slot, null);
+    }
+
+    /**
+     * Delete the specified tuple from the page. Its record space is reused
+     * when the page is next compacted.
+     *
+     * @throws DbException if this tuple is not on this page, or its slot is
+     *     already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !this.pid.equals(rid.getPageId()) || !isSlotUsed(rid.tupleno()))
+            throw new DbException("This tuple is not on this page");
+        beforeChange();
+        int slot = rid.tupleno();
+        int offset = recordOffset(slot);
+        if (offset == recordStart())
+            this.buf.putShort(2, (short) (offset + recordLength(slot)));
+        setSlot(slot, 0, 0);
+        this.tuples.set(slot, null);
+    }
+
+    /**
+     * Packs the records against the end of the page, so that the space of
+     * deleted records becomes one free block. Slot numbers do not change.
+     */
+    private void compact() {
+        Integer[] slots = new Integer[getNumSlots()];
+        for (int i = 0; i < slots.length; i++)
+            slots[i] = i;
+        // move records in order of decreasing offset so none is overwritten
+        Arrays.sort(slots, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return recordOffset(b) - recordOffset(a);
+            }
+        });
+        int end = BufferPool.PAGE_SIZE;
+        for (int slot : slots) {
+            if (!isSlotUsed(slot))
+                continue;
+            int length = recordLength(slot);
+            end -= length;
+            System.arraycopy(this.image, recordOffset(slot), this.image, end, length);
+            setSlot(slot, end, length);
+        }
+        this.buf.putShort(2, (short) end);
+    }
+
+    private void encode(Tuple t, byte[][] strings, int offset) {
+        ByteBuffer out = this.buf.duplicate();
+        out.position(offset);
+        for (int i = 0; i < this.td.numFields(); i++) {
+            if (this.td.getFieldType(i) == Type.STRING_TYPE) {
+                out.putShort((short) strings[i].length);
+                out.put(strings[i]);
+            } else {
+                out.putInt(((IntField) t.getField(i)).getValue());
+            }
+        }
+    }
+
+    private Tuple decode(int slot) {
+        ByteBuffer in = this.buf.duplicate();
+        in.position(recordOffset(slot));
+        Tuple t = new Tuple(this.td);
+        for (int i = 0; i < this.td.numFields(); i++) {
+            if (this.td.getFieldType(i) == Type.STRING_TYPE) {
+                byte[] bytes = new byte[in.getShort() & 0xffff];
+                in.get(bytes);
+                t.setField(i, new StringField(new String(bytes, CHARSET), Type.STRING_LEN));
+            } else {
+                t.setField(i, new IntField(in.getInt()));
+            }
+        }
+        t.setRecordId(new RecordId(this.pid, slot));
+        return t;
+    }
+
+    /**
+     * Returns the tuple in the given slot.
+     *
+     * @throws NoSuchElementException if the slot is empty
+     */
+    public Tuple getTuple(int slot) throws NoSuchElementException {
+        if (!isSlotUsed(slot))
+            throw new NoSuchElementException("slot " + slot + " is empty");
+        Tuple t = this.tuples.get(slot);
+        if (t == null) {
+            t = decode(slot);
+            this.tuples.set(slot, t);
+        }
+        return t;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     *     this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int next = advance(0);
+
+            private int advance(int from) {
+                while (from < getNumSlots() && !isSlotUsed(from))
+                    from++;
+                return from;
+            }
+
+            public boolean hasNext() {
+                return this.next < getNumSlots();
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = getTuple(this.next);
+                this.next = advance(this.next + 1);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /** Saves the before-image the first time the page changes. */
+    private void beforeChange() {
+        if (this.oldData == null)
+            this.oldData = this.image.clone();
+    }
+
+    public byte[] getPageData() {
+        return this.image.clone();
+    }
+
+    public SlottedPage getBeforeImage() {
+        try {
+            return new SlottedPage(this.pid, this.oldData == null ? this.image : this.oldData);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        this.oldData = null;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.tid = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return this.tid;
+    }
+}
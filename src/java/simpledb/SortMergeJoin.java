@@ -0,0 +1,237 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two children by sorting both on their join fields and
+ * merging them. It handles the predicates =, &lt;, &lt;=, &gt; and &gt;=:
+ * for every tuple of child1 the matching tuples of child2 are a range of
+ * the sorted child2, whose bounds only move forward as child1 is merged.
+ * <p>
+ * A child that is already ordered on its join field, such as an
+ * {@link OrderBy} or another SortMergeJoin on the same field, is not sorted
+ * again. The tuples are returned ordered on the join field of child1.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private JoinPredicate pred;
+    private DbIterator child1, child2;
+    private TupleDesc comboTD;
+    /** True if both join fields are INTs, which are compared unboxed. */
+    private boolean ints;
+
+    /** The tuples of each child, sorted ascending on the join field. */
+    transient private ArrayList<Tuple> left = null;
+    transient private ArrayList<Tuple> right = null;
+    /** The tuple of left being joined. */
+    transient private int l = -1;
+    /**
+     * For left tuple l, the first tuple of right whose key is &gt;= l's key
+     * and the first whose key is &gt; l's key.
+     */
+    transient private int lo = 0;
+    transient private int hi = 0;
+    /** The next and end tuples of right to join with tuple l. */
+    transient private int r = 0;
+    transient private int end = 0;
+
+    /**
+     * Constructor. Accepts to children to join and the predicate to join them
+     * on
+     *
+     * @param p
+     *            The predicate to use to join the children, which may not be
+     *            NOT_EQUALS or LIKE
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        if (!canJoin(p.getOperator()))
+            throw new IllegalArgumentException("a sort-merge join cannot join on "
+                    + p.getOperator());
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        ints = child1.getTupleDesc().getFieldType(p.getField1()) == Type.INT_TYPE
+                && child2.getTupleDesc().getFieldType(p.getField2()) == Type.INT_TYPE;
+    }
+
+    /**
+     * @return true if a sort-merge join can join on the operator
+     */
+    public static boolean canJoin(Predicate.Op op) {
+        return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    /**
+     * @return 1 if it is ordered ascending on field, -1 if descending, or 0
+     *         if the order of its tuples on field is not known
+     */
+    static int orderOn(DbIterator it, int field) {
+        if (it instanceof OrderBy && ((OrderBy) it).getOrderByField() == field)
+            return ((OrderBy) it).isASC() ? 1 : -1;
+        if (it instanceof SortMergeJoin
+                && ((SortMergeJoin) it).getJoinPredicate().getField1() == field)
+            return 1;
+        return 0;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    /**
+     * Reads all tuples of a child, sorting them on field unless the child
+     * is already ordered on it.
+     */
+    private static ArrayList<Tuple> load(DbIterator child, int field)
+            throws DbException, TransactionAbortedException {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        while (child.hasNext())
+            tuples.add(child.next());
+        int order = orderOn(child, field);
+        if (order < 0)
+            Collections.reverse(tuples);
+        else if (order == 0)
+            Collections.sort(tuples, new TupleComparator(field, true));
+        return tuples;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        left = load(child1, pred.getField1());
+        right = load(child2, pred.getField2());
+        rewindMerge();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child2.close();
+        child1.close();
+        left = null;
+        right = null;
+    }
+
+    /**
+     * Rewinds the join. The sorted children are kept, so they are not read
+     * again.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        rewindMerge();
+    }
+
+    private void rewindMerge() {
+        l = -1;
+        lo = 0;
+        hi = 0;
+        r = 0;
+        end = 0;
+    }
+
+    /**
+     * @return a negative number, zero or a positive number if the join key
+     *         of a is less than, equal to or greater than that of b
+     */
+    private int compareKeys(Tuple a, Tuple b) {
+        if (ints)
+            return Integer.compare(a.getInt(pred.getField1()), b.getInt(pred.getField2()));
+        Field f1 = a.getField(pred.getField1());
+        Field f2 = b.getField(pred.getField2());
+        if (f1.compare(Predicate.Op.EQUALS, f2))
+            return 0;
+        return f1.compare(Predicate.Op.LESS_THAN, f2) ? -1 : 1;
+    }
+
+    /**
+     * Moves on to the next tuple of left and the range of right it joins
+     * with.
+     *
+     * @return false if there are no more tuples in left
+     */
+    private boolean nextLeft() {
+        if (++l >= left.size())
+            return false;
+        Tuple t = left.get(l);
+        while (lo < right.size() && compareKeys(t, right.get(lo)) > 0)
+            lo++;
+        if (hi < lo)
+            hi = lo;
+        while (hi < right.size() && compareKeys(t, right.get(hi)) >= 0)
+            hi++;
+        switch (pred.getOperator()) {
+        case EQUALS:
+            r = lo;
+            end = hi;
+            break;
+        case LESS_THAN:
+            r = hi;
+            end = right.size();
+            break;
+        case LESS_THAN_OR_EQ:
+            r = lo;
+            end = right.size();
+            break;
+        case GREATER_THAN:
+            r = 0;
+            end = lo;
+            break;
+        case GREATER_THAN_OR_EQ:
+            r = 0;
+            end = hi;
+            break;
+        default:
+            throw new IllegalStateException("impossible to reach here");
+        }
+        return true;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. The tuples of each child are concatenated as in
+     * {@link Join}.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (r >= end) {
+            if (l >= left.size() || !nextLeft())
+                return null;
+        }
+        Tuple t1 = left.get(l);
+        Tuple t2 = right.get(r++);
+        int td1n = t1.getTupleDesc().numFields();
+        int td2n = t2.getTupleDesc().numFields();
+        Tuple t = new Tuple(comboTD);
+        t.copyFields(0, t1, 0, td1n);
+        t.copyFields(td1n, t2, 0, td2n);
+        return t;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
@@ -0,0 +1,139 @@
+package simpledb;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.ParseException;
+
+/**
+ * SpillFile is a temporary file of tuples, which operators write when their
+ * input does not fit in memory. The tuples are read back in the order they
+ * were added, after the last one is added. The file is only created when
+ * the first tuple is added, and is deleted when the SpillFile is closed.
+ */
+class SpillFile {
+
+    private final TupleDesc td;
+    private File file;
+    private DataOutputStream out;
+    private int size;
+
+    /**
+     * Creates an empty spill file for tuples of the given TupleDesc.
+     */
+    SpillFile(TupleDesc td) {
+        this.td = td;
+    }
+
+    /** @return the number of tuples added to the file */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Adds a tuple to the end of the file.
+     */
+    void add(Tuple t) throws DbException {
+        try {
+            if (out == null) {
+                if (file == null) {
+                    file = File.createTempFile("spill", ".tmp");
+                    file.deleteOnExit();
+                }
+                out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(file, true)));
+            }
+            for (int i = 0; i < td.numFields(); i++)
+                t.getField(i).serialize(out);
+        } catch (IOException e) {
+            throw new DbException("could not write spill file: " + e.getMessage());
+        }
+        size++;
+    }
+
+    /**
+     * @return a reader of the tuples added so far
+     */
+    Reader reader() throws DbException {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                throw new DbException("could not write spill file: " + e.getMessage());
+            }
+            out = null;
+        }
+        return new Reader();
+    }
+
+    /**
+     * Deletes the file. Readers of the file may not be used after it is
+     * closed.
+     */
+    void close() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // the file is deleted anyway
+            }
+            out = null;
+        }
+        if (file != null)
+            file.delete();
+        file = null;
+        size = 0;
+    }
+
+    /**
+     * Reads the tuples of a SpillFile.
+     */
+    class Reader {
+        private final int end = size;
+        private DataInputStream in;
+        private int read;
+
+        /**
+         * @return the next tuple, or null if all have been read
+         */
+        Tuple next() throws DbException {
+            if (read == end)
+                return null;
+            try {
+                if (in == null)
+                    in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                Tuple t = new Tuple(td);
+                for (int i = 0; i < td.numFields(); i++)
+                    t.setField(i, td.getFieldType(i).parse(in));
+                read++;
+                return t;
+            } catch (IOException e) {
+                throw new DbException("could not read spill file: " + e.getMessage());
+            } catch (ParseException e) {
+                throw new DbException("could not read spill file: " + e.getMessage());
+            }
+        }
+
+        /** Starts reading from the first tuple again. */
+        void rewind() {
+            close();
+            read = 0;
+        }
+
+        void close() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // nothing was written through it
+                }
+            }
+            in = null;
+        }
+    }
+}
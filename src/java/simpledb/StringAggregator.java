@@ -43,6 +43,15 @@ public class StringAggregator implements Aggregator {
             this.td = new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE});
     }
 
+    /**
+     * Merge every selected row of a batch into the aggregate, one tuple at
+     * a time.
+     */
+    public void mergeBatch(TupleBatch batch) {
+        for (int k = 0; k < batch.size(); k++)
+            mergeTupleIntoGroup(batch.getTuple(k));
+    }
+
     /**
      * Merge a new tuple into the aggregate, grouping as indicated in the constructor
      * @param tup the Tuple containing an aggregate field and a group-by field
@@ -1,5 +1,6 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -90,7 +91,10 @@ public class TableStats {
         StringHistogram[] stringHistograms = new StringHistogram[types.length];
         for(int i = 0; i < stringHistograms.length; i++)
             stringHistograms[i] = new StringHistogram(NUM_HIST_BINS);
-        DbFileIterator dfItr = df.iterator(null);
+        // the file is read by a transaction of its own, since reading pages
+        // takes locks
+        TransactionId tid = new TransactionId();
+        DbFileIterator dfItr = df.iterator(tid);
 
         //Get the max and min value for each IntField
         int[] max = new int[types.length];
@@ -143,6 +147,12 @@ public class TableStats {
         }catch (Exception e){
             System.out.println("Scan DbFile Error");
         }
+        dfItr.close();
+        try {
+            Database.getBufferPool().transactionComplete(tid);
+        } catch (IOException e) {
+            System.out.println("Scan DbFile Error");
+        }
         this.intHistogram = intHistograms;
         this.stringHistogram = stringHistograms;
 
@@ -162,8 +172,10 @@ public class TableStats {
      */
     public double estimateScanCost() {
         // some code goes here
-        HeapFile hf = (HeapFile) Database.getCatalog().getDbFile(tableid);
-        double cost = hf.numPages() * ioCostPerPage;
+        DbFile df = Database.getCatalog().getDbFile(tableid);
+        int pages = df instanceof SlottedFile ? ((SlottedFile) df).numPages()
+                : ((HeapFile) df).numPages();
+        double cost = pages * ioCostPerPage;
         return cost;
     }
 
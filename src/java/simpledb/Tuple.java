@@ -10,12 +10,27 @@ import java.util.Iterator;
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * The values of INT_TYPE fields are kept unboxed in an int array with one
+ * entry per INT_TYPE field, and only the other fields are kept as Field
+ * objects, in an array that is created when the first of them is set.
+ * Operators that copy or compare int fields can use {@link #getInt},
+ * {@link #setInt} and {@link #copyField}, which do not create an IntField
+ * per value; an IntField is only created if getField is called for it.
  */
 public class Tuple implements Serializable {
 
     private static final long serialVersionUID = 1L;
     private TupleDesc td;
+    /** Values of the fields not held in ints, or null if none is set. */
     private Field[] field;
+    /**
+     * Values of the INT_TYPE fields, indexed by {@link TupleDesc#intIndex},
+     * or null if there are none.
+     */
+    private int[] ints;
+    /** Bitmap of the entries of ints that hold a value. */
+    private long[] intSet;
     private RecordId recordId;
     protected transient int modCount = 0;
     private int size = 0;
@@ -31,7 +46,16 @@ public class Tuple implements Serializable {
         // some code goes here
         this.td = td;
         this.size = td.numFields();
-        this.field = new Field[td.numFields()];
+        int n = td.numIntFields();
+        if (n > 0) {
+            this.ints = new int[n];
+            this.intSet = new long[(n + 63) >>> 6];
+        }
+    }
+
+    /** @return true if the kth entry of ints holds a value. */
+    private boolean intSet(int k) {
+        return k >= 0 && (this.intSet[k >>> 6] & (1L << k)) != 0;
     }
 
     /**
@@ -75,8 +99,111 @@ public class Tuple implements Serializable {
         if(i < 0 || i >= this.td.numFields()){
             throw new ArrayIndexOutOfBoundsException("invaild index");
         }
-        this.field[i] = f;
+        int k = this.td.intIndex(i);
+        if (k >= 0 && f instanceof IntField) {
+            this.ints[k] = ((IntField) f).getValue();
+            this.intSet[k >>> 6] |= 1L << k;
+            if (this.field != null)
+                this.field[i] = null;
+            return;
+        }
+        if (k >= 0)
+            this.intSet[k >>> 6] &= ~(1L << k);
+        if (this.field == null && f != null)
+            this.field = new Field[this.size];
+        if (this.field != null)
+            this.field[i] = f;
+    }
+
+    /**
+     * Change the value of the ith field of this tuple, which must be an
+     * INT_TYPE field, without creating an IntField.
+     *
+     * @param i
+     *            index of the field to change. It must be a valid index.
+     * @param v
+     *            new value for the field.
+     * @throws IllegalArgumentException if the field is not an INT_TYPE field
+     */
+    public void setInt(int i, int v) throws ArrayIndexOutOfBoundsException {
+        if(i < 0 || i >= this.td.numFields()){
+            throw new ArrayIndexOutOfBoundsException("invaild index");
+        }
+        int k = this.td.intIndex(i);
+        if (k < 0)
+            throw new IllegalArgumentException("field " + i + " is not an int field");
+        this.ints[k] = v;
+        this.intSet[k >>> 6] |= 1L << k;
+        if (this.field != null)
+            this.field[i] = null;
+    }
+
+    /**
+     * @return the value of the ith field, which must be an INT_TYPE field
+     *         that has been set. No IntField is created unless the field
+     *         was set with one.
+     *
+     * @param i
+     *            field index to return. Must be a valid index.
+     */
+    public int getInt(int i) throws ArrayIndexOutOfBoundsException {
+        if(i < 0 || i >= this.td.numFields()){
+            throw new ArrayIndexOutOfBoundsException("invaild index");
+        }
+        int k = this.td.intIndex(i);
+        if (intSet(k))
+            return this.ints[k];
+        return ((IntField) getField(i)).getValue();
+    }
+
+    /**
+     * @return the value of the ith field, which must be a STRING_TYPE field
+     *         that has been set.
+     *
+     * @param i
+     *            field index to return. Must be a valid index.
+     */
+    public String getString(int i) throws ArrayIndexOutOfBoundsException {
+        return ((StringField) getField(i)).getValue();
+    }
+
+    /**
+     * @return true if the ith field holds a value, whether or not an
+     *         IntField has been created for it.
+     */
+    boolean hasValue(int i) {
+        return intSet(this.td.intIndex(i))
+                || (this.field != null && this.field[i] != null);
+    }
 
+    /**
+     * Sets the ith field of this tuple to the jth field of src. Int fields
+     * are copied as ints, so no IntField is created.
+     *
+     * @param i
+     *            index of the field to change. It must be a valid index.
+     * @param src
+     *            the tuple to copy from
+     * @param j
+     *            index of the field of src to copy. It must be set.
+     */
+    public void copyField(int i, Tuple src, int j) {
+        if (this.td.getFieldType(i) == Type.INT_TYPE
+                && src.td.getFieldType(j) == Type.INT_TYPE)
+            setInt(i, src.getInt(j));
+        else
+            setField(i, src.getField(j));
+    }
+
+    /**
+     * Copies n fields of src, starting at field from, into this tuple,
+     * starting at field to.
+     *
+     * @see #copyField
+     */
+    public void copyFields(int to, Tuple src, int from, int n) {
+        for (int k = 0; k < n; k++)
+            copyField(to + k, src, from + k);
     }
 
     /**
@@ -90,7 +217,10 @@ public class Tuple implements Serializable {
         if(i < 0 || i >= this.td.numFields()){
             throw new ArrayIndexOutOfBoundsException("invaild index");
         }
-        return this.field[i];
+        int k = this.td.intIndex(i);
+        if (intSet(k))
+            return new IntField(this.ints[k]);
+        return this.field == null ? null : this.field[i];
     }
 
     /**
@@ -104,8 +234,8 @@ public class Tuple implements Serializable {
     public String toString() {
         // some code goes here
         StringBuilder s = new StringBuilder();
-        for(Field f : this.field){
-            s.append(f.toString() + " ");
+        for(int i = 0; i < this.size; i++){
+            s.append(getField(i).toString() + " ");
         }
         s.append("\n");
         return s.toString();
@@ -143,12 +273,11 @@ public class Tuple implements Serializable {
                 throw new NoSuchElementException();
             }
             else {
-                Field[] elementData = Tuple.this.field;
-                if (i >= elementData.length) {
+                if (i >= Tuple.this.td.numFields()) {
                     throw new ConcurrentModificationException();
                 } else {
                     this.cursor = i + 1;
-                    return elementData[this.lastRet = i];
+                    return Tuple.this.getField(this.lastRet = i);
                 }
             }
 
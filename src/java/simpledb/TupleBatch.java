@@ -0,0 +1,281 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * TupleBatch holds up to a fixed number of rows of one TupleDesc, stored by
+ * column: an int array for each INT_TYPE column and a Field array for each
+ * other column. A selection vector lists the rows of the batch that are
+ * still part of the result, so that a filter can drop rows without copying
+ * the others.
+ * <p>
+ * Rows are addressed in two ways. A physical row is an index into the
+ * column arrays; the kth selected row is at physical row {@link #row}(k).
+ * Getters and setters take physical rows.
+ *
+ * @see BatchIterator
+ */
+public class TupleBatch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of rows in a batch unless another capacity is asked for. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    /** Values of each INT_TYPE column, null for the other columns. */
+    private final int[][] ints;
+    /** Values of each non-INT_TYPE column, null for the INT_TYPE columns. */
+    private final Field[][] fields;
+    /** RecordIds of the rows, or null if no row has one. */
+    private RecordId[] rids;
+    private int rows;
+    /** The selected rows, or null if every row is selected. */
+    private int[] sel;
+    private int size;
+
+    /**
+     * Creates an empty batch of DEFAULT_CAPACITY rows.
+     */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param td
+     *            the schema of the rows of the batch
+     * @param capacity
+     *            the number of rows the batch can hold
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = new int[td.numFields()][];
+        this.fields = new Field[td.numFields()][];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                this.ints[i] = new int[capacity];
+            else
+                this.fields[i] = new Field[capacity];
+        }
+    }
+
+    private TupleBatch(TupleDesc td, TupleBatch src, int[] cols) {
+        this.td = td;
+        this.capacity = src.capacity;
+        this.ints = new int[cols.length][];
+        this.fields = new Field[cols.length][];
+        for (int i = 0; i < cols.length; i++) {
+            this.ints[i] = src.ints[cols[i]];
+            this.fields[i] = src.fields[cols[i]];
+        }
+        this.rids = src.rids;
+        this.rows = src.rows;
+        this.sel = src.sel;
+        this.size = src.size;
+    }
+
+    /**
+     * Reads the next batch of tuples from an iterator: with nextBatch if it
+     * is a BatchIterator, otherwise by reading up to DEFAULT_CAPACITY
+     * tuples with next.
+     *
+     * @return the batch, or null if the iterator has no more tuples
+     */
+    public static TupleBatch next(DbIterator it) throws DbException,
+            TransactionAbortedException {
+        if (it instanceof BatchIterator)
+            return ((BatchIterator) it).nextBatch();
+        if (!it.hasNext())
+            return null;
+        TupleBatch b = new TupleBatch(it.getTupleDesc());
+        while (!b.isFull() && it.hasNext())
+            b.addRow(it.next());
+        return b;
+    }
+
+    /** @return the schema of the rows of this batch. */
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    /** @return the number of selected rows. */
+    public int size() {
+        return this.size;
+    }
+
+    /** @return the number of rows, selected or not. */
+    public int numRows() {
+        return this.rows;
+    }
+
+    /** @return true if no more rows can be added. */
+    public boolean isFull() {
+        return this.rows == this.capacity;
+    }
+
+    /** @return the physical row of the kth selected row. */
+    public int row(int k) {
+        return this.sel == null ? k : this.sel[k];
+    }
+
+    /**
+     * Narrows the selection to the given rows.
+     *
+     * @param rows
+     *            physical rows, in increasing order, all of them selected
+     * @param n
+     *            the number of entries of rows to use
+     */
+    public void select(int[] rows, int n) {
+        this.sel = rows;
+        this.size = n;
+    }
+
+    /**
+     * Adds a row to the end of the batch and selects it. Its fields are
+     * unset until the setters are called for them.
+     *
+     * @return the physical row that was added
+     * @throws IllegalStateException if the batch is full, or its selection
+     *         has been narrowed
+     */
+    public int addRow() {
+        if (isFull())
+            throw new IllegalStateException("batch is full");
+        if (this.sel != null)
+            throw new IllegalStateException("rows cannot be added after a select");
+        this.size++;
+        return this.rows++;
+    }
+
+    /**
+     * Adds a copy of the given tuple's fields and RecordId to the batch.
+     *
+     * @return the physical row that was added
+     */
+    public int addRow(Tuple t) {
+        int row = addRow();
+        for (int i = 0; i < this.td.numFields(); i++)
+            setValue(i, row, t, i);
+        if (t.getRecordId() != null)
+            setRecordId(row, t.getRecordId());
+        return row;
+    }
+
+    /** @return the value of an INT_TYPE column at a physical row. */
+    public int getInt(int col, int row) {
+        return this.ints[col][row];
+    }
+
+    /**
+     * @return the value of a column at a physical row; an IntField is
+     *         created for INT_TYPE columns.
+     */
+    public Field getField(int col, int row) {
+        if (this.ints[col] != null)
+            return new IntField(this.ints[col][row]);
+        return this.fields[col][row];
+    }
+
+    /**
+     * @return the values of an INT_TYPE column, indexed by physical row, or
+     *         null if the column is of another type. The array is shared
+     *         with the batch.
+     */
+    public int[] intColumn(int col) {
+        return this.ints[col];
+    }
+
+    /** Sets the value of an INT_TYPE column at a physical row. */
+    public void setInt(int col, int row, int v) {
+        this.ints[col][row] = v;
+    }
+
+    /** Sets the value of a column at a physical row. */
+    public void setField(int col, int row, Field f) {
+        if (this.ints[col] != null)
+            this.ints[col][row] = ((IntField) f).getValue();
+        else
+            this.fields[col][row] = f;
+    }
+
+    /**
+     * Sets a column at a physical row to the jth field of a tuple, without
+     * creating an IntField for INT_TYPE columns.
+     */
+    public void setValue(int col, int row, Tuple src, int j) {
+        if (this.ints[col] != null)
+            this.ints[col][row] = src.getInt(j);
+        else
+            this.fields[col][row] = src.getField(j);
+    }
+
+    /**
+     * Sets a column at a physical row to a column of a row of another
+     * batch, without creating an IntField for INT_TYPE columns.
+     */
+    public void setValue(int col, int row, TupleBatch src, int srcCol, int srcRow) {
+        if (this.ints[col] != null)
+            this.ints[col][row] = src.ints[srcCol][srcRow];
+        else
+            this.fields[col][row] = src.fields[srcCol][srcRow];
+    }
+
+    /** @return the RecordId of a physical row, or null if it has none. */
+    public RecordId getRecordId(int row) {
+        return this.rids == null ? null : this.rids[row];
+    }
+
+    /** Sets the RecordId of a physical row. */
+    public void setRecordId(int row, RecordId rid) {
+        if (this.rids == null)
+            this.rids = new RecordId[this.capacity];
+        this.rids[row] = rid;
+    }
+
+    /**
+     * @return a new Tuple holding the fields and RecordId of the kth
+     *         selected row.
+     */
+    public Tuple getTuple(int k) {
+        int row = row(k);
+        Tuple t = new Tuple(this.td);
+        for (int i = 0; i < this.td.numFields(); i++) {
+            if (this.ints[i] != null)
+                t.setInt(i, this.ints[i][row]);
+            else
+                t.setField(i, this.fields[i][row]);
+        }
+        t.setRecordId(getRecordId(row));
+        return t;
+    }
+
+    /**
+     * Returns a batch with the given columns of this batch, which shares
+     * the column arrays and selection of this batch instead of copying
+     * them.
+     *
+     * @param td
+     *            the schema of the new batch
+     * @param cols
+     *            for each column of the new batch, the column of this batch
+     *            it holds
+     */
+    public TupleBatch project(TupleDesc td, int[] cols) {
+        return new TupleBatch(td, this, cols);
+    }
+
+    /**
+     * Removes every row from the batch.
+     */
+    public void clear() {
+        this.rows = 0;
+        this.size = 0;
+        this.sel = null;
+        this.rids = null;
+    }
+}
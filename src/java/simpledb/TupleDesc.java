@@ -49,6 +49,9 @@ public class TupleDesc implements Serializable {
     private Type[] typeAr = null;
     private String[] fieldAr = null;
     private ArrayList<TDItem> tdItems;
+    /** For each field, its position among the INT_TYPE fields, or -1. */
+    private int[] intIndex;
+    private int numIntFields;
 
     /**
      * Create a new TupleDesc with typeAr.length fields with fields of the
@@ -68,6 +71,7 @@ public class TupleDesc implements Serializable {
         for(int i = 0; i < typeAr.length; i++){
             this.tdItems.add(new TDItem(typeAr[i], fieldAr[i]));
         }
+        indexIntFields();
         // some code goes here
     }
 
@@ -81,9 +85,32 @@ public class TupleDesc implements Serializable {
      */
     public TupleDesc(Type[] typeAr) {
         this.typeAr = typeAr;
+        indexIntFields();
         // some code goes here
     }
 
+    private void indexIntFields() {
+        this.intIndex = new int[this.typeAr.length];
+        this.numIntFields = 0;
+        for(int i = 0; i < this.typeAr.length; i++)
+            this.intIndex[i] = this.typeAr[i] == Type.INT_TYPE ? this.numIntFields++ : -1;
+    }
+
+    /**
+     * @return the position of the ith field among the INT_TYPE fields of
+     *         this TupleDesc, or -1 if it is not an INT_TYPE field
+     */
+    int intIndex(int i) {
+        return this.intIndex[i];
+    }
+
+    /**
+     * @return the number of INT_TYPE fields in this TupleDesc
+     */
+    int numIntFields() {
+        return this.numIntFields;
+    }
+
     /**
      * @return the number of fields in this TupleDesc
      */
@@ -202,8 +229,11 @@ public class TupleDesc implements Serializable {
         String[] resField = new String[td1.numFields() + td2.numFields()];
         System.arraycopy(td1.getTypes(), 0, resType, 0, td1.numFields());
         System.arraycopy(td2.getTypes(), 0, resType, td1.numFields(), td2.numFields());
-        System.arraycopy(td1.getFieldNames(), 0, resField, 0, td1.numFields());
-        System.arraycopy(td2.getFieldNames(), 0, resField, td1.numFields(), td2.numFields());
+        // unnamed fields stay unnamed
+        if (td1.getFieldNames() != null)
+            System.arraycopy(td1.getFieldNames(), 0, resField, 0, td1.numFields());
+        if (td2.getFieldNames() != null)
+            System.arraycopy(td2.getFieldNames(), 0, resField, td1.numFields(), td2.numFields());
         return new TupleDesc(resType, resField);
     }
 
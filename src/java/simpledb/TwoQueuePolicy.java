@@ -0,0 +1,101 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * 2Q replacement (Johnson and Shasha). Pages seen for the first time enter
+ * a FIFO queue, A1in. Pages evicted from A1in are remembered by id only in
+ * a ghost queue, A1out. A page that is requested again while its id is in
+ * A1out is considered hot and is loaded into the main LRU queue, Am.
+ * A single sequential scan therefore only cycles through A1in and never
+ * displaces the hot pages held in Am.
+ */
+public class TwoQueuePolicy implements EvictionPolicy {
+
+    /** Creates TwoQueuePolicy instances for the BufferPool. */
+    public static final EvictionPolicy.Factory FACTORY = new EvictionPolicy.Factory() {
+        public EvictionPolicy create(int numFrames) {
+            return new TwoQueuePolicy(numFrames);
+        }
+    };
+
+    private PageId[] pids;
+    /** Frames holding pages seen once, oldest first. */
+    private LinkedHashSet<Integer> a1in;
+    /** Frames holding hot pages, least recently used first. */
+    private LinkedHashSet<Integer> am;
+    /** Ids of pages recently evicted from A1in, oldest first. */
+    private LinkedHashSet<PageId> a1out;
+    private int kin;
+    private int kout;
+
+    /**
+     * Creates a 2Q policy with the tuning suggested in the paper: A1in holds
+     * a quarter of the frames and A1out remembers half as many pages as the
+     * pool can hold.
+     *
+     * @param numFrames the number of frames in the buffer pool
+     */
+    public TwoQueuePolicy(int numFrames) {
+        this(numFrames, Math.max(1, numFrames / 4), Math.max(1, numFrames / 2));
+    }
+
+    /**
+     * @param numFrames the number of frames in the buffer pool
+     * @param kin the target size of A1in, in frames
+     * @param kout the maximum number of page ids remembered in A1out
+     */
+    public TwoQueuePolicy(int numFrames, int kin, int kout) {
+        this.pids = new PageId[numFrames];
+        this.a1in = new LinkedHashSet<>();
+        this.am = new LinkedHashSet<>();
+        this.a1out = new LinkedHashSet<>();
+        this.kin = kin;
+        this.kout = kout;
+    }
+
+    public void frameLoaded(int frame, PageId pid) {
+        this.pids[frame] = pid;
+        if(this.a1out.remove(pid))
+            this.am.add(frame);
+        else
+            this.a1in.add(frame);
+    }
+
+    public void frameAccessed(int frame) {
+        // hits in A1in are deliberately ignored: they are likely correlated
+        if(this.am.remove(frame))
+            this.am.add(frame);
+    }
+
+    public void frameRemoved(int frame) {
+        this.a1in.remove(frame);
+        this.am.remove(frame);
+        this.pids[frame] = null;
+    }
+
+    public int chooseVictim(int[] pinCounts) {
+        boolean fromA1in = this.a1in.size() > this.kin || this.am.isEmpty();
+        int victim = firstUnpinned(fromA1in ? this.a1in : this.am, pinCounts);
+        if(victim < 0)
+            victim = firstUnpinned(fromA1in ? this.am : this.a1in, pinCounts);
+        if(victim >= 0 && this.a1in.contains(victim)){
+            this.a1out.add(this.pids[victim]);
+            if(this.a1out.size() > this.kout){
+                Iterator<PageId> it = this.a1out.iterator();
+                it.next();
+                it.remove();
+            }
+        }
+        return victim;
+    }
+
+    private static int firstUnpinned(LinkedHashSet<Integer> queue, int[] pinCounts) {
+        for(int frame : queue){
+            if(pinCounts[frame] == 0)
+                return frame;
+        }
+        return -1;
+    }
+}
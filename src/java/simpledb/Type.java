@@ -2,6 +2,8 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +26,15 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            try {
+                return new IntField(buf.getInt(offset));
+            } catch (IndexOutOfBoundsException e) {
+                throw new ParseException("couldn't parse", offset);
+            }
+        }
+
         @Override
         public String toString(){
             return "Int";
@@ -49,6 +60,26 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            try {
+                int strLen = buf.getInt(offset);
+                if (strLen < 0 || strLen > STRING_LEN)
+                    throw new ParseException("bad string length " + strLen, offset);
+                byte bs[] = new byte[strLen];
+                ByteBuffer src = buf.duplicate();
+                src.position(offset + 4);
+                src.get(bs);
+                return new StringField(new String(bs), STRING_LEN);
+            } catch (IndexOutOfBoundsException e) {
+                throw new ParseException("couldn't parse", offset);
+            } catch (IllegalArgumentException e) {
+                throw new ParseException("couldn't parse", offset);
+            } catch (BufferUnderflowException e) {
+                throw new ParseException("couldn't parse", offset);
+            }
+        }
+
         @Override
         public String toString(){
             return "String";
@@ -70,6 +101,31 @@ public enum Type implements Serializable {
    *   of the appropriate type.
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
+
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the current position of the specified buffer. The position
+   *   is advanced by getLen() bytes.
+   * @param buf The buffer to read from
+   * @throws ParseException if the bytes at the current position are not
+   *   of the appropriate type.
+   */
+    public Field parse(ByteBuffer buf) throws ParseException {
+        Field f = parse(buf, buf.position());
+        buf.position(buf.position() + getLen());
+        return f;
+    }
+
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the specified offset of the buffer. The position of the
+   *   buffer is not changed.
+   * @param buf The buffer to read from
+   * @param offset The index of the first byte of the field in buf
+   * @throws ParseException if the bytes at the offset are not of the
+   *   appropriate type.
+   */
+    public abstract Field parse(ByteBuffer buf, int offset) throws ParseException;
     public abstract String toString();
 
 }
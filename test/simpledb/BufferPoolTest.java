@@ -0,0 +1,337 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolTest extends SimpleDbTestBase {
+
+    private static final int PAGES = 40;
+    private HeapFile hf;
+
+    @Before public void createTable() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, null);
+        assertEquals(PAGES, hf.numPages());
+    }
+
+    /**
+     * Unit test for BufferPool striping: sessions hitting and evicting pages
+     * concurrently always get back the page they asked for.
+     */
+    @Test public void concurrentGetPage() throws Exception {
+        final BufferPool striped = new BufferPool(PAGES / 2, 4, ClockPolicy.FACTORY);
+
+        // touch every page once from one thread so that the lock table has
+        // an entry for each of them before the sessions race
+        TransactionId warmup = new TransactionId();
+        for (int i = 0; i < PAGES; i++)
+            striped.getPage(warmup, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+
+        final int threads = 8;
+        final int rounds = 20;
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int offset = t;
+            workers[t] = new Thread() {
+                public void run() {
+                    try {
+                        TransactionId tid = new TransactionId();
+                        for (int r = 0; r < rounds; r++) {
+                            for (int i = 0; i < PAGES; i++) {
+                                HeapPageId pid = new HeapPageId(hf.getId(), (i + offset) % PAGES);
+                                Page p = striped.getPage(tid, pid, Permissions.READ_ONLY);
+                                assertEquals(pid, p.getId());
+                            }
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        for (Thread w : workers)
+            w.join();
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(PAGES + threads * rounds * PAGES, striped.getHitCount() + striped.getMissCount());
+    }
+
+    /**
+     * Unit test for BufferPool misses: a page is read from disk without the
+     * stripe latch, so hits on the stripe go on meanwhile, and a session
+     * missing on a page that is being read waits for that read.
+     */
+    @Test(timeout = 20000) public void missDoesNotBlockHits() throws Exception {
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger reads = new AtomicInteger();
+        final HeapPageId slow = new HeapPageId(hf.getId(), 1);
+        HeapFile blocking = new HeapFile(hf.getFile(), hf.getTupleDesc()) {
+            public Page readPage(PageId pid) {
+                if (pid.equals(slow)) {
+                    reads.incrementAndGet();
+                    reading.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return super.readPage(pid);
+            }
+        };
+        Database.getCatalog().addTable(blocking, SystemTestUtil.getUUID());
+
+        final BufferPool bp = new BufferPool(PAGES, 1, LruPolicy.FACTORY);
+        TransactionId tid = new TransactionId();
+        HeapPageId hit = new HeapPageId(hf.getId(), 0);
+        bp.getPage(tid, hit, Permissions.READ_ONLY);
+
+        final Page[] got = new Page[2];
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] missers = new Thread[2];
+        for (int t = 0; t < missers.length; t++) {
+            final int slot = t;
+            missers[t] = new Thread() {
+                public void run() {
+                    try {
+                        got[slot] = bp.getPage(new TransactionId(), slow, Permissions.READ_ONLY);
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            };
+        }
+        missers[0].start();
+        reading.await();
+        missers[1].start();
+        assertEquals(hit, bp.getPage(tid, hit, Permissions.READ_ONLY).getId());
+        release.countDown();
+        for (Thread m : missers)
+            m.join();
+
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(1, reads.get());
+        assertEquals(slow, got[0].getId());
+        assertTrue(got[0] == got[1]);
+        assertEquals(2, bp.getMissCount());
+    }
+
+    /**
+     * Unit test for the BufferPool constructor: stripe counts must be powers
+     * of two that leave every stripe at least one frame.
+     */
+    @Test(expected = IllegalArgumentException.class) public void invalidStripes() {
+        new BufferPool(16, 3, LruPolicy.FACTORY);
+    }
+
+    /**
+     * Unit test for BufferPool.pinPage() and unpinPage(): pinned pages are
+     * never evicted.
+     */
+    @Test public void pinnedPagesStayResident() throws Exception {
+        BufferPool bp = Database.resetBufferPool(2);
+        TransactionId tid = new TransactionId();
+        HeapPageId p0 = new HeapPageId(hf.getId(), 0);
+        HeapPageId p1 = new HeapPageId(hf.getId(), 1);
+        HeapPageId p2 = new HeapPageId(hf.getId(), 2);
+        bp.pinPage(tid, p0, Permissions.READ_ONLY);
+        bp.pinPage(tid, p1, Permissions.READ_ONLY);
+        bp.pinPage(tid, p1, Permissions.READ_ONLY);
+        assertEquals(2, bp.getPinCount(p1));
+        try {
+            bp.getPage(tid, p2, Permissions.READ_ONLY);
+            fail("every frame is pinned");
+        } catch (DbException e) {
+            // expected
+        }
+
+        bp.unpinPage(p0);
+        bp.getPage(tid, p2, Permissions.READ_ONLY);
+        assertEquals(0, bp.getPinCount(p0));
+        assertEquals(2, bp.getPinCount(p1));
+        long misses = bp.getMissCount();
+        bp.getPage(tid, p1, Permissions.READ_ONLY);
+        assertEquals(misses, bp.getMissCount());
+    }
+
+    /**
+     * Unit test for read-ahead: prefetched pages are served without a miss,
+     * and a sequential HeapFile scan requests the pages ahead of it.
+     */
+    @Test public void readAhead() throws Exception {
+        BufferPool bp = Database.resetBufferPool(PAGES);
+        TransactionId tid = new TransactionId();
+        bp.getPage(tid, new HeapPageId(hf.getId(), 3), Permissions.READ_ONLY);
+        bp.loadPages(hf.getId(), 0, 10);
+        assertEquals(9, bp.getPrefetchCount());
+        long misses = bp.getMissCount();
+        for (int i = 0; i < 10; i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        assertEquals(misses, bp.getMissCount());
+
+        // after two moves in order the iterator keeps 8 pages requested and
+        // tops the request up once half of them have been reached: on page 2
+        // it asks for pages 3 to 10, on page 6 for pages 11 to 14
+        hf.setReadAheadWindow(8);
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        for (int i = 0; i < 6 * 504 + 1; i++)
+            it.next();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (bp.getPrefetchCount() < 14 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(14, bp.getPrefetchCount());
+        it.close();
+        misses = bp.getMissCount();
+        for (int i = 10; i < 15; i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        assertEquals(misses, bp.getMissCount());
+    }
+
+    /**
+     * A failed read-ahead is counted and leaves the pages to be read on
+     * demand.
+     */
+    @Test public void readAheadFailure() throws Exception {
+        HeapFile table = new HeapFile(hf.getFile(), hf.getTupleDesc()) {
+            @Override
+            public List<Page> readPages(int firstPgNo, int count) throws java.io.IOException {
+                throw new java.io.IOException("bad sector");
+            }
+        };
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+        BufferPool bp = Database.resetBufferPool(PAGES);
+        bp.prefetchPages(table.getId(), 0, 10);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (bp.getReadAheadFailureCount() < 1 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(1, bp.getReadAheadFailureCount());
+        assertEquals(0, bp.getPrefetchCount());
+
+        TransactionId tid = new TransactionId();
+        long misses = bp.getMissCount();
+        bp.getPage(tid, new HeapPageId(table.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(misses + 1, bp.getMissCount());
+        bp.shutdown();
+    }
+
+    /**
+     * Unit test for the background page cleaner: dirty pages are written in
+     * one call per run of adjacent pages, and end up clean and on disk.
+     */
+    @Test public void pageCleaner() throws Exception {
+        class InstrumentedHeapFile extends HeapFile {
+            public InstrumentedHeapFile(java.io.File f, TupleDesc td) {
+                super(f, td);
+            }
+
+            @Override
+            public void writePage(Page p) throws java.io.IOException {
+                singleWrites++;
+                super.writePage(p);
+            }
+
+            @Override
+            public void writePages(List<Page> pages) throws java.io.IOException {
+                runWrites++;
+                super.writePages(pages);
+            }
+
+            public int singleWrites = 0;
+            public int runWrites = 0;
+        }
+        java.io.File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * PAGES, 1000, null, null);
+        InstrumentedHeapFile table = new InstrumentedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+        BufferPool bp = Database.resetBufferPool(PAGES);
+        TransactionId tid = new TransactionId();
+        List<HeapPage> dirtied = new ArrayList<HeapPage>();
+        for (int i = 0; i < PAGES; i++) {
+            HeapPage p = (HeapPage) bp.getPage(tid, new HeapPageId(table.getId(), i), Permissions.READ_ONLY);
+            if (i < 10 || (i >= 20 && i < 25)) {
+                p.deleteTuple(p.iterator().next());
+                p.markDirty(true, tid);
+                dirtied.add(p);
+            }
+        }
+
+        bp.startPageCleaner(0.1, 0.0, 10);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (bp.getCleanedPageCount() < dirtied.size() && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(dirtied.size(), bp.getCleanedPageCount());
+        bp.stopPageCleaner();
+
+        assertEquals(2, table.runWrites);
+        assertEquals(0, table.singleWrites);
+        for (HeapPage p : dirtied) {
+            assertEquals(null, p.isDirty());
+            HeapPage onDisk = (HeapPage) table.readPage(p.getId());
+            assertEquals(1, onDisk.getNumEmptySlots());
+        }
+    }
+
+    /**
+     * A write that fails in the background page cleaner is counted, leaves
+     * the pages dirty, and is reported by the next flushAllPages.
+     */
+    @Test public void pageCleanerFailure() throws Exception {
+        final AtomicInteger failing = new AtomicInteger(1);
+        HeapFile table = new HeapFile(hf.getFile(), hf.getTupleDesc()) {
+            @Override
+            public void writePages(List<Page> pages) throws java.io.IOException {
+                if (failing.getAndDecrement() > 0)
+                    throw new java.io.IOException("disk full");
+                super.writePages(pages);
+            }
+        };
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+        BufferPool bp = Database.resetBufferPool(PAGES);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 10; i++) {
+            HeapPage p = (HeapPage) bp.getPage(tid, new HeapPageId(table.getId(), i), Permissions.READ_ONLY);
+            p.markDirty(true, tid);
+        }
+
+        bp.startPageCleaner(0.1, 0.0, 10);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (bp.getCleanedPageCount() < 10 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(1, bp.getCleanerFailureCount());
+        assertEquals(10, bp.getCleanedPageCount());
+        bp.stopPageCleaner();
+
+        try {
+            bp.flushAllPages();
+            fail("expected the cleaner failure to be reported");
+        } catch (java.io.IOException e) {
+            assertEquals("disk full", e.getCause().getMessage());
+        }
+        bp.flushAllPages();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolTest.class);
+    }
+}
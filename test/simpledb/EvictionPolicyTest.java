@@ -0,0 +1,117 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+
+    private static final int[] NONE_PINNED = new int[4];
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(-1, pgNo);
+    }
+
+    /**
+     * Unit test for LruPolicy: the least recently accessed frame goes first.
+     */
+    @Test public void lru() {
+        EvictionPolicy p = new LruPolicy(3);
+        assertEquals(-1, p.chooseVictim(NONE_PINNED));
+        p.frameLoaded(0, pid(0));
+        p.frameLoaded(1, pid(1));
+        p.frameLoaded(2, pid(2));
+        p.frameAccessed(0);
+        assertEquals(1, p.chooseVictim(NONE_PINNED));
+        p.frameRemoved(1);
+        assertEquals(2, p.chooseVictim(NONE_PINNED));
+    }
+
+    /**
+     * Unit test for ClockPolicy: a referenced frame gets a second chance.
+     */
+    @Test public void clock() {
+        EvictionPolicy p = new ClockPolicy(3);
+        assertEquals(-1, p.chooseVictim(NONE_PINNED));
+        p.frameLoaded(0, pid(0));
+        p.frameLoaded(1, pid(1));
+        p.frameLoaded(2, pid(2));
+        // every bit is set, so the hand clears them all and comes back to 0
+        assertEquals(0, p.chooseVictim(NONE_PINNED));
+        p.frameRemoved(0);
+        p.frameAccessed(1);
+        assertEquals(2, p.chooseVictim(NONE_PINNED));
+    }
+
+    /**
+     * Unit test for LruKPolicy: pages with fewer than K accesses go first.
+     */
+    @Test public void lruK() {
+        EvictionPolicy p = new LruKPolicy(3, 2);
+        p.frameLoaded(0, pid(0));
+        p.frameAccessed(0);
+        p.frameLoaded(1, pid(1));
+        p.frameLoaded(2, pid(2));
+        assertEquals(1, p.chooseVictim(NONE_PINNED));
+        p.frameRemoved(1);
+        p.frameAccessed(2);
+        // both have two accesses now; frame 0's second to last is older
+        assertEquals(0, p.chooseVictim(NONE_PINNED));
+
+        // a returning page keeps the history it had before eviction, so a
+        // page loaded for the first time after it is still evicted first
+        p.frameRemoved(0);
+        p.frameLoaded(1, pid(0));
+        p.frameLoaded(0, pid(3));
+        assertEquals(0, p.chooseVictim(NONE_PINNED));
+    }
+
+    /**
+     * Unit test for TwoQueuePolicy: a scan never evicts a page in Am.
+     */
+    @Test public void twoQueueScanResistance() {
+        EvictionPolicy p = new TwoQueuePolicy(4, 1, 4);
+        PageId hot = pid(0);
+        p.frameLoaded(0, hot);
+        assertEquals(0, p.chooseVictim(NONE_PINNED));
+        p.frameRemoved(0);
+        // the second load finds the id in A1out and promotes the page to Am
+        p.frameLoaded(0, hot);
+
+        int next = 1;
+        for (int frame = 1; frame < 4; frame++)
+            p.frameLoaded(frame, pid(next++));
+        for (int i = 0; i < 20; i++) {
+            int victim = p.chooseVictim(NONE_PINNED);
+            assertTrue(victim != 0);
+            p.frameRemoved(victim);
+            p.frameLoaded(victim, pid(next++));
+            p.frameAccessed(0);
+        }
+    }
+
+    /**
+     * Unit test for every policy: pinned frames are never chosen.
+     */
+    @Test public void pinnedFramesSkipped() {
+        EvictionPolicy[] policies = {new LruPolicy(3), new ClockPolicy(3),
+                new LruKPolicy(3), new TwoQueuePolicy(3)};
+        for (EvictionPolicy p : policies) {
+            for (int frame = 0; frame < 3; frame++)
+                p.frameLoaded(frame, pid(frame));
+            assertEquals(1, p.chooseVictim(new int[] {2, 0, 1}));
+            assertEquals(-1, p.chooseVictim(new int[] {1, 1, 1}));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
@@ -0,0 +1,185 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  int[] left;
+  int[] right;
+
+  /**
+   * Counts the tuples read from a child of a join.
+   */
+  static class CountingIterator implements DbIterator {
+    private static final long serialVersionUID = 1L;
+    final DbIterator it;
+    int read = 0;
+
+    CountingIterator(DbIterator it) {
+      this.it = it;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+      it.open();
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+      return it.hasNext();
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+        NoSuchElementException {
+      read++;
+      return it.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+      it.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+      return it.getTupleDesc();
+    }
+
+    public void close() {
+      it.close();
+    }
+  }
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    Random r = new Random(7);
+    left = new int[2000 * width1];
+    for (int i = 0; i < left.length; i++)
+      left[i] = r.nextInt(500);
+    right = new int[3000 * width2];
+    for (int i = 0; i < right.length; i++)
+      right[i] = r.nextInt(500);
+  }
+
+  private static ArrayList<String> run(DbIterator op, boolean batches) throws Exception {
+    ArrayList<String> rows = new ArrayList<String>();
+    op.open();
+    if (batches) {
+      TupleBatch b;
+      while ((b = ((Operator) op).nextBatch()) != null)
+        for (int k = 0; k < b.size(); k++)
+          rows.add(b.getTuple(k).toString());
+    } else {
+      while (op.hasNext())
+        rows.add(op.next().toString());
+    }
+    op.close();
+    Collections.sort(rows);
+    return rows;
+  }
+
+  /**
+   * Unit test for HashEquiJoin.getNext() using an = predicate
+   */
+  @Test public void eqJoin() throws Exception {
+    DbIterator scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+    DbIterator scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3, 2, 3, 4, 3, 4, 5, 4, 5, 6, 5, 6, 7 });
+    DbIterator eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3, 3, 4, 3, 4, 5, 5, 6, 5, 6, 7 });
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * A join whose build side does not fit in memory returns the same tuples
+   * as one that does, and reads each child only once.
+   */
+  @Test public void spill() throws Exception {
+    JoinPredicate pred = new JoinPredicate(1, Predicate.Op.EQUALS, 2);
+    ArrayList<String> expected = run(new HashEquiJoin(pred,
+        TestUtil.createTupleList(width1, left),
+        TestUtil.createTupleList(width2, right)), false);
+    assertTrue(expected.size() > 1000);
+
+    for (boolean batches : new boolean[] { false, true }) {
+      CountingIterator scan1 = new CountingIterator(TestUtil.createTupleList(width1, left));
+      CountingIterator scan2 = new CountingIterator(TestUtil.createTupleList(width2, right));
+      HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2, 200);
+      assertEquals(expected, run(op, batches));
+      assertEquals(2000, scan1.read);
+      assertEquals(3000, scan2.read);
+    }
+  }
+
+  /**
+   * Unit test for HashEquiJoin.rewind() after spilling
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, TestUtil.createTupleList(width1, left),
+        TestUtil.createTupleList(width2, right), 100);
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      op.next();
+      count++;
+    }
+    op.rewind();
+    int again = 0;
+    while (op.hasNext()) {
+      op.next();
+      again++;
+    }
+    op.close();
+    assertTrue(count > 0);
+    assertEquals(count, again);
+  }
+
+  /**
+   * A partition too large for memory is joined a part at a time.
+   */
+  @Test public void skew() throws Exception {
+    int[] ones1 = new int[500 * width1];
+    int[] ones2 = new int[300 * width2];
+    java.util.Arrays.fill(ones1, 1);
+    java.util.Arrays.fill(ones2, 1);
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, TestUtil.createTupleList(width1, ones1),
+        TestUtil.createTupleList(width2, ones2), 64);
+    assertEquals(500 * 300, run(op, false).size());
+  }
+
+  /**
+   * A hash join needs room for at least one tuple of child1
+   */
+  @Test(expected = IllegalArgumentException.class) public void noMemory() {
+    new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        TestUtil.createTupleList(width1, new int[] { 1, 2 }),
+        TestUtil.createTupleList(width2, new int[] { 1, 2, 3 }), 0);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashEquiJoinTest.class);
+  }
+}
@@ -5,6 +5,7 @@ import simpledb.systemtest.SystemTestUtil;
 
 import java.util.*;
 import org.junit.After;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -77,6 +78,93 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.close(): Catalog.clear() closes the file, and
+     * it is reopened on the next read.
+     */
+    @Test
+    public void closeAndReopen() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        assertEquals(484, ((HeapPage) hf.readPage(pid)).getNumEmptySlots());
+        Database.getCatalog().clear();
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertEquals(484, ((HeapPage) hf.readPage(pid)).getNumEmptySlots());
+        hf.close();
+        hf.close();
+    }
+
+    /**
+     * Unit test for reading through a memory mapping, including pages
+     * appended after the file was first mapped.
+     */
+    @Test
+    public void mappedRead() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        byte[] expected = hf.readPage(pid).getPageData();
+        hf.setIoMode(HeapFile.IoMode.MAPPED);
+        assertEquals(HeapFile.IoMode.MAPPED, hf.getIoMode());
+        assertArrayEquals(expected, hf.readPage(pid).getPageData());
+
+        HeapPage empty = new HeapPage(new HeapPageId(hf.getId(), 1),
+                HeapPage.createEmptyPageData());
+        hf.writePage(empty);
+        HeapPage page = (HeapPage) hf.readPage(empty.getId());
+        assertEquals(504, page.getNumEmptySlots());
+        assertEquals(2, hf.readPages(0, 2).size());
+        hf.setIoMode(HeapFile.IoMode.CHANNEL);
+    }
+
+    /**
+     * Unit test for reading and writing with direct I/O, where the JVM and
+     * file system support it.
+     */
+    @Test
+    public void directRead() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        byte[] expected = hf.readPage(pid).getPageData();
+        try {
+            hf.setIoMode(HeapFile.IoMode.DIRECT);
+        } catch (java.io.IOException e) {
+            Assume.assumeNoException(e);
+        }
+        assertEquals(HeapFile.IoMode.DIRECT, hf.getIoMode());
+        assertArrayEquals(expected, hf.readPage(pid).getPageData());
+
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        page.insertTuple(Utility.getHeapTuple(7, 2));
+        hf.writePage(page);
+        assertEquals(483, ((HeapPage) hf.readPage(pid)).getNumEmptySlots());
+        assertEquals(1, hf.readPages(0, 1).size());
+        hf.setIoMode(HeapFile.IoMode.CHANNEL);
+        assertEquals(483, ((HeapPage) hf.readPage(pid)).getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for a HeapFile with pages larger than BufferPool.PAGE_SIZE
+     */
+    @Test
+    public void largePages() throws Exception {
+        int pageSize = 16 * BufferPool.PAGE_SIZE;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 10000; ++i)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, -i)));
+        java.io.File f = java.io.File.createTempFile("large", ".dat");
+        HeapFile.deleteOnExit(f);
+        HeapFileEncoder.convert(tuples, f, pageSize, 2);
+
+        HeapFile large = new HeapFile(f, td, pageSize);
+        Database.getCatalog().addTable(large, SystemTestUtil.getUUID());
+        assertEquals(pageSize, Database.getCatalog().getPageSize(large.getId()));
+        assertEquals(2, large.numPages());
+        HeapPage first = (HeapPage) large.readPage(new HeapPageId(large.getId(), 0));
+        assertEquals(8065, first.getNumTuples());
+        SystemTestUtil.matchTuples(large, tuples);
+
+        // inserts fill the free slots of the last page before adding one
+        Database.getBufferPool().insertTuple(tid, large.getId(), Utility.getHeapTuple(1, 2));
+        assertEquals(2, large.numPages());
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
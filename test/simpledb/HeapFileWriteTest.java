@@ -1,5 +1,9 @@
 package simpledb;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,6 +47,95 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for the free space map used by HeapFile.insertTuple()
+     */
+    @Test public void freeSpaceMap() throws Exception {
+        Tuple first = Utility.getHeapTuple(0, 2);
+        empty.insertTuple(tid, first);
+        for (int i = 1; i < 2 * 504; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        assertEquals(2, empty.numPages());
+
+        // a slot freed on the first page is reused before adding a page
+        empty.deleteTuple(tid, first);
+        Page p = empty.insertTuple(tid, Utility.getHeapTuple(0, 2)).get(0);
+        assertEquals(0, p.getId().pageNumber());
+        assertEquals(2, empty.numPages());
+
+        // the map is saved on close and used by the next HeapFile
+        File side = new File(empty.getFile().getPath() + ".fsm");
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        empty.close();
+        assertTrue(side.exists());
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        Database.getCatalog().addTable(reopened, "reopened");
+        tid = new TransactionId();
+        p = reopened.insertTuple(tid, Utility.getHeapTuple(0, 2)).get(0);
+        assertEquals(2, p.getId().pageNumber());
+        assertEquals(3, reopened.numPages());
+
+        // once the map changes the saved copy is gone, so a file that is
+        // not closed cleanly gets its map rebuilt rather than trusted
+        assertFalse(side.exists());
+    }
+
+    /**
+     * Unit test for HeapFile.delete(), which also removes the saved free
+     * space map
+     */
+    @Test public void deleteWithFreeSpaceMap() throws Exception {
+        empty.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        empty.close();
+        File side = new File(empty.getFile().getPath() + ".fsm");
+        assertTrue(side.exists());
+
+        empty.delete();
+        assertFalse(empty.getFile().exists());
+        assertFalse(side.exists());
+    }
+
+    /**
+     * Unit test for HeapFile.deleteTuple() and HeapFile.vacuum()
+     */
+    @Test public void deleteAndVacuum() throws Exception {
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 2 * 504 + 10; ++i) {
+            Tuple t = Utility.getHeapTuple(i, 2);
+            empty.insertTuple(tid, t);
+            tuples.add(t);
+        }
+        assertEquals(3, empty.numPages());
+
+        // emptying the first page leaves it in place
+        for (int i = 0; i < 504; ++i)
+            empty.deleteTuple(tid, tuples.get(i));
+        assertEquals(3, empty.numPages());
+        assertEquals(514, countTuples(empty));
+
+        // the last page is moved into the first, and the first page fills
+        // up with tuples from the second
+        assertEquals(1, empty.vacuum(tid));
+        assertEquals(2, empty.numPages());
+        assertEquals(2 * BufferPool.PAGE_SIZE, empty.getFile().length());
+        assertEquals(514, countTuples(empty));
+        assertEquals(0, empty.vacuum(tid));
+    }
+
+    private int countTuples(HeapFile f) throws Exception {
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            assertNotNull(it.next());
+            count++;
+        }
+        it.close();
+        return count;
+    }
+
     /**
      * JUnit suite target
      */
@@ -10,6 +10,7 @@ import java.util.*;
 
 import org.junit.Before;
 import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -120,6 +121,26 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.getField() and lazily decoded tuples
+     */
+    @Test public void getField() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        for (int i = 0; i < 20; ++i)
+            assertEquals(new IntField(EXAMPLE_VALUES[i][1]), page.getField(i, 1));
+
+        // a page that was only read writes back the bytes it was read from
+        Tuple tup = page.getTuple(3);
+        assertEquals(new IntField(EXAMPLE_VALUES[3][0]), tup.getField(0));
+        assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+
+        tup.setField(0, new IntField(7));
+        assertEquals(new IntField(7), page.getField(3, 0));
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertEquals(new IntField(7), copy.getField(3, 0));
+        assertEquals(new IntField(EXAMPLE_VALUES[3][1]), copy.getField(3, 1));
+    }
+
     /**
      * JUnit suite target
      */
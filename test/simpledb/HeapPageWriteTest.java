@@ -1,11 +1,15 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.JUnit4TestAdapter;
 
@@ -126,6 +130,116 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.nextUsedSlot() on a sparse page
+     */
+    @Test public void sparsePage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        assertEquals(-1, page.nextUsedSlot(0));
+        for (int i = 0; i < 504; ++i)
+            page.insertTuple(Utility.getHeapTuple(i, 2));
+        assertEquals(0, page.getNumEmptySlots());
+
+        // keep only slots 3, 64 and 503
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int slot = t.getRecordId().tupleno();
+            if (slot != 3 && slot != 64 && slot != 503)
+                page.deleteTuple(t);
+        }
+        assertEquals(501, page.getNumEmptySlots());
+        assertEquals(3, page.nextUsedSlot(0));
+        assertEquals(64, page.nextUsedSlot(4));
+        assertEquals(503, page.nextUsedSlot(65));
+        assertEquals(-1, page.nextUsedSlot(504));
+
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertEquals(501, copy.getNumEmptySlots());
+        int count = 0;
+        for (it = copy.iterator(); it.hasNext(); it.next())
+            count++;
+        assertEquals(3, count);
+
+        // the first free slot is reused
+        page.insertTuple(Utility.getHeapTuple(0, 2));
+        assertTrue(page.isSlotUsed(0));
+    }
+
+    /**
+     * Unit test for HeapPage.getPageData() and the before-image after
+     * changes to a page
+     */
+    @Test public void incrementalPageData() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getPageData());
+
+        Tuple added = Utility.getHeapTuple(42, 2);
+        page.insertTuple(added);
+        Tuple removed = page.iterator().next();
+        page.deleteTuple(removed);
+        assertEquals(484, page.getBeforeImage().getNumEmptySlots());
+
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertEquals(484, copy.getNumEmptySlots());
+        assertFalse(copy.isSlotUsed(removed.getRecordId().tupleno()));
+        int slot = added.getRecordId().tupleno();
+        assertTrue(TestUtil.compareTuples(added, copy.getTuple(slot)));
+
+        // the input array is never written to
+        assertEquals(484, new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA).getNumEmptySlots());
+
+        page.setBeforeImage();
+        assertArrayEquals(page.getPageData(), page.getBeforeImage().getPageData());
+        page.getTuple(slot).setField(0, new IntField(7));
+        assertEquals(new IntField(42), page.getBeforeImage().getField(slot, 0));
+        assertEquals(new IntField(7), new HeapPage(pid, page.getPageData()).getField(slot, 0));
+    }
+
+    /**
+     * Changes made while another thread takes page images, as the page
+     * cleaner does without a page lock, all reach a later image, and no
+     * image has a slot marked used before its tuple is written
+     */
+    @Test public void concurrentPageData() throws Exception {
+        final HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        final int n = page.getNumEmptySlots();
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicInteger phantom = new AtomicInteger(-1);
+        Thread cleaner = new Thread() {
+            public void run() {
+                try {
+                    while (!done.get()) {
+                        HeapPage image = new HeapPage(pid, page.getPageData());
+                        for (int i = image.nextUsedSlot(0); i >= 0; i = image.nextUsedSlot(i + 1)) {
+                            if (!new IntField(i + 1).equals(image.getField(i, 0)))
+                                phantom.compareAndSet(-1, i);
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        cleaner.start();
+        try {
+            for (int i = 0; i < n; i++) {
+                page.insertTuple(Utility.getHeapTuple(i + 1, 2));
+                if (i % 2 == 0)
+                    page.getTuple(i).setField(1, new IntField(-(i + 1)));
+            }
+        } finally {
+            done.set(true);
+            cleaner.join();
+        }
+        assertEquals(-1, phantom.get());
+
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertEquals(0, copy.getNumEmptySlots());
+        for (int i = 0; i < n; i++)
+            assertEquals(new IntField(i % 2 == 0 ? -(i + 1) : i + 1), copy.getField(i, 1));
+    }
+
     /**
      * JUnit suite target
      */
@@ -178,6 +178,31 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test IntegerAggregator.combine() of two aggregators over parts of scan1
+   */
+  @Test public void combine() throws Exception {
+    for (Aggregator.Op op : Aggregator.Op.values()) {
+      IntegerAggregator all = new IntegerAggregator(0, Type.INT_TYPE, 1, op);
+      IntegerAggregator part1 = new IntegerAggregator(0, Type.INT_TYPE, 1, op);
+      IntegerAggregator part2 = new IntegerAggregator(0, Type.INT_TYPE, 1, op);
+      scan1.open();
+      for (int i = 0; scan1.hasNext(); i++) {
+        Tuple t = scan1.next();
+        all.mergeTupleIntoGroup(t);
+        (i < 4 ? part1 : part2).mergeTupleIntoGroup(t);
+      }
+      scan1.close();
+      part1.combine(part2);
+
+      DbIterator expected = all.iterator();
+      expected.open();
+      DbIterator it = part1.iterator();
+      it.open();
+      TestUtil.matchAllTuples(expected, it);
+    }
+  }
+
   /**
    * JUnit suite target
    */
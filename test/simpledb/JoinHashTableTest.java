@@ -0,0 +1,79 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class JoinHashTableTest extends SimpleDbTestBase {
+
+  private static Tuple tuple(TupleDesc td, Field key, int value) {
+    Tuple t = new Tuple(td);
+    t.setField(0, key);
+    t.setField(1, new IntField(value));
+    return t;
+  }
+
+  /**
+   * Unit test for JoinHashTable with INT keys, which chains the rows of a
+   * key in the order they were added
+   */
+  @Test public void intKeys() throws Exception {
+    TupleDesc td = Utility.getTupleDesc(2);
+    JoinHashTable table = JoinHashTable.create(Type.INT_TYPE, 0);
+    for (int i = 0; i < 1000; i++)
+      table.add(tuple(td, new IntField(i % 100 - 50), i));
+    assertEquals(1000, table.size());
+
+    for (int key = -50; key < 50; key++) {
+      Tuple probe = tuple(td, new IntField(key), 0);
+      int expected = key + 50;
+      for (int r = table.find(probe, 0); r != JoinHashTable.NONE; r = table.next(r)) {
+        assertEquals(expected, table.row(r).getInt(1));
+        expected += 100;
+      }
+      assertEquals(key + 50 + 1000, expected);
+    }
+    assertEquals(JoinHashTable.NONE, table.find(tuple(td, new IntField(50), 0), 0));
+
+    TupleBatch b = new TupleBatch(td);
+    b.addRow(tuple(td, new IntField(7), 0));
+    assertEquals(57, table.row(table.find(b, 0, 0)).getInt(1));
+
+    table.clear();
+    assertEquals(0, table.size());
+    assertEquals(JoinHashTable.NONE, table.find(tuple(td, new IntField(7), 0), 0));
+  }
+
+  /**
+   * Unit test for JoinHashTable with STRING keys
+   */
+  @Test public void stringKeys() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+    JoinHashTable table = JoinHashTable.create(Type.STRING_TYPE, 0);
+    for (int i = 0; i < 300; i++)
+      table.add(tuple(td, new StringField("k" + (i % 30), Type.STRING_LEN), i));
+
+    for (int key = 0; key < 30; key++) {
+      Tuple probe = tuple(td, new StringField("k" + key, Type.STRING_LEN), 0);
+      int n = 0;
+      for (int r = table.find(probe, 0); r != JoinHashTable.NONE; r = table.next(r)) {
+        assertEquals(key, table.row(r).getInt(1) % 30);
+        n++;
+      }
+      assertEquals(10, n);
+    }
+    assertEquals(JoinHashTable.NONE,
+        table.find(tuple(td, new StringField("k30", Type.STRING_LEN), 0), 0));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(JoinHashTableTest.class);
+  }
+}
@@ -26,7 +26,7 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
 	 */
 	public static HeapFile createDuplicateHeapFile(ArrayList<ArrayList<Integer>> tuples, int columns, String colPrefix) throws IOException {
         File temp = File.createTempFile("table", ".dat");
-        temp.deleteOnExit();
+        HeapFile.deleteOnExit(temp);
         HeapFileEncoder.convert(tuples, temp, BufferPool.PAGE_SIZE, columns);
         return Utility.openHeapFile(columns, colPrefix, temp);
 	}
@@ -161,6 +161,83 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
 		Assert.assertEquals(Boolean.TRUE, ret[0]);
 	}
 
+	/**
+	 * Verify that the cheapest join algorithm is chosen for large and small joins, and
+	 * that instantiateJoin() builds the join operator of the chosen algorithm
+	 */
+	@Test public void joinAlgorithmTest() throws ParsingException {
+		TransactionId tid = new TransactionId();
+		Parser p = new Parser();
+		LogicalPlan lp = p.generateLogicalPlan(tid, "SELECT * FROM " + tableName1 + " t1, " + tableName2 + " t2 WHERE t1.c1 = t2.c2;");
+		JoinOptimizer jo = new JoinOptimizer(lp, new Vector<LogicalJoinNode>());
+
+		LogicalJoinNode eq = new LogicalJoinNode("t1", "t2", "c1", "c2", Predicate.Op.EQUALS);
+		LogicalJoinNode lt = new LogicalJoinNode("t1", "t2", "c1", "c2", Predicate.Op.LESS_THAN);
+		LogicalJoinNode ne = new LogicalJoinNode("t1", "t2", "c1", "c2", Predicate.Op.NOT_EQUALS);
+
+		double[] costs = jo.estimateJoinCosts(eq, 1000, 10000, 1000.0, 10000.0);
+		Assert.assertEquals(JoinOptimizer.Algorithm.HASH, JoinOptimizer.cheapest(costs));
+		Assert.assertEquals(jo.estimateJoinCost(eq, 1000, 10000, 1000.0, 10000.0),
+				costs[JoinOptimizer.Algorithm.NESTED_LOOP.ordinal()], 0.0);
+		costs = jo.estimateJoinCosts(lt, 1000, 10000, 1000.0, 10000.0);
+		Assert.assertEquals(JoinOptimizer.Algorithm.SORT_MERGE, JoinOptimizer.cheapest(costs));
+		Assert.assertTrue(Double.isInfinite(costs[JoinOptimizer.Algorithm.HASH.ordinal()]));
+		costs = jo.estimateJoinCosts(ne, 1000, 10000, 1000.0, 10000.0);
+		Assert.assertEquals(JoinOptimizer.Algorithm.BLOCK_NESTED_LOOP, JoinOptimizer.cheapest(costs));
+		// spilling a hash join costs the I/O of the spilled tuples, which
+		// does not depend on how expensive the children are to scan
+		int big = 2 * HashEquiJoin.MAP_SIZE;
+		double hash1 = jo.estimateJoinCosts(eq, big, 10000, 1000.0, 10000.0)[JoinOptimizer.Algorithm.HASH.ordinal()];
+		double hash2 = jo.estimateJoinCosts(eq, big, 10000, 5000.0, 10000.0)[JoinOptimizer.Algorithm.HASH.ordinal()];
+		Assert.assertEquals(4000.0, hash2 - hash1, 0.0);
+		Assert.assertTrue(hash1 > 1000.0 + 10000.0 + 2.0 * big + 10000);
+		// one outer tuple is scanned past the inner table as cheaply as possible
+		costs = jo.estimateJoinCosts(eq, 1, 10000, 1.0, 10000.0);
+		Assert.assertEquals(JoinOptimizer.Algorithm.NESTED_LOOP, JoinOptimizer.cheapest(costs));
+
+		DbIterator scan1 = new SeqScan(tid, tableId1, "t1");
+		DbIterator scan2 = new SeqScan(tid, tableId2, "t2");
+		Assert.assertTrue(JoinOptimizer.instantiateJoin(eq, scan1, scan2) instanceof HashEquiJoin);
+		Assert.assertTrue(JoinOptimizer.instantiateJoin(lt, scan1, scan2) instanceof SortMergeJoin);
+		Assert.assertTrue(JoinOptimizer.instantiateJoin(
+				eq.withAlgorithm(JoinOptimizer.Algorithm.SORT_MERGE), scan1, scan2) instanceof SortMergeJoin);
+		DbIterator block = JoinOptimizer.instantiateJoin(
+				ne.withAlgorithm(JoinOptimizer.Algorithm.BLOCK_NESTED_LOOP), scan1, scan2);
+		Assert.assertEquals(Join.BLOCK_SIZE, ((Join) block).getBlockSize());
+		// a hash join cannot compute <, so it falls back to nested loops
+		block = JoinOptimizer.instantiateJoin(
+				lt.withAlgorithm(JoinOptimizer.Algorithm.HASH), scan1, scan2);
+		Assert.assertEquals(1, ((Join) block).getBlockSize());
+	}
+
+	/**
+	 * Verify that orderJoins() records the algorithm it chose for each join
+	 */
+	@Test public void orderJoinsAlgorithmTest() throws ParsingException {
+		TransactionId tid = new TransactionId();
+		Parser p = new Parser();
+		LogicalPlan lp = p.generateLogicalPlan(tid, "SELECT * FROM " + tableName1 + " t1, " + tableName2 + " t2, " + tableName2 + " t3 WHERE t1.c1 = t2.c2 AND t2.c3 < t3.c3;");
+		Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+		nodes.add(new LogicalJoinNode("t1", "t2", "c1", "c2", Predicate.Op.EQUALS));
+		nodes.add(new LogicalJoinNode("t2", "t3", "c3", "c3", Predicate.Op.LESS_THAN));
+		HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+		stats.put(tableName1, stats1);
+		stats.put(tableName2, stats2);
+		HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+		filterSelectivities.put("t1", 1.0);
+		filterSelectivities.put("t2", 1.0);
+		filterSelectivities.put("t3", 1.0);
+
+		Vector<LogicalJoinNode> result = new JoinOptimizer(lp, nodes).orderJoins(stats, filterSelectivities, true);
+		Assert.assertEquals(nodes.size(), result.size());
+		for (LogicalJoinNode j : result) {
+			if (j.p == Predicate.Op.EQUALS)
+				Assert.assertEquals(JoinOptimizer.Algorithm.HASH, j.algorithm);
+			else
+				Assert.assertEquals(JoinOptimizer.Algorithm.SORT_MERGE, j.algorithm);
+		}
+	}
+
 	/**
 	 * Verify that the join cardinalities produced by estimateJoinCardinality() are reasonable
 	 */
@@ -0,0 +1,123 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class MorselPipelineTest extends SimpleDbTestBase {
+
+    private HeapFile big;
+    private HeapFile small;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        big = SystemTestUtil.createRandomHeapFile(3, 12000, 100, null, null);
+        small = SystemTestUtil.createRandomHeapFile(2, 50, 100, null, null);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A filter over a join of small with a filtered scan of big. */
+    private DbIterator pipeline(boolean bigOnRight) {
+        DbIterator b = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(60)),
+                new SeqScan(tid, big.getId(), "b"));
+        DbIterator s = new SeqScan(tid, small.getId(), "s");
+        DbIterator j = bigOnRight
+                ? new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0), s, b)
+                : new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), b, s);
+        return new Filter(new Predicate(2, Predicate.Op.GREATER_THAN, new IntField(10)), j);
+    }
+
+    /**
+     * Unit test for MorselPipeline.canRun
+     */
+    @Test public void canRun() throws Exception {
+        assertTrue(MorselPipeline.canRun(pipeline(true)));
+        assertTrue(MorselPipeline.canRun(pipeline(false)));
+        // too small
+        assertFalse(MorselPipeline.canRun(new SeqScan(tid, small.getId(), "s")));
+        // not an equality join
+        assertFalse(MorselPipeline.canRun(new Join(
+                new JoinPredicate(0, Predicate.Op.LESS_THAN, 0),
+                new SeqScan(tid, small.getId(), "s"), new SeqScan(tid, big.getId(), "b"))));
+        // not over a SeqScan
+        assertFalse(MorselPipeline.canRun(TestUtil.createTupleList(1, new int[] { 1, 2 })));
+    }
+
+    /**
+     * A join whose build side may not fit in its memory budget is left to
+     * the join operator
+     */
+    @Test public void overBudget() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        DbIterator b = new SeqScan(tid, big.getId(), "b");
+        DbIterator s = new SeqScan(tid, small.getId(), "s");
+        assertTrue(MorselPipeline.canRun(new HashEquiJoin(pred, b, s, 504)));
+        DbIterator j = new HashEquiJoin(pred, b, s, 10);
+        assertFalse(MorselPipeline.canRun(j));
+        try {
+            new MorselPipeline(j);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // explicitly ignored
+        }
+        // nor may a build side whose size is not known
+        assertFalse(MorselPipeline.canRun(new HashEquiJoin(pred, b,
+                TestUtil.createTupleList(2, new int[] { 1, 2 }))));
+    }
+
+    /**
+     * A pipeline returns the same tuples on the morsel workers as it does
+     * serially, whichever side of the join it probes with.
+     */
+    @Test public void matchesSerial() throws Exception {
+        for (boolean bigOnRight : new boolean[] { true, false }) {
+            ArrayList<String> expected = TestUtil.runTwice(pipeline(bigOnRight));
+            assertFalse(expected.isEmpty());
+            assertEquals(expected,
+                    TestUtil.runTwice(new MorselPipeline(pipeline(bigOnRight))));
+        }
+        DbIterator scan = new SeqScan(tid, big.getId(), "b");
+        assertEquals(12000, TestUtil.runTwice(new MorselPipeline(scan)).size());
+    }
+
+    /**
+     * Aggregates computed from the partial aggregates of the workers match
+     * Aggregate.
+     */
+    @Test public void aggregate() throws Exception {
+        for (Aggregator.Op op : Aggregator.Op.values()) {
+            for (int gfield : new int[] { Aggregator.NO_GROUPING, 3 }) {
+                ArrayList<String> expected = TestUtil.runTwice(
+                        new Aggregate(pipeline(true), 4, gfield, op));
+                MorselPipeline mp = new MorselPipeline(pipeline(true), 4, gfield, op);
+                assertEquals(new Aggregate(pipeline(true), 4, gfield, op).getTupleDesc(),
+                        mp.getTupleDesc());
+                assertEquals(op + " " + gfield, expected, TestUtil.runTwice(mp));
+            }
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MorselPipelineTest.class);
+    }
+}
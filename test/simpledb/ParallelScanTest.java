@@ -0,0 +1,114 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ParallelScanTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 20000, 100, null, null);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private DbIterator filter(DbIterator child) {
+        return new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(40)), child);
+    }
+
+    /**
+     * Unit test for SeqScan.split
+     */
+    @Test public void split() throws Exception {
+        SeqScan ss = new SeqScan(tid, hf.getId(), "t");
+        SeqScan[] scans = ss.split(3);
+        assertEquals(3, scans.length);
+        int tuples = 0;
+        for (SeqScan s : scans)
+            tuples += TestUtil.runTwice(s).size();
+        assertEquals(20000, tuples);
+
+        assertEquals(1, ss.split(1).length);
+        assertEquals(hf.numPages(), ss.split(hf.numPages() + 10).length);
+    }
+
+    /**
+     * A Gather over Filters of split scans returns the same tuples as the
+     * serial plan.
+     */
+    @Test public void gather() throws Exception {
+        ArrayList<String> expected =
+                TestUtil.runTwice(filter(new SeqScan(tid, hf.getId(), "t")));
+        SeqScan[] scans = new SeqScan(tid, hf.getId(), "t").split(4);
+        DbIterator[] chains = new DbIterator[scans.length];
+        for (int i = 0; i < scans.length; i++)
+            chains[i] = filter(scans[i]);
+        Gather g = new Gather(chains);
+        assertEquals("gather(4)", g.getName());
+        assertEquals(expected, TestUtil.runTwice(g));
+    }
+
+    /**
+     * Unit test for LogicalPlan.parallelize
+     */
+    @Test public void parallelize() throws Exception {
+        DbIterator serial = filter(new SeqScan(tid, hf.getId(), "t"));
+        assertSame(serial, LogicalPlan.parallelize(serial, 1));
+        DbIterator parallel = LogicalPlan.parallelize(serial, 4);
+        assertTrue(parallel instanceof Gather);
+        assertTrue(((Gather) parallel).getChildren()[0] instanceof Filter);
+        assertEquals(TestUtil.runTwice(serial), TestUtil.runTwice(parallel));
+
+        // too small to be worth splitting
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        DbIterator scan = new SeqScan(tid, small.getId(), "s");
+        assertSame(scan, LogicalPlan.parallelize(scan, 4));
+    }
+
+    /**
+     * Unit test for LogicalPlan.parallelizeScans: the outer child of a
+     * nested-loop join is split, and the inner one, which is rewound for
+     * every outer tuple, is not
+     */
+    @Test public void parallelizeJoin() throws Exception {
+        DbIterator outer = filter(new SeqScan(tid, hf.getId(), "a"));
+        DbIterator inner = filter(new SeqScan(tid, hf.getId(), "b"));
+        Join j = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0), outer, inner);
+        assertSame(j, LogicalPlan.parallelizeScans(j, 4));
+        assertTrue(j.getChildren()[0] instanceof Gather);
+        assertSame(inner, j.getChildren()[1]);
+
+        HashEquiJoin h = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                filter(new SeqScan(tid, hf.getId(), "a")),
+                filter(new SeqScan(tid, hf.getId(), "b")));
+        LogicalPlan.parallelizeScans(h, 4);
+        assertTrue(h.getChildren()[0] instanceof Gather);
+        assertTrue(h.getChildren()[1] instanceof Gather);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelScanTest.class);
+    }
+}
@@ -0,0 +1,80 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ScanPipelineTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(3, 3000, 50, null, null);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        ScanPipeline.enabled = true;
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private DbIterator plan(Predicate.Op op) {
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        fields.add(2);
+        fields.add(1);
+        DbIterator scan = new SeqScan(tid, hf.getId(), "t");
+        DbIterator filters = new Filter(new Predicate(0, op, new IntField(25)),
+                new Filter(new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(5)), scan));
+        return new Project(fields, new Type[] { Type.INT_TYPE, Type.INT_TYPE }, filters);
+    }
+
+    /**
+     * Unit test for ScanPipeline.compile
+     */
+    @Test public void compile() throws Exception {
+        assertNotNull(ScanPipeline.compile(plan(Predicate.Op.EQUALS)));
+        assertNotNull(ScanPipeline.compile(new Filter(
+                new Predicate(0, Predicate.Op.EQUALS, new IntField(1)),
+                new SeqScan(tid, hf.getId(), "t"))));
+        // not over a SeqScan
+        assertNull(ScanPipeline.compile(new Filter(
+                new Predicate(0, Predicate.Op.EQUALS, new IntField(1)),
+                TestUtil.createTupleList(1, new int[] { 1, 2 }))));
+        ScanPipeline.enabled = false;
+        assertNull(ScanPipeline.compile(plan(Predicate.Op.EQUALS)));
+    }
+
+    /**
+     * The compiled pipeline returns the same tuples as the interpreter for
+     * every operator.
+     */
+    @Test public void matchesInterpreter() throws Exception {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            ScanPipeline.enabled = false;
+            ArrayList<String> expected = TestUtil.runTwice(plan(op));
+            ScanPipeline.enabled = true;
+            assertEquals(op.toString(), expected, TestUtil.runTwice(plan(op)));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ScanPipelineTest.class);
+    }
+}
@@ -0,0 +1,203 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedFileTest extends SimpleDbTestBase {
+
+    private TupleDesc td;
+    private SlottedFile sf;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE },
+                new String[] { "id", "name" });
+        File temp = File.createTempFile("slotted", ".dat");
+        temp.deleteOnExit();
+        sf = new SlottedFile(temp, td);
+        Database.getCatalog().addTable(sf, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+    }
+
+    private Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * Unit test for SlottedPage insert, delete and compaction
+     */
+    @Test public void pageInsertDelete() throws Exception {
+        HeapPageId pid = new HeapPageId(sf.getId(), 0);
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        List<Tuple> inserted = new ArrayList<Tuple>();
+        for (int i = 0; page.fits(tuple(i, "name" + i)); i++) {
+            Tuple t = tuple(i, "name" + i);
+            page.insertTuple(t);
+            inserted.add(t);
+        }
+        // a HeapPage holds 30 of these tuples
+        assertTrue(inserted.size() > 200);
+
+        // deleting every other tuple makes room for longer ones, which
+        // compacts the page
+        int freed = 0;
+        for (int i = 0; i < inserted.size(); i += 2) {
+            page.deleteTuple(inserted.get(i));
+            freed++;
+        }
+        assertEquals(inserted.size() - freed, page.getNumTuples());
+        Tuple wide = tuple(-1, "a much longer string than the ones before");
+        page.insertTuple(wide);
+        assertEquals(0, wide.getRecordId().tupleno());
+
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        assertEquals(page.getNumTuples(), copy.getNumTuples());
+        assertTrue(TestUtil.compareTuples(wide, copy.getTuple(0)));
+        assertTrue(TestUtil.compareTuples(inserted.get(1), copy.getTuple(1)));
+        assertEquals(0, page.getBeforeImage().getNumTuples());
+    }
+
+    /**
+     * Strings beyond Latin-1 are stored as their encoded bytes, and the
+     * record size counts those bytes
+     */
+    @Test public void pageUnicode() throws Exception {
+        HeapPageId pid = new HeapPageId(sf.getId(), 0);
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        String name = "\u00e9t\u00e9 \u65e5\u672c \u0394";
+        Tuple t = tuple(1, name);
+        assertEquals(4 + 2 + name.getBytes("UTF-8").length, SlottedPage.recordSize(t));
+        page.insertTuple(t);
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        assertEquals(new StringField(name, Type.STRING_LEN),
+                copy.getTuple(t.getRecordId().tupleno()).getField(1));
+    }
+
+    /**
+     * Unit test for SlottedFile insertTuple, deleteTuple and iterator
+     */
+    @Test public void fileInsertScan() throws Exception {
+        List<Tuple> inserted = new ArrayList<Tuple>();
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = tuple(i, "row" + i);
+            Database.getBufferPool().insertTuple(tid, sf.getId(), t);
+            inserted.add(t);
+        }
+        assertTrue(sf.numPages() <= 5);
+
+        Database.getBufferPool().deleteTuple(tid, inserted.get(10));
+        DbFileIterator it = sf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            assertTrue(id != 10);
+            assertEquals("row" + id, ((StringField) t.getField(1)).getValue());
+            count++;
+        }
+        it.close();
+        assertEquals(999, count);
+
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SlottedFile reopened = new SlottedFile(sf.getFile(), td);
+        assertEquals(sf.numPages(), reopened.numPages());
+    }
+
+    /**
+     * A delete on an earlier page makes room that later inserts reuse
+     * instead of growing the file
+     */
+    @Test public void freePageReuse() throws Exception {
+        List<Tuple> inserted = new ArrayList<Tuple>();
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = tuple(i, "row" + i);
+            Database.getBufferPool().insertTuple(tid, sf.getId(), t);
+            inserted.add(t);
+        }
+        int pages = sf.numPages();
+        Tuple first = inserted.get(0);
+        assertEquals(0, first.getRecordId().getPageId().pageNumber());
+        Database.getBufferPool().deleteTuple(tid, first);
+
+        Tuple t = tuple(-1, "row0");
+        Database.getBufferPool().insertTuple(tid, sf.getId(), t);
+        assertEquals(0, t.getRecordId().getPageId().pageNumber());
+        assertEquals(pages, sf.numPages());
+    }
+
+    /**
+     * The slotted table option of a catalog file builds a SlottedFile
+     */
+    @Test public void catalogSlottedOption() throws Exception {
+        File catalog = File.createTempFile("catalog", ".txt");
+        catalog.deleteOnExit();
+        String name = "slotted" + SystemTestUtil.getUUID().replace("-", "");
+        FileWriter w = new FileWriter(catalog);
+        w.write(name + " (a int, b string) slotted\n");
+        w.close();
+        new File(catalog.getParent(), name + ".dat").deleteOnExit();
+        Database.getCatalog().loadSchema(catalog.getPath());
+        int id = Database.getCatalog().getTableId(name);
+        assertTrue(Database.getCatalog().getDbFile(id) instanceof SlottedFile);
+    }
+
+    /**
+     * SlottedFileEncoder writes a text file as pages that a SlottedFile reads
+     */
+    @Test public void encoderRoundTrip() throws Exception {
+        File txt = File.createTempFile("slotted", ".txt");
+        txt.deleteOnExit();
+        FileWriter w = new FileWriter(txt);
+        for (int i = 0; i < 1000; i++)
+            w.write(i + ",row" + i + "\n");
+        w.write("notanint,row\n");
+        w.close();
+        File dat = File.createTempFile("slotted", ".dat");
+        dat.deleteOnExit();
+        SlottedFileEncoder.convert(txt, dat,
+                new Type[] { Type.INT_TYPE, Type.STRING_TYPE }, ',');
+
+        SlottedFile encoded = new SlottedFile(dat, td);
+        Database.getCatalog().addTable(encoded, SystemTestUtil.getUUID());
+        assertTrue(encoded.numPages() > 1);
+        DbFileIterator it = encoded.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            assertEquals("row" + id, ((StringField) t.getField(1)).getValue());
+            count++;
+        }
+        it.close();
+        assertEquals(1000, count);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedFileTest.class);
+    }
+}
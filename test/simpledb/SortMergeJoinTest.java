@@ -0,0 +1,180 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  int[] left;
+  int[] right;
+
+  static final Predicate.Op[] OPS = { Predicate.Op.EQUALS,
+      Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+      Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ };
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    Random r = new Random(11);
+    left = new int[200 * width1];
+    for (int i = 0; i < left.length; i++)
+      left[i] = r.nextInt(50);
+    right = new int[300 * width2];
+    for (int i = 0; i < right.length; i++)
+      right[i] = r.nextInt(50);
+  }
+
+  private static ArrayList<String> run(DbIterator op, boolean sort) throws Exception {
+    ArrayList<String> rows = new ArrayList<String>();
+    op.open();
+    while (op.hasNext())
+      rows.add(op.next().toString());
+    op.close();
+    if (sort)
+      Collections.sort(rows);
+    return rows;
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() using an = predicate
+   */
+  @Test public void eqJoin() throws Exception {
+    DbIterator scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+    DbIterator scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3, 2, 3, 4, 3, 4, 5, 4, 5, 6, 5, 6, 7 });
+    DbIterator eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3, 3, 4, 3, 4, 5, 5, 6, 5, 6, 7 });
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Every predicate a sort-merge join handles returns the same tuples as a
+   * nested-loop join
+   */
+  @Test public void matchesNestedLoops() throws Exception {
+    for (Predicate.Op op : OPS) {
+      JoinPredicate pred = new JoinPredicate(1, op, 2);
+      ArrayList<String> expected = run(new Join(pred,
+          TestUtil.createTupleList(width1, left),
+          TestUtil.createTupleList(width2, right)), true);
+      ArrayList<String> actual = run(new SortMergeJoin(pred,
+          TestUtil.createTupleList(width1, left),
+          TestUtil.createTupleList(width2, right)), true);
+      assertTrue(expected.size() > 0);
+      assertEquals(op.toString(), expected, actual);
+    }
+  }
+
+  /**
+   * Children ordered by an OrderBy, ascending or descending, are joined
+   * without sorting them again, and the join is ordered on the field of
+   * child1
+   */
+  @Test public void orderedChildren() throws Exception {
+    for (Predicate.Op op : OPS) {
+      JoinPredicate pred = new JoinPredicate(0, op, 1);
+      ArrayList<String> expected = run(new Join(pred,
+          TestUtil.createTupleList(width1, left),
+          TestUtil.createTupleList(width2, right)), true);
+      OrderBy child1 = new OrderBy(0, true, TestUtil.createTupleList(width1, left));
+      OrderBy child2 = new OrderBy(1, false, TestUtil.createTupleList(width2, right));
+      assertEquals(1, SortMergeJoin.orderOn(child1, 0));
+      assertEquals(-1, SortMergeJoin.orderOn(child2, 1));
+      SortMergeJoin smj = new SortMergeJoin(pred, child1, child2);
+      assertEquals(1, SortMergeJoin.orderOn(smj, 0));
+
+      smj.open();
+      ArrayList<String> actual = new ArrayList<String>();
+      int last = Integer.MIN_VALUE;
+      while (smj.hasNext()) {
+        Tuple t = smj.next();
+        assertTrue(t.getInt(0) >= last);
+        last = t.getInt(0);
+        actual.add(t.toString());
+      }
+      smj.close();
+      Collections.sort(actual);
+      assertEquals(op.toString(), expected, actual);
+    }
+  }
+
+  /**
+   * Unit test for SortMergeJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.LESS_THAN, 0);
+    HashEquiJoinTest.CountingIterator scan1 = new HashEquiJoinTest.CountingIterator(
+        TestUtil.createTupleList(width1, left));
+    SortMergeJoin op = new SortMergeJoin(pred, scan1,
+        TestUtil.createTupleList(width2, right));
+    op.open();
+    ArrayList<String> first = new ArrayList<String>();
+    while (op.hasNext())
+      first.add(op.next().toString());
+    op.rewind();
+    ArrayList<String> again = new ArrayList<String>();
+    while (op.hasNext())
+      again.add(op.next().toString());
+    op.close();
+    assertTrue(first.size() > 0);
+    assertEquals(first, again);
+    assertEquals(200, scan1.read);
+  }
+
+  /**
+   * Unit test for SortMergeJoin on STRING keys
+   */
+  @Test public void stringKeys() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < 60; i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new StringField("k" + (i * 7 % 20), Type.STRING_LEN));
+      t.setField(1, new IntField(i));
+      tuples.add(t);
+    }
+    for (Predicate.Op op : OPS) {
+      JoinPredicate pred = new JoinPredicate(0, op, 0);
+      ArrayList<String> expected = run(new Join(pred,
+          new TupleIterator(td, tuples), new TupleIterator(td, tuples)), true);
+      ArrayList<String> actual = run(new SortMergeJoin(pred,
+          new TupleIterator(td, tuples), new TupleIterator(td, tuples)), true);
+      assertEquals(op.toString(), expected, actual);
+    }
+  }
+
+  /**
+   * A sort-merge join cannot join on <>
+   */
+  @Test(expected = IllegalArgumentException.class) public void notEquals() {
+    new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0),
+        TestUtil.createTupleList(width1, left),
+        TestUtil.createTupleList(width2, right));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
@@ -149,6 +149,29 @@ public class TestUtil {
         }
     }
 
+    /**
+     * Opens an iterator, reads all of its tuples, then rewinds it and
+     * checks that it returns as many tuples again, and closes it.
+     *
+     * @return the tuples read before the rewind, as sorted strings
+     */
+    public static ArrayList<String> runTwice(DbIterator it) throws Exception {
+        ArrayList<String> rows = new ArrayList<String>();
+        it.open();
+        while (it.hasNext())
+            rows.add(it.next().toString());
+        it.rewind();
+        int again = 0;
+        while (it.hasNext()) {
+            it.next();
+            again++;
+        }
+        assertEquals(rows.size(), again);
+        it.close();
+        Collections.sort(rows);
+        return rows;
+    }
+
     /**
      * Verifies that the DbIterator has been exhausted of all elements.
      */
@@ -378,7 +401,7 @@ public class TestUtil {
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
-            emptyFile.deleteOnExit();
+            HeapFile.deleteOnExit(emptyFile);
         }
 
         protected void setUp() throws Exception {
@@ -133,6 +133,19 @@ public class TupleDescTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for TupleDesc.intIndex() and TupleDesc.numIntFields()
+     */
+    @Test public void intIndex() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE,
+                Type.STRING_TYPE, Type.INT_TYPE });
+        assertEquals(2, td.numIntFields());
+        assertEquals(-1, td.intIndex(0));
+        assertEquals(0, td.intIndex(1));
+        assertEquals(-1, td.intIndex(2));
+        assertEquals(1, td.intIndex(3));
+    }
+
     /**
      * Unit test for TupleDesc.numFields()
      */
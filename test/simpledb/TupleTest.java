@@ -1,6 +1,8 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
@@ -29,6 +31,43 @@ public class TupleTest extends SimpleDbTestBase {
         assertEquals(new IntField(37), tup.getField(1));
     }
 
+    /**
+     * Unit test for Tuple.getInt(), Tuple.setInt() and Tuple.copyFields()
+     */
+    @Test public void intFields() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        Tuple tup = new Tuple(td);
+        assertNull(tup.getField(0));
+        tup.setInt(0, 42);
+        tup.setField(1, new StringField("abc", Type.STRING_LEN));
+        tup.setField(2, new IntField(-7));
+
+        assertEquals(42, tup.getInt(0));
+        assertEquals(new IntField(42), tup.getField(0));
+        assertEquals("abc", tup.getString(1));
+        assertEquals(-7, tup.getInt(2));
+
+        tup.setInt(2, 9);
+        assertEquals(new IntField(9), tup.getField(2));
+
+        Tuple copy = new Tuple(td);
+        copy.copyFields(0, tup, 0, 3);
+        assertEquals(42, copy.getInt(0));
+        assertEquals("abc", copy.getString(1));
+        assertEquals(9, copy.getInt(2));
+
+        tup.setField(0, null);
+        assertNull(tup.getField(0));
+        assertFalse(tup.hasValue(0));
+        assertEquals(9, tup.getInt(2));
+
+        // more int fields than one bitmap word
+        Tuple wide = new Tuple(Utility.getTupleDesc(100));
+        wide.setInt(70, 5);
+        assertEquals(new IntField(5), wide.getField(70));
+        assertNull(wide.getField(6));
+    }
+
     /**
      * Unit test for Tuple.getTupleDesc()
      */
@@ -0,0 +1,149 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+public class BatchTest extends SimpleDbTestBase {
+
+    private static ArrayList<ArrayList<Integer>> readBatches(DbIterator it)
+            throws DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        TupleBatch b;
+        while ((b = TupleBatch.next(it)) != null) {
+            assertTrue(b.size() > 0);
+            for (int k = 0; k < b.size(); k++) {
+                ArrayList<Integer> row = new ArrayList<Integer>();
+                for (int i = 0; i < b.getTupleDesc().numFields(); i++)
+                    row.add(b.getInt(i, b.row(k)));
+                rows.add(row);
+            }
+        }
+        it.close();
+        return rows;
+    }
+
+    private static ArrayList<ArrayList<Integer>> readRows(DbIterator it)
+            throws DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext())
+            rows.add(SystemTestUtil.tupleToList(it.next()));
+        it.close();
+        return rows;
+    }
+
+    private static void sort(ArrayList<ArrayList<Integer>> rows) {
+        Collections.sort(rows, new Comparator<ArrayList<Integer>>() {
+            public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+                for (int i = 0; i < a.size(); i++) {
+                    int c = a.get(i).compareTo(b.get(i));
+                    if (c != 0)
+                        return c;
+                }
+                return 0;
+            }
+        });
+    }
+
+    /**
+     * A scan, filter and projection read in batches return the same rows
+     * as read one tuple at a time.
+     */
+    @Test public void scanFilterProject() throws IOException, DbException,
+            TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 5000, 100, null, tuples);
+        TransactionId tid = new TransactionId();
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) < 30) {
+                ArrayList<Integer> row = new ArrayList<Integer>();
+                row.add(t.get(2));
+                row.add(t.get(0));
+                expected.add(row);
+            }
+        }
+
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        fields.add(2);
+        fields.add(0);
+        Project project = new Project(fields, new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+                new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(30)),
+                        new SeqScan(tid, f.getId(), "")));
+        ArrayList<ArrayList<Integer>> actual = readBatches(project);
+        sort(expected);
+        sort(actual);
+        assertEquals(expected, actual);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * HashEquiJoin in batches returns the same rows as one tuple at a time.
+     */
+    @Test public void hashJoin() throws IOException, DbException,
+            TransactionAbortedException {
+        HeapFile left = SystemTestUtil.createRandomHeapFile(2, 3000, 500, null, null);
+        HeapFile right = SystemTestUtil.createRandomHeapFile(2, 2000, 500, null, null);
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+
+        ArrayList<ArrayList<Integer>> rows = readRows(new HashEquiJoin(p,
+                new SeqScan(tid, left.getId(), "l"), new SeqScan(tid, right.getId(), "r")));
+        ArrayList<ArrayList<Integer>> batches = readBatches(new HashEquiJoin(p,
+                new SeqScan(tid, left.getId(), "l"), new SeqScan(tid, right.getId(), "r")));
+        assertTrue(rows.size() > 0);
+        sort(rows);
+        sort(batches);
+        assertEquals(rows, batches);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Aggregate reads its child in batches.
+     */
+    @Test public void groupedSum() throws IOException, DbException,
+            TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 4000, 20, null, tuples);
+        TransactionId tid = new TransactionId();
+
+        HashMap<Integer, Integer> sums = new HashMap<Integer, Integer>();
+        for (ArrayList<Integer> t : tuples) {
+            Integer s = sums.get(t.get(0));
+            sums.put(t.get(0), (s == null ? 0 : s) + t.get(1));
+        }
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (Integer key : sums.keySet()) {
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(key);
+            row.add(sums.get(key));
+            expected.add(row);
+        }
+
+        Aggregate agg = new Aggregate(new SeqScan(tid, f.getId(), ""), 1, 0,
+                Aggregator.Op.SUM);
+        ArrayList<ArrayList<Integer>> actual = readBatches(agg);
+        sort(expected);
+        sort(actual);
+        assertEquals(expected, actual);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BatchTest.class);
+    }
+}
@@ -0,0 +1,65 @@
+package simpledb.systemtest;
+
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Compares the hit ratio of the eviction policies on a mixed workload:
+ * repeated sequential scans of a large fact table, interleaved with skewed
+ * point lookups on the pages of a small dimension table. The dimension pages
+ * fit in the pool, the fact table does not, so a scan resistant policy keeps
+ * the dimension pages resident while plain LRU keeps flushing them.
+ * <p>
+ * Run with: java -cp bin/src:bin/test:lib/* simpledb.systemtest.EvictionPolicyBenchmark
+ */
+public class EvictionPolicyBenchmark {
+    private static final int POOL_PAGES = 64;
+    private static final int FACT_ROWS = 1024 * 200;
+    private static final int DIM_ROWS = 1024 * 16;
+    private static final int SCANS = 5;
+    /** Point lookups issued after every fact page read. */
+    private static final int LOOKUPS_PER_PAGE = 2;
+
+    public static void main(String[] args) throws Exception {
+        String[] names = {"LRU", "CLOCK", "LRU-2", "2Q"};
+        for (String name : names) {
+            Database.reset();
+            HeapFile fact = SystemTestUtil.createRandomHeapFile(2, FACT_ROWS, null, null);
+            HeapFile dim = SystemTestUtil.createRandomHeapFile(2, DIM_ROWS, null, null);
+            BufferPool bp = Database.resetBufferPool(POOL_PAGES, createPolicy(name));
+            run(bp, fact, dim);
+            long hits = bp.getHitCount();
+            long total = hits + bp.getMissCount();
+            System.out.printf("%-6s fact=%d pages dim=%d pages hit ratio %.3f (%d/%d)%n",
+                    name, fact.numPages(), dim.numPages(), (double) hits / total, hits, total);
+        }
+    }
+
+    private static EvictionPolicy.Factory createPolicy(String name) {
+        if (name.equals("CLOCK"))
+            return ClockPolicy.FACTORY;
+        if (name.equals("LRU-2"))
+            return LruKPolicy.factory(2);
+        if (name.equals("2Q"))
+            return TwoQueuePolicy.FACTORY;
+        return LruPolicy.FACTORY;
+    }
+
+    private static void run(BufferPool bp, HeapFile fact, HeapFile dim) throws Exception {
+        TransactionId tid = new TransactionId();
+        Random rand = new Random(42);
+        int dimPages = dim.numPages();
+        for (int scan = 0; scan < SCANS; scan++) {
+            for (int pg = 0; pg < fact.numPages(); pg++) {
+                bp.getPage(tid, new HeapPageId(fact.getId(), pg), Permissions.READ_ONLY);
+                for (int i = 0; i < LOOKUPS_PER_PAGE; i++) {
+                    // skewed towards the first dimension pages
+                    int dimPg = (int) (dimPages * Math.pow(rand.nextDouble(), 2));
+                    bp.getPage(tid, new HeapPageId(dim.getId(), dimPg), Permissions.READ_ONLY);
+                }
+            }
+        }
+        bp.transactionComplete(tid);
+    }
+}